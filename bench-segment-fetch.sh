@@ -0,0 +1,50 @@
+#!/bin/bash
+# Segment-fetch latency under concurrent load (p50 / p99 of TTFB and total time).
+#
+#   ./bench-segment-fetch.sh <base-url> <video-id> [quality] [concurrency] [requests]
+#   ./bench-segment-fetch.sh https://modtube.local 3f2a... 720p 50 2000
+#
+# To compare MinIO read paths (e.g. before/after a change to StorageService.open),
+# run the app with MEDIA_CACHE_ENABLED=false MEDIA_TIER_ENABLED=false so every
+# request reaches MinIO, run this against each build on the same video, and
+# compare the summaries. The app-side view of the same thing is the
+# localtube_media_fetch_seconds{tier="minio"} timer in Prometheus.
+set -euo pipefail
+
+BASE="${1:?base url}"
+VIDEO="${2:?video id}"
+QUALITY="${3:-720p}"
+CONCURRENCY="${4:-50}"
+REQUESTS="${5:-2000}"
+CURL_OPTS=(-k -s -o /dev/null)
+
+PLAYLIST_URL="$BASE/hls/$VIDEO/$QUALITY/playlist.m3u8"
+SEGMENTS=$(curl -k -s "$PLAYLIST_URL" | grep -v '^#' | grep -v '^$' || true)
+if [ -z "$SEGMENTS" ]; then
+    echo "No segments found at $PLAYLIST_URL" >&2
+    exit 1
+fi
+COUNT=$(echo "$SEGMENTS" | wc -l)
+echo "[bench] $COUNT segments in $QUALITY, $REQUESTS requests, concurrency $CONCURRENCY"
+
+OUT=$(mktemp)
+trap 'rm -f "$OUT"' EXIT
+
+# Cycle through the segment list so requests overlap on the same objects, as
+# when many viewers watch the same video.
+for i in $(seq 0 $((REQUESTS - 1))); do
+    echo "$SEGMENTS" | sed -n "$(( i % COUNT + 1 ))p"
+done | xargs -P "$CONCURRENCY" -I{} \
+    curl "${CURL_OPTS[@]}" -w '%{http_code} %{time_starttransfer} %{time_total}\n' \
+    "$BASE/hls/$VIDEO/$QUALITY/{}" >> "$OUT"
+
+percentile() {   # $1 = column, $2 = percentile (0-100)
+    awk -v c="$1" '$1 == 200 { print $c }' "$OUT" | sort -n | awk -v p="$2" '
+        { v[NR] = $1 }
+        END { if (NR == 0) { print "n/a"; exit } i = int((p / 100) * NR + 0.999); if (i < 1) i = 1; printf "%.1f ms", v[i] * 1000 }'
+}
+
+OK=$(awk '$1 == 200' "$OUT" | wc -l)
+echo "[bench] ok: $OK / $REQUESTS"
+echo "[bench] TTFB   p50 $(percentile 2 50)   p99 $(percentile 2 99)"
+echo "[bench] total  p50 $(percentile 3 50)   p99 $(percentile 3 99)"
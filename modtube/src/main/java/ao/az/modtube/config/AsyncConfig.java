@@ -1,6 +1,7 @@
 package ao.az.modtube.config;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -13,17 +14,61 @@ import java.util.concurrent.Executor;
 @EnableAsync
 public class AsyncConfig {
 
-    @Bean(name = "videoProcessingExecutor")
-    public Executor videoProcessingExecutor() {
+    /**
+     * Threads that run claimed transcode jobs. The worker pool only claims a job
+     * when one of its slots is free, so the queue here never fills — pending work
+     * waits in the transcode_jobs table instead of being dropped.
+     */
+    @Bean(name = "transcodeWorkerExecutor")
+    public Executor transcodeWorkerExecutor(@Value("${modtube.transcoding.queue.workers:2}") int workers) {
+        int n = Math.max(1, workers);
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(4);
-        executor.setQueueCapacity(10);
-        executor.setThreadNamePrefix("video-processing-");
-        executor.setRejectedExecutionHandler((r, executor1) -> {
-            log.warn("Video processing task rejected - queue full");
-        });
+        executor.setCorePoolSize(n);
+        executor.setMaxPoolSize(n);
+        executor.setQueueCapacity(n);
+        executor.setThreadNamePrefix("transcode-worker-");
         executor.initialize();
+        log.info("Transcode worker executor: {} thread(s)", n);
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * Threads that encode pieces of split transcodes. Like the worker executor,
+     * pieces are only claimed into free slots, so the queue never fills.
+     */
+    @Bean(name = "transcodePieceExecutor")
+    public Executor transcodePieceExecutor(@Value("${modtube.transcoding.split.piece-workers:0}") int pieceWorkers,
+                                           @Value("${modtube.transcoding.split.threads-per-piece:4}") int threadsPerPiece) {
+        int n = pieceWorkers > 0 ? pieceWorkers
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, threadsPerPiece));
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(n);
+        executor.setMaxPoolSize(n);
+        executor.setQueueCapacity(n);
+        executor.setThreadNamePrefix("transcode-piece-");
+        executor.initialize();
+        log.info("Transcode piece executor: {} thread(s)", n);
+        return executor;
+    }
+
+    /**
+     * Threads that take a completed upload from assembly to the transcode queue.
+     * The queue is bounded: when it is full, /complete is refused with 503 and a
+     * Retry-After instead of piling up work (the upload itself stays resumable).
+     */
+    @Bean(name = "ingestExecutor")
+    public Executor ingestExecutor(@Value("${modtube.storage.ingest.threads:2}") int threads,
+                                   @Value("${modtube.storage.ingest.queue-capacity:16}") int queueCapacity) {
+        int n = Math.max(1, threads);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(n);
+        executor.setMaxPoolSize(n);
+        executor.setQueueCapacity(Math.max(1, queueCapacity));
+        executor.setThreadNamePrefix("ingest-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        log.info("Ingest executor: {} thread(s), queue {}", n, Math.max(1, queueCapacity));
+        return executor;
+    }
+}
@@ -1,18 +1,35 @@
 package ao.az.modtube.controller;
 
+import ao.az.modtube.domain.VideoStatus;
+import ao.az.modtube.metrics.ModTubeMetrics;
+import ao.az.modtube.service.LocalMediaTier;
+import ao.az.modtube.service.SegmentCache;
 import ao.az.modtube.service.StorageService;
+import ao.az.modtube.service.VideoService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -22,25 +39,57 @@ import java.util.concurrent.TimeUnit;
  * MinIO port unexposed — important on locked-down networks — and lets us enforce
  * access rules in one place later if needed. nginx forwards /hls and /thumbnails
  * here; playlists reference segments relatively so no URL rewriting is required.
+ *
+ * Single byte ranges (Range / If-Range) are answered with 206 from a MinIO ranged
+ * GET, so seeking and resumed downloads never restart from byte 0.
+ *
+ * Reads go through up to three tiers: the in-memory {@link SegmentCache}, the
+ * local disk {@link LocalMediaTier} and finally MinIO.
+ *
+ * Every response carries the object's MinIO ETag and Last-Modified, and
+ * If-None-Match / If-Modified-Since are answered with 304 from metadata alone —
+ * the object stream is never opened. Once a video is READY with its whole ladder
+ * published nothing under hls/{id}/ changes again, so its playlists and segments
+ * are served immutable; until then playlists are revalidated on every fetch.
  */
 @Slf4j
 @RestController
 @RequiredArgsConstructor
 public class MediaController {
 
+    /** Copy buffer size — large enough that a 20 GB original needs few syscalls. */
+    private static final int COPY_BUFFER_BYTES = 256 * 1024;
+
+    /** Direct copy buffers, reused across responses; extra ones under load are simply dropped. */
+    private static final BlockingQueue<ByteBuffer> COPY_BUFFERS = new ArrayBlockingQueue<>(16);
+
+    /** Finished VOD output: never rewritten, so browsers need not even revalidate. */
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+
+    /** How long a video's "fully published" answer is trusted before asking the DB again. */
+    private static final long PUBLISHED_TTL_MS = 30_000;
+    private static final int PUBLISHED_MAX_ENTRIES = 10_000;
+
     private final StorageService storage;
+    private final SegmentCache segmentCache;
+    private final LocalMediaTier localTier;
+    private final ModTubeMetrics metrics;
+    private final VideoService videoService;
+
+    private record Published(boolean complete, long checkedAtMs) {}
+    private final ConcurrentHashMap<String, Published> published = new ConcurrentHashMap<>();
 
     @GetMapping("/hls/**")
     public ResponseEntity<?> hls(HttpServletRequest request) {
         // Strip the leading slash: "/hls/{id}/master.m3u8" → key "hls/{id}/master.m3u8"
         String key = request.getRequestURI().substring(1);
-        return serve(key, /*cacheSeconds*/ key.endsWith(".m3u8") ? 0 : 86400);
+        return serve(request, key, hlsCacheControl(key), null);
     }
 
     @GetMapping("/thumbnails/**")
     public ResponseEntity<?> thumbnails(HttpServletRequest request) {
         String key = request.getRequestURI().substring(1);
-        return serve(key, 3600);
+        return serve(request, key, cacheFor(3600), null);
     }
 
     /**
@@ -51,42 +100,289 @@ public class MediaController {
     @GetMapping("/meeting-files/**")
     public ResponseEntity<?> meetingFiles(HttpServletRequest request) {
         String rel = request.getRequestURI().substring("/meeting-files/".length());
-        return serve("meeting-attachments/" + rel, 3600);
+        return serve(request, "meeting-attachments/" + rel, cacheFor(3600), null);
     }
 
-    /** Original uploaded file download (kept in MinIO under originals/{id}/). */
+    /** Original uploaded file download (kept in MinIO under originals/{id}/). Resumable via Range. */
     @GetMapping("/originals/**")
     public ResponseEntity<?> originals(HttpServletRequest request) {
         String key = request.getRequestURI().substring(1);
-        StorageService.StoredObject obj = storage.open(key);
-        if (obj == null) return ResponseEntity.notFound().build();
         String filename = key.substring(key.lastIndexOf('/') + 1);
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, obj.contentType())
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .contentLength(obj.size())
-                .cacheControl(CacheControl.noStore())
-                .body(new InputStreamResource(obj.stream()));
+        return serve(request, key, CacheControl.noCache().cachePrivate(), "attachment; filename=\"" + filename + "\"");
     }
 
-    private ResponseEntity<?> serve(String key, int cacheSeconds) {
-        StorageService.StoredObject obj = storage.open(key);   // MinIO, then local-disk fallback
-        if (obj == null) {
+    private static CacheControl cacheFor(int cacheSeconds) {
+        return cacheSeconds > 0
+                ? CacheControl.maxAge(cacheSeconds, TimeUnit.SECONDS).cachePublic()
+                : CacheControl.noCache().cachePublic();
+    }
+
+    /**
+     * Immutable once the video's ladder is complete. Before that (progressive
+     * publishing, or a retry in progress) master.m3u8 gains rungs, so playlists
+     * are revalidated on every fetch — a 304 when nothing changed — and segments
+     * keep a day's max-age. fMP4 init segments (codec parameters only, never
+     * rewritten once stored) are immutable from the start, and so are
+     * trick-play sprite sheets — only a retry rewrites one, with the same source
+     * frames under the same name.
+     */
+    private CacheControl hlsCacheControl(String key) {
+        String name = key.substring(key.lastIndexOf('/') + 1);
+        if (name.startsWith("init") && name.endsWith(".mp4")) return IMMUTABLE;
+        if (name.startsWith("sprite_")) return IMMUTABLE;
+        String[] parts = key.split("/", 3);
+        if (parts.length == 3 && isFullyPublished(parts[1])) return IMMUTABLE;
+        return cacheFor(/*cacheSeconds*/ key.endsWith(".m3u8") ? 0 : 86400);
+    }
+
+    private boolean isFullyPublished(String videoId) {
+        long now = System.currentTimeMillis();
+        Published p = published.get(videoId);
+        if (p == null || now - p.checkedAtMs() > PUBLISHED_TTL_MS) {
+            if (published.size() >= PUBLISHED_MAX_ENTRIES) published.clear();
+            // Progress reaches 100 only after every rendition and the final master are stored.
+            boolean complete = videoService.getVideo(videoId)
+                    .map(v -> v.getStatus() == VideoStatus.READY
+                            && v.getProcessingProgress() != null && v.getProcessingProgress() >= 100)
+                    .orElse(false);
+            p = new Published(complete, now);
+            published.put(videoId, p);
+        }
+        return p.complete();
+    }
+
+    private ResponseEntity<?> serve(HttpServletRequest request, String key, CacheControl cache, String disposition) {
+        long startNs = System.nanoTime();
+        // Hot HLS objects come from the in-process cache; everything else streams from MinIO.
+        SegmentCache.CachedObject cached = segmentCache.isCacheable(key) ? segmentCache.get(key) : null;
+        LocalMediaTier.Entry local = cached == null && localTier.isCacheable(key) ? localTier.get(key) : null;
+        // Opened before any header is written: an eviction or invalidation from here
+        // on only unlinks the file, so Content-Length stays true. Gone already → MinIO.
+        FileChannel localFile = local != null ? localTier.open(key, local) : null;
+        if (localFile == null) local = null;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+
+        // From MinIO a plain GET carries size/type/validators in its response headers,
+        // so there is no statObject round-trip. Only a Range or a conditional request
+        // needs the metadata up front, and that comes from StorageService's metadata cache.
+        boolean conditional = request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                || request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null;
+        StorageService.StoredObject opened = null;
+        StorageService.ObjectMeta meta;
+        if (cached != null) {
+            meta = cached.meta();
+        } else if (local != null) {
+            meta = local.meta();
+        } else if (rangeHeader == null && !conditional) {
+            opened = storage.open(key);
+            meta = opened != null ? opened.meta() : null;
+        } else {
+            meta = storage.stat(key);
+        }
+        if (meta == null) {
             return ResponseEntity.notFound().build();
         }
+        long size = meta.size();
+
+        if (conditional && notModified(request, meta)) {
+            metrics.recordMediaNotModified();
+            ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(cache);
+            if (meta.etag() != null) response.eTag(meta.etag());
+            if (meta.lastModified() != null) response.lastModified(meta.lastModified());
+            closeQuietly(localFile);
+            return response.build();
+        }
+
+        // If-Range: only honour the Range if the client's copy is still current.
+        if (rangeHeader != null && !ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), meta)) {
+            rangeHeader = null;
+        }
+        ByteRange range = null;
+        if (rangeHeader != null) {
+            if (rangeHeader.contains(",")) {
+                // Multipart/byteranges isn't worth supporting — no player or downloader we serve needs it.
+                closeQuietly(localFile);
+                return rangeNotSatisfiable(size);
+            }
+            range = ByteRange.parse(rangeHeader, size);
+            if (range != null && !range.satisfiable()) {
+                closeQuietly(localFile);
+                return rangeNotSatisfiable(size);
+            }
+        }
+
+        long offset = range != null ? range.start() : 0;
+        long length = range != null ? range.length() : size;
+        if (cached == null && local == null && opened == null) {
+            opened = range != null ? storage.open(key, offset, length) : storage.open(key);
+            if (opened == null) {
+                log.warn("Failed to serve object {}: GET failed after stat", key);
+                return ResponseEntity.status(502).build();
+            }
+        }
+        metrics.recordMediaFetch(cached != null ? "memory" : local != null ? "disk" : "minio",
+                System.nanoTime() - startNs);
+
+        ResponseEntity.BodyBuilder response = range != null
+                ? ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes " + range.start() + "-" + range.end() + "/" + size)
+                : ResponseEntity.ok();
+        response.header(HttpHeaders.CONTENT_TYPE, meta.contentType())
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .contentLength(length)
+                .cacheControl(cache);
+        if (meta.etag() != null) response.eTag(meta.etag());
+        if (meta.lastModified() != null) response.lastModified(meta.lastModified());
+        if (disposition != null) response.header(HttpHeaders.CONTENT_DISPOSITION, disposition);
+
+        final InputStream source = opened != null ? opened.stream() : null;
+        StreamingResponseBody body = out -> {
+            try {
+                if (localFile != null) {
+                    try (FileChannel file = localFile) {
+                        WritableByteChannel dst = Channels.newChannel(out);
+                        long pos = offset, end = offset + length;
+                        while (pos < end) {
+                            long sent = file.transferTo(pos, end - pos, dst);
+                            if (sent <= 0) break;
+                            pos += sent;
+                        }
+                        out.flush();
+                    }
+                } else if (cached != null) {
+                    ByteBuffer slice = cached.view();
+                    slice.position((int) offset).limit((int) (offset + length));
+                    WritableByteChannel dst = Channels.newChannel(out);
+                    while (slice.hasRemaining()) dst.write(slice);
+                    out.flush();
+                } else {
+                    try (source) {
+                        copy(source, out);
+                    }
+                }
+            } catch (IOException e) {
+                // Usually the client seeking away or cancelling a download.
+                log.debug("Streaming {} aborted: {}", key, e.getMessage());
+            }
+        };
+        return response.body(body);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // read-only
+        }
+    }
+
+    private static ResponseEntity<?> rangeNotSatisfiable(long size) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .build();
+    }
+
+    /**
+     * RFC 9110 §13.1: If-None-Match (weak comparison, "*" matches anything) wins;
+     * If-Modified-Since is only consulted when it is absent.
+     */
+    private static boolean notModified(HttpServletRequest request, StorageService.ObjectMeta meta) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (meta.etag() == null) return false;
+            String current = "\"" + meta.etag().replace("\"", "") + "\"";
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*")) return true;
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals(current)) return true;
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        if (ifModifiedSince == null || meta.lastModified() == null) return false;
+        try {
+            ZonedDateTime since = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return meta.lastModified().toEpochSecond() <= since.toEpochSecond();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * If-Range holds either an entity tag (strong comparison — weak tags never
+     * match) or an HTTP date that must equal Last-Modified exactly.
+     */
+    private static boolean ifRangeMatches(String ifRange, StorageService.ObjectMeta meta) {
+        if (ifRange == null || ifRange.isBlank()) return true;
+        String v = ifRange.trim();
+        if (v.startsWith("W/")) return false;
+        if (v.startsWith("\"")) {
+            return meta.etag() != null && v.equals("\"" + meta.etag().replace("\"", "") + "\"");
+        }
+        if (meta.lastModified() == null) return false;
         try {
-            CacheControl cache = cacheSeconds > 0
-                    ? CacheControl.maxAge(cacheSeconds, TimeUnit.SECONDS).cachePublic()
-                    : CacheControl.noStore();
-
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_TYPE, obj.contentType())
-                    .contentLength(obj.size())
-                    .cacheControl(cache)
-                    .body(new InputStreamResource(obj.stream()));
+            ZonedDateTime since = ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return since.toEpochSecond() == meta.lastModified().toEpochSecond();
         } catch (Exception e) {
-            log.warn("Failed to serve object {}: {}", key, e.getMessage());
-            return ResponseEntity.status(502).build();
+            return false;
+        }
+    }
+
+    /** Copies through a pooled direct buffer using channels, avoiding a heap byte[] per response. */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        ByteBuffer buffer = COPY_BUFFERS.poll();
+        if (buffer == null) buffer = ByteBuffer.allocateDirect(COPY_BUFFER_BYTES);
+        try {
+            ReadableByteChannel src = Channels.newChannel(in);
+            WritableByteChannel dst = Channels.newChannel(out);
+            buffer.clear();
+            while (src.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                dst.write(buffer);
+                buffer.compact();
+            }
+            out.flush();
+        } finally {
+            buffer.clear();
+            COPY_BUFFERS.offer(buffer);
+        }
+    }
+
+    /** One inclusive byte range resolved against the object size. start = -1 means unsatisfiable. */
+    private record ByteRange(long start, long end) {
+
+        boolean satisfiable() { return start >= 0; }
+
+        long length() { return end - start + 1; }
+
+        /** Parses "bytes=a-b", "bytes=a-" or "bytes=-n". Returns null if malformed (the header is then ignored). */
+        static ByteRange parse(String header, long size) {
+            String h = header.trim();
+            if (!h.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+            String spec = h.substring(6).trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // Suffix range: the final n bytes.
+                    if (last.isEmpty()) return null;
+                    long n = Long.parseLong(last);
+                    if (n <= 0 || size == 0) return new ByteRange(-1, -1);
+                    return new ByteRange(Math.max(0, size - n), size - 1);
+                }
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? size - 1 : Long.parseLong(last);
+                if (start < 0 || end < start) return null;
+                if (start >= size) return new ByteRange(-1, -1);
+                return new ByteRange(start, Math.min(end, size - 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
         }
     }
 }
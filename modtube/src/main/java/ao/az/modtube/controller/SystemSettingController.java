@@ -38,6 +38,9 @@ public class SystemSettingController {
             "upload.max-concurrent",
             "upload.max-quality",
             "upload.qualities",
+            // Encoder per rendition ("x264", "x265", "svt-av1", optionally ":preset")
+            "transcode.encoder",
+            "transcode.encoders",
             // Video meetings (override env defaults at runtime)
             "meeting.max-participants",
             "meeting.ice-servers",
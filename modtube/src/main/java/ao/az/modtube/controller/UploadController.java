@@ -2,13 +2,20 @@ package ao.az.modtube.controller;
 
 import ao.az.modtube.config.security.ModTubePrincipal;
 import ao.az.modtube.config.security.ModTubeUserDetails;
+import ao.az.modtube.domain.UploadSession;
 import ao.az.modtube.domain.Video;
 import ao.az.modtube.domain.VideoStatus;
-import ao.az.modtube.metrics.ModTubeMetrics;
+import ao.az.modtube.exception.InsufficientStorageException;
+import ao.az.modtube.service.ChunkAssembler;
+import ao.az.modtube.service.IngestService;
+import ao.az.modtube.service.TranscodeJobService;
 import ao.az.modtube.service.TranscodingService;
+import ao.az.modtube.service.UploadService;
 import ao.az.modtube.service.VideoService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -16,11 +23,10 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.Comparator;
+import java.nio.channels.Channels;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,26 +39,27 @@ public class UploadController {
 
     private final VideoService videoService;
     private final TranscodingService transcodingService;
-    private final ModTubeMetrics metrics;
-    private final Path uploadDir;
-    private final long maxFileSize;
-    private final long minDiskFree;
+    private final TranscodeJobService transcodeJobService;
+    private final UploadService uploadService;
+    private final IngestService ingestService;
 
-    private static final int MAX_CHUNK_SIZE = 55 * 1024 * 1024; // 55 MB ceiling (frontend max chunk is 50 MB)
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    /** Optional per-chunk checksum, tus style: "sha256 <base64 digest>". */
+    private static final String UPLOAD_CHECKSUM = "Upload-Checksum";
+    /** tus's "Checksum Mismatch" status — the client resends the chunk. */
+    private static final int CHECKSUM_MISMATCH = 460;
 
     public UploadController(VideoService videoService,
                             TranscodingService transcodingService,
-                            ModTubeMetrics metrics,
-                            @Value("${modtube.storage.upload-dir}") String uploadDirPath,
-                            @Value("${modtube.storage.max-file-size}") long maxFileSize,
-                            @Value("${modtube.storage.min-disk-free}") long minDiskFree) throws IOException {
+                            TranscodeJobService transcodeJobService,
+                            UploadService uploadService,
+                            IngestService ingestService) {
         this.videoService = videoService;
         this.transcodingService = transcodingService;
-        this.metrics = metrics;
-        this.uploadDir = Paths.get(uploadDirPath);
-        this.maxFileSize = maxFileSize;
-        this.minDiskFree = minDiskFree;
-        Files.createDirectories(this.uploadDir);
+        this.transcodeJobService = transcodeJobService;
+        this.uploadService = uploadService;
+        this.ingestService = ingestService;
     }
 
     @GetMapping("/videos")
@@ -80,41 +87,32 @@ public class UploadController {
             @RequestParam(required = false) String description,
             @RequestParam long totalSize,
             @RequestParam int totalChunks,
+            @RequestParam(required = false) Integer chunkSize,
             @AuthenticationPrincipal ModTubeUserDetails user) {
 
         try {
-            if (totalSize > maxFileSize) {
-                return ResponseEntity.badRequest().body(Map.of(
-                        "error", "File too large. Max " + (maxFileSize / (1024 * 1024 * 1024)) + " GB"));
-            }
-
-            long freeSpace = Files.getFileStore(uploadDir).getUsableSpace();
-            if (freeSpace < totalSize + minDiskFree) {
-                return ResponseEntity.status(507).body(Map.of("error", "Not enough disk space"));
+            IngestService.Started started = ingestService.start(filename, title, description, totalSize,
+                    totalChunks, chunkSize, user.getUserId(), user.getUser().getFullName(), user.getEmail());
+            UploadSession session = started.session();
+
+            // Chunked: chunks are written straight into original.<ext> at their offsets, and the
+            // persisted session lets the client resume after a disconnect or restart.
+            // Direct: the client PUTs its chunks as multipart parts to presigned URLs (GET /{id}/part-urls).
+            Map<String, String> body = new HashMap<>();
+            body.put("status", "initialized");
+            body.put("videoId", started.video().getId());
+            body.put("uploadId", started.video().getId() + "_" + System.currentTimeMillis());
+            body.put("mode", session.isDirect() ? "direct" : "chunked");
+            if (session.isDirect()) {
+                body.put("chunkSize", String.valueOf(session.getChunkSize()));
+                body.put("totalChunks", String.valueOf(session.getTotalChunks()));
             }
+            return ResponseEntity.ok(body);
 
-            String videoTitle = title != null ? title : filename;
-            String videoDesc = description != null ? description : "";
-
-            metrics.recordUploadAttempt();
-
-            Video video = videoService.createVideo(
-                    videoTitle, filename, videoDesc,
-                    null,
-                    user.getUserId(),
-                    user.getUser().getFullName(),
-                    user.getEmail()
-            );
-
-            Path videoDir = uploadDir.resolve(video.getId());
-            Files.createDirectories(videoDir);
-
-            return ResponseEntity.ok(Map.of(
-                    "status", "initialized",
-                    "videoId", video.getId(),
-                    "uploadId", video.getId() + "_" + System.currentTimeMillis()
-            ));
-
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (InsufficientStorageException e) {
+            return ResponseEntity.status(507).body(Map.of("error", e.getMessage()));
         } catch (IOException e) {
             log.error("Error initializing upload", e);
             return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
@@ -128,10 +126,11 @@ public class UploadController {
             @RequestParam int chunkIndex,
             @RequestParam int totalChunks,
             @RequestParam String videoId,
-            @AuthenticationPrincipal ModTubePrincipal user) {
+            @RequestHeader(value = UPLOAD_CHECKSUM, required = false) String checksum,
+            @AuthenticationPrincipal ModTubeUserDetails user) {
 
         try {
-            if (chunk.getSize() > MAX_CHUNK_SIZE) {
+            if (chunk.getSize() > IngestService.MAX_CHUNK_SIZE) {
                 return ResponseEntity.badRequest().body(Map.of(
                         "status", "error",
                         "message", "Chunk size too large"));
@@ -143,22 +142,27 @@ public class UploadController {
                         "status", "error",
                         "message", "Video not found"));
             }
+            UploadSession session = uploadService.getSession(videoId).orElse(null);
+            if (session != null && !canResume(session, user)) {
+                return ResponseEntity.status(403).body(Map.of("error", "Icazə yoxdur"));
+            }
 
-            Path videoDir = uploadDir.resolve(videoId);
-            Files.createDirectories(videoDir);
-
-            // Write each chunk to its own file — parallel workers can arrive out of order
-            // and simple APPEND would corrupt the file. Chunks are merged in order at complete().
-            Path chunkFile = videoDir.resolve("chunk_" + chunkIndex + ".bin");
-            try (InputStream inputStream = chunk.getInputStream();
-                 OutputStream outputStream = Files.newOutputStream(chunkFile,
-                         StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
-                byte[] buffer = new byte[65536];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
+            // Positional write into the preallocated target — parallel workers may arrive in any order.
+            try (InputStream inputStream = chunk.getInputStream()) {
+                if (!ingestService.receiveChunk(videoId, chunkIndex, inputStream, chunk.getSize(),
+                        parseChecksum(checksum))) {
+                    return ResponseEntity.status(410).body(Map.of(
+                            "status", "error",
+                            "message", "Upload session expired — start the upload again"));
                 }
-                outputStream.flush();
+            } catch (ChunkAssembler.ChecksumMismatchException e) {
+                return ResponseEntity.status(CHECKSUM_MISMATCH).body(Map.of(
+                        "status", "error",
+                        "message", e.getMessage()));
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                return ResponseEntity.badRequest().body(Map.of(
+                        "status", "error",
+                        "message", e.getMessage()));
             }
 
             // Log at INFO at every 10% milestone (and always on first/last chunk)
@@ -184,65 +188,136 @@ public class UploadController {
         }
     }
 
+    /**
+     * Raw-body chunk upload: PUT /api/upload/{videoId} with
+     * Content-Range: bytes start-end/total and an application/octet-stream body.
+     * The request body is streamed straight into the target file — no multipart
+     * parsing and no Tomcat temp file — so each byte is written to disk once.
+     */
+    @PutMapping(value = "/{videoId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @PreAuthorize("hasAnyAuthority('upload-video', 'admin-modtube', 'super-admin')")
+    public ResponseEntity<Map<String, Object>> putChunk(
+            @PathVariable String videoId,
+            @RequestHeader(HttpHeaders.CONTENT_RANGE) String contentRange,
+            @RequestHeader(value = UPLOAD_CHECKSUM, required = false) String checksum,
+            @AuthenticationPrincipal ModTubeUserDetails user,
+            HttpServletRequest request) {
+        UploadSession session = uploadService.getSession(videoId).orElse(null);
+        if (session == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!canResume(session, user)) {
+            return ResponseEntity.status(403).body(Map.of("error", "Icazə yoxdur"));
+        }
+        Matcher m = CONTENT_RANGE.matcher(contentRange.trim());
+        if (!m.matches()) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "message", "Content-Range must be 'bytes start-end/total'"));
+        }
+        long start = Long.parseLong(m.group(1));
+        long end = Long.parseLong(m.group(2));
+        long total = Long.parseLong(m.group(3));
+        long length = end - start + 1;
+        if (end < start || end >= total || length > IngestService.MAX_CHUNK_SIZE
+                || (request.getContentLengthLong() >= 0 && request.getContentLengthLong() != length)) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "message", "Invalid Content-Range " + contentRange));
+        }
+
+        try {
+            int chunkIndex = ingestService.receiveRange(videoId, start, end, total,
+                    Channels.newChannel(request.getInputStream()), parseChecksum(checksum));
+            if (chunkIndex < 0) {
+                return ResponseEntity.status(410).body(Map.of(
+                        "status", "error",
+                        "message", "Upload session expired — start the upload again"));
+            }
+            return ResponseEntity.ok(Map.of(
+                    "status", "chunk_received",
+                    "chunkIndex", chunkIndex));
+        } catch (ChunkAssembler.ChecksumMismatchException e) {
+            return ResponseEntity.status(CHECKSUM_MISMATCH).body(Map.of(
+                    "status", "error",
+                    "message", e.getMessage()));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "status", "error",
+                    "message", e.getMessage()));
+        } catch (IOException e) {
+            log.error("Error storing range {} for video {}", contentRange, videoId, e);
+            return ResponseEntity.internalServerError().body(Map.of(
+                    "status", "error",
+                    "message", e.getMessage()));
+        }
+    }
+
+    /**
+     * Presigned part URLs for a direct upload: {@code count} chunks from index
+     * {@code from}, each to be PUT as-is to the proxied MinIO path. Clients ask
+     * for a batch at a time so the URLs stay short-lived.
+     */
+    @GetMapping("/{videoId}/part-urls")
+    @PreAuthorize("hasAnyAuthority('upload-video', 'admin-modtube', 'super-admin')")
+    public ResponseEntity<Map<String, Object>> partUrls(
+            @PathVariable String videoId,
+            @RequestParam(defaultValue = "0") int from,
+            @RequestParam(defaultValue = "20") int count,
+            @AuthenticationPrincipal ModTubeUserDetails user) {
+        UploadSession session = uploadService.getSession(videoId).orElse(null);
+        if (session == null || !session.isDirect()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!canResume(session, user)) {
+            return ResponseEntity.status(403).body(Map.of("error", "Icazə yoxdur"));
+        }
+        try {
+            List<String> urls = uploadService.partUrls(videoId, from, count).orElse(null);
+            if (urls == null) {
+                return ResponseEntity.status(410).body(Map.of(
+                        "error", "Upload session expired — start the upload again"));
+            }
+            return ResponseEntity.ok(Map.of("from", from, "urls", urls));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error presigning parts for video {}", videoId, e);
+            return ResponseEntity.internalServerError().body(Map.of("error", "Storage unavailable"));
+        }
+    }
+
+    /**
+     * Verifies that every chunk arrived and hands the upload to the ingest
+     * pipeline (assemble → probe → enqueue), which runs after this returns; the
+     * status endpoint shows its progress.
+     */
     @PostMapping("/complete")
     @PreAuthorize("hasAnyAuthority('upload-video', 'admin-modtube', 'super-admin')")
     public ResponseEntity<Map<String, String>> completeUpload(
             @RequestParam String videoId,
             @AuthenticationPrincipal ModTubePrincipal user) {
         try {
-            Video video = videoService.getVideo(videoId).orElse(null);
-            if (video == null) {
+            if (videoService.getVideo(videoId).isEmpty()) {
                 return ResponseEntity.badRequest().body(Map.of(
                         "status", "error",
                         "message", "Video not found"));
             }
 
-            String extension = getFileExtension(video.getFilename());
-            Path videoDir    = uploadDir.resolve(videoId);
-            Path targetFile  = videoDir.resolve("original." + extension);
-
-            // Merge chunk files in strict index order — avoids corruption from parallel uploads
-            List<Path> chunkFiles;
-            try (var stream = Files.list(videoDir)) {
-                chunkFiles = stream
-                    .filter(p -> p.getFileName().toString().matches("chunk_\\d+\\.bin"))
-                    .sorted(Comparator.comparingInt(p ->
-                        Integer.parseInt(p.getFileName().toString()
-                            .replace("chunk_", "").replace(".bin", ""))))
-                    .collect(Collectors.toList());
-            }
-
-            if (chunkFiles.isEmpty()) {
+            IngestService.Completion completion;
+            try {
+                completion = ingestService.complete(videoId);
+            } catch (IllegalStateException e) {
                 return ResponseEntity.badRequest().body(Map.of(
                         "status", "error",
-                        "message", "No upload chunks found — upload may have failed"));
-            }
-
-            try (OutputStream out = Files.newOutputStream(targetFile,
-                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
-                    StandardOpenOption.TRUNCATE_EXISTING)) {
-                for (Path cf : chunkFiles) {
-                    Files.copy(cf, out);
-                    Files.delete(cf);
-                }
-                out.flush();
+                        "message", e.getMessage()));
             }
-            log.info("[Upload] Merged {} chunks into {} for video={}", chunkFiles.size(), targetFile.getFileName(), videoId);
+            log.info("Upload completed for video {} ({})", videoId, completion);
 
-            long fileSize = Files.size(targetFile);
-            video.setFileSize(fileSize);
-
-            videoService.updateVideoStatus(videoId, VideoStatus.UPLOADED);
-            log.info("Upload completed for video {} (size: {} bytes)", videoId, fileSize);
-            metrics.recordUploadSuccess();
-
-            // Start transcoding
-            transcodingService.transcodeToHLS(videoId, targetFile);
-
-            return ResponseEntity.ok(Map.of(
+            return ResponseEntity.accepted().body(Map.of(
                     "status", "completed",
                     "videoId", videoId,
-                    "message", "Upload complete, transcoding started"
+                    "message", "Upload complete, processing"
             ));
 
         } catch (IOException e) {
@@ -270,7 +345,9 @@ public class UploadController {
                 return ResponseEntity.status(403).body(Map.of("error", "Icazə yoxdur"));
             }
 
+            transcodeJobService.cancelForVideo(videoId);
             transcodingService.cancelTranscoding(videoId);
+            uploadService.cancel(videoId);
             videoService.deleteVideo(videoId);
 
             log.info("[Upload] Cancelled video={} by user={}", videoId,
@@ -283,6 +360,92 @@ public class UploadController {
         }
     }
 
+    /**
+     * Which chunks of an unfinished upload the server already holds, as inclusive
+     * [first, last] index ranges. A resuming client sends only the gaps. HEAD
+     * works too and returns just the Upload-* headers.
+     */
+    @GetMapping("/{videoId}/chunks")
+    @PreAuthorize("hasAnyAuthority('upload-video', 'admin-modtube', 'super-admin')")
+    public ResponseEntity<Map<String, Object>> chunkStatus(
+            @PathVariable String videoId,
+            @AuthenticationPrincipal ModTubeUserDetails user) {
+        try {
+            UploadSession session = uploadService.getSession(videoId).orElse(null);
+            if (session == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (!canResume(session, user)) {
+                return ResponseEntity.status(403).body(Map.of("error", "Icazə yoxdur"));
+            }
+            UploadService.ChunkStatus cs = uploadService.status(videoId).orElse(null);
+            if (cs == null) {
+                return ResponseEntity.status(410).body(Map.of(
+                        "error", "Upload session is " + session.getStatus().name().toLowerCase()));
+            }
+
+            Map<String, Object> body = new HashMap<>();
+            body.put("videoId", cs.videoId());
+            body.put("filename", cs.filename());
+            body.put("totalSize", cs.totalSize());
+            body.put("chunkSize", cs.chunkSize());
+            body.put("totalChunks", cs.totalChunks());
+            body.put("storedChunks", cs.storedChunks());
+            body.put("storedRanges", cs.storedRanges());
+            body.put("firstMissing", cs.firstMissing());
+            body.put("expiresAt", cs.expiresAt().toString());
+            return ResponseEntity.ok()
+                    .header("Upload-Chunks-Stored", String.valueOf(cs.storedChunks()))
+                    .header("Upload-First-Missing", String.valueOf(cs.firstMissing()))
+                    .body(body);
+        } catch (Exception e) {
+            log.error("Error getting chunk status for {}", videoId, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /** The caller's unfinished uploads, so a reloaded client can match its file and resume. */
+    @GetMapping("/sessions")
+    @PreAuthorize("hasAnyAuthority('upload-video', 'admin-modtube', 'super-admin')")
+    public ResponseEntity<List<Map<String, Object>>> activeSessions(
+            @AuthenticationPrincipal ModTubeUserDetails user) {
+        if (user == null) return ResponseEntity.status(401).build();
+        List<Map<String, Object>> result = uploadService.activeSessions(user.getUserId()).stream()
+                .map(s -> {
+                    Map<String, Object> m = new HashMap<>();
+                    m.put("videoId", s.getVideoId());
+                    m.put("filename", s.getFilename());
+                    m.put("totalSize", s.getTotalSize());
+                    m.put("chunkSize", s.getChunkSize());
+                    m.put("totalChunks", s.getTotalChunks());
+                    m.put("storedChunks", s.getChunksStored());
+                    m.put("direct", s.isDirect());
+                    m.put("expiresAt", s.getExpiresAt().toString());
+                    return m;
+                })
+                .collect(Collectors.toList());
+        return ResponseEntity.ok(result);
+    }
+
+    /** "sha256 &lt;base64&gt;" → digest bytes; null when absent. */
+    private static byte[] parseChecksum(String header) {
+        if (header == null || header.isBlank()) return null;
+        String[] parts = header.trim().split("\\s+", 2);
+        if (parts.length != 2 || !parts[0].equalsIgnoreCase("sha256")) {
+            throw new IllegalArgumentException("Unsupported " + UPLOAD_CHECKSUM + " — expected 'sha256 <base64>'");
+        }
+        try {
+            return Base64.getDecoder().decode(parts[1]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed " + UPLOAD_CHECKSUM + " digest");
+        }
+    }
+
+    private boolean canResume(UploadSession session, ModTubeUserDetails user) {
+        if (user == null) return false;
+        return user.getUserId().equals(session.getUploaderId()) || user.isSuperAdmin() || user.isAdmin();
+    }
+
     @GetMapping("/status/{videoId}")
     public ResponseEntity<Map<String, Object>> getUploadStatus(@PathVariable String videoId) {
         try {
@@ -296,7 +459,16 @@ public class UploadController {
             status.put("status", video.getStatus() != null ? video.getStatus().name() : "UNKNOWN");
             status.put("progress", video.getProcessingProgress() != null ? video.getProcessingProgress() : 0);
             status.put("qualities", video.getAvailableQualities());
-            status.put("stage", transcodingService.getProcessingStage(video.getId()));
+            String stage = transcodingService.getProcessingStage(video.getId());
+            if (stage.isEmpty()) stage = ingestService.stage(video.getId());
+            if (stage.isEmpty() && video.getStatus() == VideoStatus.UPLOADED) {
+                long position = transcodeJobService.queuePosition(video.getId());
+                if (position > 0) {
+                    stage = "Queued (#" + position + ")";
+                    status.put("queuePosition", position);
+                }
+            }
+            status.put("stage", stage);
             Map<String, Integer> qp = transcodingService.getQualityProgress(video.getId());
             if (!qp.isEmpty()) status.put("qualityProgress", qp);
 
@@ -339,11 +511,4 @@ public class UploadController {
         map.put("uploadedAt", video.getUploadedAt());
         return map;
     }
-
-    private String getFileExtension(String filename) {
-        if (filename == null || !filename.contains(".")) {
-            return "mp4";
-        }
-        return filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package ao.az.modtube.domain;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * One row of the durable transcoding queue. Claimed by a worker with
+ * SELECT … FOR UPDATE SKIP LOCKED; the lease is extended by heartbeats while
+ * FFmpeg runs and re-queued by the reaper if it lapses.
+ */
+@Entity
+@Table(name = "transcode_jobs")
+@Getter @Setter @NoArgsConstructor
+public class TranscodeJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "video_id", nullable = false, length = 64)
+    private String videoId;
+
+    /** Local path of the assembled upload that FFmpeg reads. */
+    @Column(name = "input_path", nullable = false, columnDefinition = "TEXT")
+    private String inputPath;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private TranscodeJobStatus status = TranscodeJobStatus.QUEUED;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "max_attempts", nullable = false)
+    private int maxAttempts;
+
+    @Column(name = "run_after", nullable = false)
+    private LocalDateTime runAfter;
+
+    /** "{host}/{instance}" of the worker currently holding the lease. */
+    @Column(name = "owner")
+    private String owner;
+
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;
+
+    @Column(name = "heartbeat_at")
+    private LocalDateTime heartbeatAt;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+
+    @PrePersist
+    void onCreate() {
+        createdAt = LocalDateTime.now();
+        if (runAfter == null) runAfter = createdAt;
+    }
+}
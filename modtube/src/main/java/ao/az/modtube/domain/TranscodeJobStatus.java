@@ -0,0 +1,9 @@
+package ao.az.modtube.domain;
+
+public enum TranscodeJobStatus {
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED,
+    CANCELLED
+}
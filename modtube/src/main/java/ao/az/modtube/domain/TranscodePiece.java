@@ -0,0 +1,92 @@
+package ao.az.modtube.domain;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * One piece of a split transcode: a time range of the source, encoded into
+ * every rung by whichever worker claims it. Claimed and leased like a
+ * {@link TranscodeJob}; the job's own worker stitches the finished pieces.
+ */
+@Entity
+@Table(name = "transcode_pieces")
+@Getter @Setter @NoArgsConstructor
+public class TranscodePiece {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "job_id", nullable = false)
+    private Long jobId;
+
+    @Column(name = "video_id", nullable = false, length = 64)
+    private String videoId;
+
+    @Column(name = "piece", nullable = false)
+    private int piece;
+
+    @Column(name = "start_seconds", nullable = false)
+    private double startSeconds;
+
+    /** Null for the last piece, which runs to the end of the source. */
+    @Column(name = "length_seconds")
+    private Double lengthSeconds;
+
+    /** Same form as {@link TranscodeJob#getInputPath()}. */
+    @Column(name = "input_path", nullable = false, columnDefinition = "TEXT")
+    private String inputPath;
+
+    /** Rungs to encode as "label/crf/maxrate-kbps/encoder", e.g. "480p/23/1800/x264:fast,1080p/19/9000/x264:fast". */
+    @Column(name = "ladder", nullable = false, columnDefinition = "TEXT")
+    private String ladder;
+
+    /** Only this host's workers may claim it (the input is a local file); null = any node. */
+    @Column(name = "host")
+    private String host;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private TranscodeJobStatus status = TranscodeJobStatus.QUEUED;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "max_attempts", nullable = false)
+    private int maxAttempts;
+
+    @Column(name = "owner")
+    private String owner;
+
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    /**
+     * Once DONE: one "{rung} {duration} {segment} {bytes}" line per segment, in order;
+     * in fMP4 mode a "{rung} init {file}" line precedes each rung's segments, and
+     * an "images {sheet} {bytes}" line follows for each trick-play sprite sheet.
+     */
+    @Column(name = "segments", columnDefinition = "TEXT")
+    private String segments;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+
+    @PrePersist
+    void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
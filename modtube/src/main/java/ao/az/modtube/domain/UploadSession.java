@@ -0,0 +1,77 @@
+package ao.az.modtube.domain;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A resumable chunked upload. Which chunks are stored is tracked by
+ * {@link ao.az.modtube.service.ChunkAssembler} next to the data; this row holds
+ * the layout, the owner and the expiry the janitor works from.
+ *
+ * A direct session ({@link #isDirect()}) goes to MinIO instead: each chunk is a
+ * part of the multipart upload {@code s3UploadId} of {@code objectKey}.
+ */
+@Entity
+@Table(name = "upload_sessions")
+@Getter @Setter @NoArgsConstructor
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "video_id", nullable = false, unique = true, length = 64)
+    private String videoId;
+
+    @Column(name = "uploader_id")
+    private Long uploaderId;
+
+    @Column(name = "filename", nullable = false, length = 500)
+    private String filename;
+
+    @Column(name = "total_size", nullable = false)
+    private long totalSize;
+
+    @Column(name = "chunk_size", nullable = false)
+    private int chunkSize;
+
+    @Column(name = "total_chunks", nullable = false)
+    private int totalChunks;
+
+    @Column(name = "chunks_stored", nullable = false)
+    private int chunksStored;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private UploadSessionStatus status = UploadSessionStatus.ACTIVE;
+
+    /** MinIO object a direct upload is written to; null for chunked uploads. */
+    @Column(name = "object_key", length = 512)
+    private String objectKey;
+
+    @Column(name = "s3_upload_id", length = 255)
+    private String s3UploadId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    public boolean isDirect() {
+        return s3UploadId != null;
+    }
+
+    @PrePersist
+    void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = createdAt;
+    }
+}
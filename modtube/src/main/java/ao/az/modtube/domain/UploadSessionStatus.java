@@ -0,0 +1,8 @@
+package ao.az.modtube.domain;
+
+public enum UploadSessionStatus {
+    ACTIVE,
+    COMPLETED,
+    EXPIRED,
+    CANCELLED
+}
@@ -69,6 +69,18 @@ public class Video implements Persistable<String> {
     @Column(name = "original_url", columnDefinition = "TEXT")
     private String originalUrl;
 
+    /** SHA-256 (hex) of the original upload, computed during chunk assembly. */
+    @Column(name = "content_sha256", length = 64)
+    private String contentSha256;
+
+    /**
+     * Set when this upload was byte-identical to an already transcoded video:
+     * the id whose hls/, thumbnails/ and originals/ objects this video plays.
+     * Null when the video owns its media.
+     */
+    @Column(name = "media_owner_id", length = 64)
+    private String mediaOwnerId;
+
     // Status
     @Enumerated(EnumType.STRING)
     @Column(name = "status", length = 50)
@@ -106,6 +118,30 @@ public class Video implements Persistable<String> {
     @Column(name = "frame_rate")
     private Double frameRate;
 
+    @Column(name = "video_profile", length = 50)
+    private String videoProfile;
+
+    /** level_idc of the video stream (41 = H.264 level 4.1). */
+    @Column(name = "video_level")
+    private Integer videoLevel;
+
+    @Column(name = "pixel_format", length = 32)
+    private String pixelFormat;
+
+    @Column(name = "bit_rate")
+    private Long bitRate;
+
+    /** Degrees from the source's display matrix; width/height above are already rotated. */
+    @Column(name = "rotation")
+    private Integer rotation;
+
+    @Column(name = "audio_codec", length = 50)
+    private String audioCodec;
+
+    /** Rendition ladder planned at ingest from the probe, e.g. "480p,720p,1080p". */
+    @Column(name = "planned_qualities", length = 100)
+    private String plannedQualities;
+
     // Engagement
     @Builder.Default
     @Column(name = "views")
@@ -0,0 +1,18 @@
+package ao.az.modtube.exception;
+
+import lombok.Getter;
+
+/**
+ * Service temporarily saturated (503) — the client should retry after
+ * {@link #getRetryAfterSeconds()} seconds, sent as a Retry-After header.
+ */
+@Getter
+public class ServiceBusyException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public ServiceBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+    }
+}
@@ -10,6 +10,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
@@ -20,11 +23,30 @@ import java.util.stream.Stream;
  *   localtube_uploads_attempts_total     — counter, upload attempts
  *   localtube_uploads_success_total      — counter, successful uploads
  *   localtube_uploads_failed_total       — counter, failed uploads
+ *   localtube_ingest_stage_seconds{stage} — timer,  upload ingest stages (receive / verify / assemble / probe / enqueue)
+ *   localtube_ingest_rejected_total{stage} — counter, requests turned away with 503 because a stage was saturated
+ *   localtube_ingest_pending             — gauge,   completed uploads waiting for or in the assemble→enqueue pipeline
+ *   localtube_upload_admission_total{result} — counter, /init decisions: admitted / deferred (503) / rejected (507)
+ *   localtube_disk_reserved_bytes{type}  — gauge,   scratch space promised to active uploads / transcode scratch
  *   localtube_video_views_total          — counter, video detail opens
  *   localtube_active_transcodings        — gauge,   FFmpeg jobs running now
  *   localtube_transcoding_duration_*     — timer,   FFmpeg job duration
  *   localtube_transcoding_success_total  — counter
  *   localtube_transcoding_failed_total   — counter
+ *   localtube_transcode_queue_depth      — gauge,   QUEUED rows in transcode_jobs
+ *   localtube_storage_put_seconds        — timer,   per-object MinIO upload latency
+ *   localtube_storage_put_bytes          — summary, bytes per uploaded object (throughput = rate of sum)
+ *   localtube_storage_put_retries_total  — counter, retried MinIO uploads
+ *   localtube_storage_put_failed_total   — counter, uploads that ran out of retries
+ *   localtube_storage_puts_in_flight     — gauge,   concurrent MinIO uploads
+ *   localtube_media_cache_requests_total{result} — counter, hit / miss / coalesced (joined an in-flight miss)
+ *   localtube_media_cache_evictions_total — counter, entries evicted for space
+ *   localtube_media_cache_bytes / _entries — gauge,  current cache footprint
+ *   localtube_media_tier_requests_total{result} — counter, local disk tier hit / miss
+ *   localtube_media_tier_evictions_total — counter, files evicted for the disk quota
+ *   localtube_media_tier_bytes           — gauge,   bytes held on local disk
+ *   localtube_media_fetch_seconds{tier}  — timer,   time to open a media object (memory / disk / minio)
+ *   localtube_media_not_modified_total   — counter, conditional GETs answered 304 (no body sent)
  *   localtube_disk_usage_bytes{type}     — gauge,   dir sizes (auto-scanned every 60 s)
  */
 @Slf4j
@@ -40,6 +62,12 @@ public class ModTubeMetrics {
     private final Counter uploadsTotal;
     private final Counter uploadsSuccess;
     private final Counter uploadsFailed;
+    private final Map<String, Timer> ingestStages = new HashMap<>();
+    private final Map<String, Counter> ingestRejected = new HashMap<>();
+    private final AtomicLong ingestPending = new AtomicLong(0);
+    private final Map<String, Counter> uploadAdmission = new HashMap<>();
+    private final AtomicLong reservedUploadBytes = new AtomicLong(0);
+    private final AtomicLong reservedScratchBytes = new AtomicLong(0);
 
     // Video metrics
     private final Counter videoViewsTotal;
@@ -49,6 +77,34 @@ public class ModTubeMetrics {
     private final Timer transcodingDuration;
     private final Counter transcodingSuccess;
     private final Counter transcodingFailed;
+    private final AtomicLong transcodeQueueDepth = new AtomicLong(0);
+
+    // Object storage metrics
+    private final Timer storagePutLatency;
+    private final DistributionSummary storagePutBytes;
+    private final Counter storagePutRetries;
+    private final Counter storagePutFailed;
+    private final AtomicLong storagePutsInFlight = new AtomicLong(0);
+
+    // Media cache metrics
+    private final Counter mediaCacheHits;
+    private final Counter mediaCacheMisses;
+    private final Counter mediaCacheCoalesced;
+    private final Counter mediaCacheEvictions;
+    private final AtomicLong mediaCacheBytes   = new AtomicLong(0);
+    private final AtomicLong mediaCacheEntries = new AtomicLong(0);
+
+    // Local disk tier metrics
+    private final Counter mediaTierHits;
+    private final Counter mediaTierMisses;
+    private final Counter mediaTierEvictions;
+    private final AtomicLong mediaTierBytes = new AtomicLong(0);
+
+    // Media fetch latency by tier
+    private final Timer mediaFetchMemory;
+    private final Timer mediaFetchDisk;
+    private final Timer mediaFetchMinio;
+    private final Counter mediaNotModified;
 
     // Disk metrics (updated by @Scheduled scanner)
     private final AtomicLong diskUsageUploads    = new AtomicLong(0);
@@ -73,6 +129,26 @@ public class ModTubeMetrics {
                 .description("Successful uploads").register(registry);
         this.uploadsFailed  = Counter.builder("localtube_uploads_failed")
                 .description("Failed uploads").register(registry);
+        for (String stage : List.of("receive", "verify", "assemble", "probe", "enqueue")) {
+            ingestStages.put(stage, Timer.builder("localtube_ingest_stage_seconds")
+                    .description("Upload ingest stage duration").tag("stage", stage)
+                    .publishPercentiles(0.5, 0.9, 0.99)
+                    .register(registry));
+            ingestRejected.put(stage, Counter.builder("localtube_ingest_rejected")
+                    .description("Ingest requests rejected because the stage was saturated").tag("stage", stage)
+                    .register(registry));
+        }
+        Gauge.builder("localtube_ingest_pending", ingestPending, AtomicLong::get)
+                .description("Uploads in the assemble-to-enqueue pipeline").register(registry);
+        for (String result : List.of("admitted", "deferred", "rejected")) {
+            uploadAdmission.put(result, Counter.builder("localtube_upload_admission")
+                    .description("Upload admission decisions").tag("result", result)
+                    .register(registry));
+        }
+        Gauge.builder("localtube_disk_reserved_bytes", reservedUploadBytes, AtomicLong::get)
+                .description("Scratch disk promised but not yet written").tag("type", "uploads").register(registry);
+        Gauge.builder("localtube_disk_reserved_bytes", reservedScratchBytes, AtomicLong::get)
+                .description("Scratch disk promised but not yet written").tag("type", "transcode").register(registry);
 
         // ── Video View Metrics ────────────────────────────────────────────────
         this.videoViewsTotal = Counter.builder("localtube_video_views")
@@ -90,6 +166,52 @@ public class ModTubeMetrics {
                 .description("Successful transcodings").register(registry);
         this.transcodingFailed  = Counter.builder("localtube_transcoding_failed")
                 .description("Failed transcodings").register(registry);
+        Gauge.builder("localtube_transcode_queue_depth", transcodeQueueDepth, AtomicLong::get)
+                .description("Transcode jobs waiting for a worker").register(registry);
+
+        // ── Object Storage Metrics ────────────────────────────────────────────
+        this.storagePutLatency = Timer.builder("localtube_storage_put_seconds")
+                .description("MinIO upload latency per object").publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+        this.storagePutBytes = DistributionSummary.builder("localtube_storage_put_bytes")
+                .description("Bytes per uploaded object").baseUnit("bytes")
+                .register(registry);
+        this.storagePutRetries = Counter.builder("localtube_storage_put_retries")
+                .description("Retried MinIO uploads").register(registry);
+        this.storagePutFailed = Counter.builder("localtube_storage_put_failed")
+                .description("MinIO uploads that ran out of retries").register(registry);
+        Gauge.builder("localtube_storage_puts_in_flight", storagePutsInFlight, AtomicLong::get)
+                .description("Concurrent MinIO uploads").register(registry);
+
+        // ── Media Cache Metrics ───────────────────────────────────────────────
+        this.mediaCacheHits = Counter.builder("localtube_media_cache_requests")
+                .description("Media cache lookups").tag("result", "hit").register(registry);
+        this.mediaCacheMisses = Counter.builder("localtube_media_cache_requests")
+                .description("Media cache lookups").tag("result", "miss").register(registry);
+        this.mediaCacheCoalesced = Counter.builder("localtube_media_cache_requests")
+                .description("Media cache lookups").tag("result", "coalesced").register(registry);
+        this.mediaCacheEvictions = Counter.builder("localtube_media_cache_evictions")
+                .description("Media cache entries evicted for space").register(registry);
+        Gauge.builder("localtube_media_cache_bytes", mediaCacheBytes, AtomicLong::get)
+                .description("Bytes held by the media cache").register(registry);
+        Gauge.builder("localtube_media_cache_entries", mediaCacheEntries, AtomicLong::get)
+                .description("Objects held by the media cache").register(registry);
+
+        // ── Local Disk Tier Metrics ───────────────────────────────────────────
+        this.mediaTierHits = Counter.builder("localtube_media_tier_requests")
+                .description("Local disk tier lookups").tag("result", "hit").register(registry);
+        this.mediaTierMisses = Counter.builder("localtube_media_tier_requests")
+                .description("Local disk tier lookups").tag("result", "miss").register(registry);
+        this.mediaTierEvictions = Counter.builder("localtube_media_tier_evictions")
+                .description("Local disk tier files evicted for the quota").register(registry);
+        Gauge.builder("localtube_media_tier_bytes", mediaTierBytes, AtomicLong::get)
+                .description("Bytes held by the local disk tier").register(registry);
+
+        this.mediaFetchMemory = mediaFetchTimer(registry, "memory");
+        this.mediaFetchDisk   = mediaFetchTimer(registry, "disk");
+        this.mediaFetchMinio  = mediaFetchTimer(registry, "minio");
+        this.mediaNotModified = Counter.builder("localtube_media_not_modified")
+                .description("Conditional media GETs answered 304 Not Modified").register(registry);
 
         // ── Disk Usage Gauges (backed by AtomicLong, scanned every 60 s) ─────
         Gauge.builder("localtube_disk_usage_bytes", diskUsageUploads, AtomicLong::get)
@@ -117,6 +239,27 @@ public class ModTubeMetrics {
     public void recordUploadSuccess()  { uploadsSuccess.increment(); }
     public void recordUploadFailure()  { uploadsFailed.increment(); }
 
+    /** One ingest stage of one upload or chunk; {@code stage} is one of the five pipeline stages. */
+    public void recordIngestStage(String stage, long nanos) {
+        Timer t = ingestStages.get(stage);
+        if (t != null) t.record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+    }
+    public void recordIngestRejected(String stage) {
+        Counter c = ingestRejected.get(stage);
+        if (c != null) c.increment();
+    }
+    public void setIngestPending(long pending) { ingestPending.set(pending); }
+
+    /** {@code result} is admitted, deferred or rejected. */
+    public void recordUploadAdmission(String result) {
+        Counter c = uploadAdmission.get(result);
+        if (c != null) c.increment();
+    }
+    public void setDiskReserved(long uploadBytes, long transcodeBytes) {
+        reservedUploadBytes.set(uploadBytes);
+        reservedScratchBytes.set(transcodeBytes);
+    }
+
     public void recordVideoView()      { videoViewsTotal.increment(); }
 
     public void incrementActiveTranscodings() { activeTranscodings.incrementAndGet(); }
@@ -130,9 +273,52 @@ public class ModTubeMetrics {
     }
     public void recordTranscodingSuccess() { transcodingSuccess.increment(); }
     public void recordTranscodingFailure() { transcodingFailed.increment(); }
+    public void setTranscodeQueueDepth(long depth) { transcodeQueueDepth.set(depth); }
+
+    public void recordStoragePut(long nanos, long bytes) {
+        storagePutLatency.record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+        storagePutBytes.record(bytes);
+    }
+    public void recordStoragePutRetry()   { storagePutRetries.increment(); }
+    public void recordStoragePutFailure() { storagePutFailed.increment(); }
+    public void incrementStoragePutsInFlight() { storagePutsInFlight.incrementAndGet(); }
+    public void decrementStoragePutsInFlight() { storagePutsInFlight.decrementAndGet(); }
+
+    public void recordMediaCacheHit()       { mediaCacheHits.increment(); }
+    public void recordMediaCacheMiss()      { mediaCacheMisses.increment(); }
+    public void recordMediaCacheCoalesced() { mediaCacheCoalesced.increment(); }
+    public void recordMediaCacheEviction()  { mediaCacheEvictions.increment(); }
+    public void setMediaCacheSize(long bytes, long entries) {
+        mediaCacheBytes.set(bytes);
+        mediaCacheEntries.set(entries);
+    }
+
+    public void recordMediaTierHit()      { mediaTierHits.increment(); }
+    public void recordMediaTierMiss()     { mediaTierMisses.increment(); }
+    public void recordMediaTierEviction() { mediaTierEvictions.increment(); }
+    public void setMediaTierBytes(long bytes) { mediaTierBytes.set(bytes); }
+
+    /** Time from request to an open object (headers known), by the tier that served it. */
+    public void recordMediaFetch(String tier, long nanos) {
+        Timer t = switch (tier) {
+            case "memory" -> mediaFetchMemory;
+            case "disk"   -> mediaFetchDisk;
+            default       -> mediaFetchMinio;
+        };
+        t.record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+    }
+
+    public void recordMediaNotModified() { mediaNotModified.increment(); }
 
     // ── Internals ─────────────────────────────────────────────────────────────
 
+    private static Timer mediaFetchTimer(MeterRegistry registry, String tier) {
+        return Timer.builder("localtube_media_fetch_seconds")
+                .description("Time to open a media object").tag("tier", tier)
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+    }
+
     private long dirSize(Path dir) {
         try {
             if (!Files.exists(dir)) return 0L;
@@ -0,0 +1,177 @@
+package ao.az.modtube.repository;
+
+import ao.az.modtube.domain.TranscodeJob;
+import ao.az.modtube.domain.TranscodeJobStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Durable transcoding queue. Every state transition made by a worker is a
+ * compare-and-set on (owner, status) so a worker that lost its lease can never
+ * overwrite the state another worker has since written. Lease times use the
+ * database clock so several app nodes agree on expiry.
+ */
+@Repository
+public interface TranscodeJobRepository extends JpaRepository<TranscodeJob, Long> {
+
+    // ─── Claim ───────────────────────────────────────────────────────────────
+
+    /** Locks the oldest runnable job; rows locked by other workers are skipped, not waited on. */
+    @Query(nativeQuery = true, value = """
+            SELECT j.* FROM transcode_jobs j
+            WHERE j.status = 'QUEUED'
+              AND j.run_after <= NOW()
+            ORDER BY j.run_after, j.id
+            LIMIT 1
+            FOR UPDATE SKIP LOCKED
+            """)
+    Optional<TranscodeJob> lockNextRunnable();
+
+    @Modifying(clearAutomatically = true)
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_jobs
+            SET status = 'RUNNING', owner = :owner, attempts = attempts + 1,
+                lease_until = NOW() + make_interval(secs => :leaseSeconds),
+                heartbeat_at = NOW(), started_at = NOW()
+            WHERE id = :id AND status = 'QUEUED'
+            """)
+    int markRunning(@Param("id") Long id,
+                    @Param("owner") String owner,
+                    @Param("leaseSeconds") int leaseSeconds);
+
+    // ─── Worker transitions (CAS on owner + RUNNING) ─────────────────────────
+
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_jobs
+            SET lease_until = NOW() + make_interval(secs => :leaseSeconds), heartbeat_at = NOW()
+            WHERE id = :id AND owner = :owner AND status = 'RUNNING'
+            """)
+    int heartbeat(@Param("id") Long id,
+                  @Param("owner") String owner,
+                  @Param("leaseSeconds") int leaseSeconds);
+
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_jobs
+            SET status = 'DONE', finished_at = NOW(), lease_until = NULL, last_error = NULL
+            WHERE id = :id AND owner = :owner AND status = 'RUNNING'
+            """)
+    int markDone(@Param("id") Long id, @Param("owner") String owner);
+
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_jobs
+            SET status = 'QUEUED', owner = NULL, lease_until = NULL, last_error = :error,
+                run_after = NOW() + make_interval(secs => :delaySeconds)
+            WHERE id = :id AND owner = :owner AND status = 'RUNNING'
+            """)
+    int requeue(@Param("id") Long id,
+                @Param("owner") String owner,
+                @Param("error") String error,
+                @Param("delaySeconds") int delaySeconds);
+
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_jobs
+            SET status = 'FAILED', finished_at = NOW(), lease_until = NULL, last_error = :error
+            WHERE id = :id AND owner = :owner AND status = 'RUNNING'
+            """)
+    int markFailed(@Param("id") Long id, @Param("owner") String owner, @Param("error") String error);
+
+    /** Hands this worker's RUNNING jobs back to the queue without charging an attempt (graceful shutdown). */
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_jobs
+            SET status = 'QUEUED', owner = NULL, lease_until = NULL, run_after = NOW(),
+                attempts = GREATEST(attempts - 1, 0)
+            WHERE owner = :owner AND status = 'RUNNING'
+            """)
+    int releaseOwned(@Param("owner") String owner);
+
+    // ─── Recovery ────────────────────────────────────────────────────────────
+
+    @Query(nativeQuery = true, value = """
+            SELECT j.* FROM transcode_jobs j
+            WHERE j.status = 'RUNNING'
+              AND j.lease_until < NOW()
+            FOR UPDATE SKIP LOCKED
+            """)
+    List<TranscodeJob> lockExpiredLeases();
+
+    /** RUNNING jobs left behind by an earlier process on this host (owner "{host}/…"). */
+    @Query(nativeQuery = true, value = """
+            SELECT j.* FROM transcode_jobs j
+            WHERE j.status = 'RUNNING'
+              AND j.owner LIKE :hostPrefix
+              AND j.owner <> :owner
+            FOR UPDATE SKIP LOCKED
+            """)
+    List<TranscodeJob> lockOrphanedOnHost(@Param("hostPrefix") String hostPrefix,
+                                          @Param("owner") String owner);
+
+    // ─── Queries ─────────────────────────────────────────────────────────────
+
+    boolean existsByVideoIdAndStatusIn(String videoId, Collection<TranscodeJobStatus> statuses);
+
+    long countByStatus(TranscodeJobStatus status);
+
+    /** 1-based position of the video's queued job, or 0 when it isn't waiting. */
+    @Query(nativeQuery = true, value = """
+            SELECT COUNT(*) FROM transcode_jobs j, (
+                SELECT q.run_after, q.id FROM transcode_jobs q
+                WHERE q.video_id = :videoId AND q.status = 'QUEUED'
+                ORDER BY q.id DESC LIMIT 1
+            ) mine
+            WHERE j.status = 'QUEUED'
+              AND (j.run_after, j.id) <= (mine.run_after, mine.id)
+            """)
+    long queuePosition(@Param("videoId") String videoId);
+
+    /**
+     * Source sizes of queued and running jobs that read a local file, running
+     * first and then in claim order — what the scratch disk gets back as they finish.
+     */
+    @Query(nativeQuery = true, value = """
+            SELECT COALESCE(s.total_size, 0) FROM transcode_jobs j
+            LEFT JOIN upload_sessions s ON s.video_id = j.video_id
+            WHERE j.status IN ('QUEUED', 'RUNNING')
+              AND j.input_path NOT LIKE 'minio:%'
+            ORDER BY (j.status = 'RUNNING') DESC, j.run_after, j.id
+            """)
+    List<Long> pendingLocalInputSizes();
+
+    /** Mean run time of the last 20 finished jobs, in seconds; null before the first one. */
+    @Query(nativeQuery = true, value = """
+            SELECT CAST(AVG(EXTRACT(EPOCH FROM (finished_at - started_at))) AS DOUBLE PRECISION)
+            FROM (
+                SELECT started_at, finished_at FROM transcode_jobs
+                WHERE status = 'DONE' AND started_at IS NOT NULL AND finished_at IS NOT NULL
+                ORDER BY finished_at DESC
+                LIMIT 20
+            ) recent
+            """)
+    Double recentAverageRunSeconds();
+
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_jobs
+            SET status = 'CANCELLED', finished_at = NOW(), lease_until = NULL
+            WHERE video_id = :videoId AND status IN ('QUEUED', 'RUNNING')
+            """)
+    int cancelActiveForVideo(@Param("videoId") String videoId);
+}
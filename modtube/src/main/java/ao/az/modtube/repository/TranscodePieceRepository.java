@@ -0,0 +1,138 @@
+package ao.az.modtube.repository;
+
+import ao.az.modtube.domain.TranscodePiece;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Pieces of split transcodes. Same rules as {@link TranscodeJobRepository}:
+ * claims skip locked rows, worker transitions are compare-and-set on
+ * (owner, RUNNING), and lease times use the database clock. A piece is only
+ * claimable, and its lease only renewable, while its job is RUNNING — a
+ * cancelled or failed job stops its pieces on every node.
+ */
+@Repository
+public interface TranscodePieceRepository extends JpaRepository<TranscodePiece, Long> {
+
+    // ─── Claim ───────────────────────────────────────────────────────────────
+
+    /** Oldest job first, then piece order — one video finishes before the next starts. */
+    @Query(nativeQuery = true, value = """
+            SELECT p.* FROM transcode_pieces p
+            JOIN transcode_jobs j ON j.id = p.job_id
+            WHERE p.status = 'QUEUED'
+              AND j.status = 'RUNNING'
+              AND (p.host IS NULL OR p.host = :host)
+            ORDER BY p.job_id, p.piece
+            LIMIT 1
+            FOR UPDATE OF p SKIP LOCKED
+            """)
+    Optional<TranscodePiece> lockNextRunnable(@Param("host") String host);
+
+    @Modifying(clearAutomatically = true)
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_pieces
+            SET status = 'RUNNING', owner = :owner, attempts = attempts + 1,
+                lease_until = NOW() + make_interval(secs => :leaseSeconds), started_at = NOW()
+            WHERE id = :id AND status = 'QUEUED'
+            """)
+    int markRunning(@Param("id") Long id,
+                    @Param("owner") String owner,
+                    @Param("leaseSeconds") int leaseSeconds);
+
+    // ─── Worker transitions (CAS on owner + RUNNING) ─────────────────────────
+
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_pieces p
+            SET lease_until = NOW() + make_interval(secs => :leaseSeconds)
+            WHERE p.id = :id AND p.owner = :owner AND p.status = 'RUNNING'
+              AND EXISTS (SELECT 1 FROM transcode_jobs j WHERE j.id = p.job_id AND j.status = 'RUNNING')
+            """)
+    int heartbeat(@Param("id") Long id,
+                  @Param("owner") String owner,
+                  @Param("leaseSeconds") int leaseSeconds);
+
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_pieces
+            SET status = 'DONE', finished_at = NOW(), lease_until = NULL, last_error = NULL,
+                segments = :segments
+            WHERE id = :id AND owner = :owner AND status = 'RUNNING'
+            """)
+    int markDone(@Param("id") Long id, @Param("owner") String owner, @Param("segments") String segments);
+
+    /** Back to QUEUED while attempts remain, otherwise FAILED (which fails the job). */
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_pieces
+            SET status = CASE WHEN attempts < max_attempts THEN 'QUEUED' ELSE 'FAILED' END,
+                owner = NULL, lease_until = NULL, last_error = :error
+            WHERE id = :id AND owner = :owner AND status = 'RUNNING'
+            """)
+    int markFailed(@Param("id") Long id, @Param("owner") String owner, @Param("error") String error);
+
+    /** Graceful shutdown: this worker's pieces go back to the queue without charging an attempt. */
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_pieces
+            SET status = 'QUEUED', owner = NULL, lease_until = NULL,
+                attempts = GREATEST(attempts - 1, 0)
+            WHERE owner = :owner AND status = 'RUNNING'
+            """)
+    int releaseOwned(@Param("owner") String owner);
+
+    // ─── Recovery ────────────────────────────────────────────────────────────
+
+    /** RUNNING pieces whose worker stopped heartbeating — charged an attempt like a failure. */
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_pieces
+            SET status = CASE WHEN attempts < max_attempts THEN 'QUEUED' ELSE 'FAILED' END,
+                owner = NULL, lease_until = NULL,
+                last_error = 'Worker ' || COALESCE(owner, '?') || ' stopped heartbeating'
+            WHERE status = 'RUNNING' AND lease_until < NOW()
+            """)
+    int reapExpiredLeases();
+
+    /** Pieces whose job has ended (done, failed for good, cancelled) — nothing will stitch them. */
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            DELETE FROM transcode_pieces p
+            USING transcode_jobs j
+            WHERE j.id = p.job_id AND j.status IN ('DONE', 'FAILED', 'CANCELLED')
+            """)
+    int deleteForEndedJobs();
+
+    // ─── Coordinator ─────────────────────────────────────────────────────────
+
+    List<TranscodePiece> findByJobIdOrderByPiece(Long jobId);
+
+    /** A retried job resumes: pieces that didn't finish get a fresh set of attempts. */
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE transcode_pieces
+            SET status = 'QUEUED', owner = NULL, lease_until = NULL, attempts = 0
+            WHERE job_id = :jobId AND status <> 'DONE'
+            """)
+    int resetUnfinished(@Param("jobId") Long jobId);
+
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = "DELETE FROM transcode_pieces WHERE job_id = :jobId")
+    int deleteByJob(@Param("jobId") Long jobId);
+}
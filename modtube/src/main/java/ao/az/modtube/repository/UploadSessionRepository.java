@@ -0,0 +1,75 @@
+package ao.az.modtube.repository;
+
+import ao.az.modtube.domain.UploadSession;
+import ao.az.modtube.domain.UploadSessionStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Resumable upload sessions. Status changes are compare-and-set on ACTIVE, so
+ * the janitor and a late /complete or /cancel can't both act on one session.
+ * Expiry uses the database clock.
+ */
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, Long> {
+
+    Optional<UploadSession> findByVideoId(String videoId);
+
+    List<UploadSession> findByUploaderIdAndStatusOrderByCreatedAtDesc(Long uploaderId, UploadSessionStatus status);
+
+    @Query(nativeQuery = true, value = """
+            SELECT EXISTS (
+                SELECT 1 FROM upload_sessions
+                WHERE video_id = :videoId AND status = 'ACTIVE' AND expires_at > NOW()
+            )
+            """)
+    boolean isActive(@Param("videoId") String videoId);
+
+    /** Records progress and pushes the expiry forward. */
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE upload_sessions
+            SET chunks_stored = :stored, updated_at = NOW(),
+                expires_at = NOW() + make_interval(secs => :ttlSeconds)
+            WHERE video_id = :videoId AND status = 'ACTIVE'
+            """)
+    int touch(@Param("videoId") String videoId,
+              @Param("stored") int stored,
+              @Param("ttlSeconds") long ttlSeconds);
+
+    @Modifying
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE upload_sessions
+            SET status = :status, updated_at = NOW()
+            WHERE video_id = :videoId AND status = 'ACTIVE'
+            """)
+    int finish(@Param("videoId") String videoId, @Param("status") String status);
+
+    /**
+     * Bytes active chunked uploads have yet to write. Their files are
+     * preallocated sparse, so these bytes are promised but not yet used on disk.
+     */
+    @Query(nativeQuery = true, value = """
+            SELECT CAST(COALESCE(SUM(GREATEST(total_size - CAST(chunks_stored AS BIGINT) * chunk_size, 0)), 0) AS BIGINT)
+            FROM upload_sessions
+            WHERE status = 'ACTIVE' AND s3_upload_id IS NULL AND expires_at > NOW()
+            """)
+    long reservedUploadBytes();
+
+    @Query(nativeQuery = true, value = """
+            SELECT video_id FROM upload_sessions
+            WHERE status = 'ACTIVE' AND expires_at < NOW()
+            ORDER BY expires_at
+            LIMIT :limit
+            """)
+    List<String> findExpiredVideoIds(@Param("limit") int limit);
+}
@@ -13,6 +13,7 @@ import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface VideoRepository extends JpaRepository<Video, String> {
@@ -197,6 +198,29 @@ public interface VideoRepository extends JpaRepository<Video, String> {
 
     List<Video> findByStatusIn(List<VideoStatus> statuses);
 
+    // ─── Content dedup ───────────────────────────────────────────────────────
+
+    /** A fully transcoded video with this content hash, oldest first. */
+    @Query(nativeQuery = true, value = """
+            SELECT v.* FROM videos v
+            WHERE v.content_sha256 = :sha256
+              AND v.status = 'READY'
+              AND v.processing_progress >= 100
+              AND v.id <> :excludeId
+            ORDER BY v.uploaded_at
+            LIMIT 1
+            """)
+    Optional<Video> findTranscodedByContentSha256(@Param("sha256") String sha256,
+                                                   @Param("excludeId") String excludeId);
+
+    /** Other videos playing the media stored under {@code mediaId} (its owner or videos linked to it). */
+    @Query(nativeQuery = true, value = """
+            SELECT COUNT(*) FROM videos v
+            WHERE (v.id = :mediaId OR v.media_owner_id = :mediaId)
+              AND v.id <> :excludeId
+            """)
+    long countMediaUsers(@Param("mediaId") String mediaId, @Param("excludeId") String excludeId);
+
     // ─── Status update ───────────────────────────────────────────────────────
 
     @Modifying
@@ -204,6 +228,20 @@ public interface VideoRepository extends JpaRepository<Video, String> {
     @Query("UPDATE Video v SET v.status = :status WHERE v.id = :id")
     void updateStatus(@Param("id") String id, @Param("status") VideoStatus status);
 
+    @Modifying
+    @Transactional
+    @Query("UPDATE Video v SET v.processingProgress = :progress WHERE v.id = :id")
+    void updateProcessingProgress(@Param("id") String id, @Param("progress") int progress);
+
+    /** Sets the progress only if it is higher, so a late write can't undo a newer one. */
+    @Modifying
+    @Transactional
+    @Query("""
+            UPDATE Video v SET v.processingProgress = :progress
+            WHERE v.id = :id AND (v.processingProgress IS NULL OR v.processingProgress < :progress)
+            """)
+    void raiseProcessingProgress(@Param("id") String id, @Param("progress") int progress);
+
     // ─── Default convenience bridges (called by VideoService) ────────────────
 
     default List<Video> findAll(int page, int size) {
@@ -0,0 +1,435 @@
+package ao.az.modtube.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Assembles a chunked upload in place.
+ *
+ * At init the target file (uploads/{videoId}/original.{ext}) is created at its
+ * final length as a sparse file. Each chunk is written straight to
+ * {@code chunkIndex * chunkSize} with a positional write, so parallel chunks can
+ * arrive in any order and no merge pass is needed: when the last chunk lands the
+ * file is already complete.
+ *
+ * Which chunks are stored is kept in a small sidecar (upload.chunks): a header
+ * with the layout followed by a bitmap, one bit per chunk. A chunk's bit is set
+ * only after its data has been forced to disk, so the bitmap never claims bytes
+ * that a crash could lose, and the state can be reloaded after a restart.
+ *
+ * Integrity: a chunk may carry the SHA-256 of its bytes, checked while they
+ * stream in — a mismatch is rejected and the chunk stays missing. A stored
+ * chunk is never written again, so a damaged resend can't replace good bytes. The whole-file
+ * SHA-256 is computed incrementally in the background, folding in each chunk as
+ * soon as every chunk before it is stored (re-read from the page cache), so it is
+ * ready, or nearly, when the upload completes. After a restart it is rebuilt
+ * from the stored prefix.
+ */
+@Slf4j
+@Component
+public class ChunkAssembler {
+
+    private static final String BITMAP_FILE = "upload.chunks";
+    /** totalSize (8) + chunkSize (4) + totalChunks (4), then the bitmap. */
+    private static final int HEADER_BYTES = 16;
+
+    /** Direct copy buffers, reused across chunks; extra ones under load are simply dropped. */
+    private static final int COPY_BUFFER_BYTES = 256 * 1024;
+    private static final BlockingQueue<ByteBuffer> COPY_BUFFERS = new ArrayBlockingQueue<>(16);
+
+    /** A finished upload: the assembled file and its SHA-256 (hex; null if it couldn't be computed). */
+    public record Assembled(Path file, String sha256) {}
+
+    /** The chunk's bytes don't match the checksum the client sent — it was damaged in transit. */
+    public static class ChecksumMismatchException extends IllegalArgumentException {
+        public ChecksumMismatchException(int chunkIndex) {
+            super("Checksum mismatch for chunk " + chunkIndex);
+        }
+    }
+
+    /** Layout and progress of one upload. */
+    public record Layout(long totalSize, int chunkSize, int totalChunks) {
+
+        /** Bytes chunk {@code index} must contain (the last one is usually short). */
+        public long chunkLength(int index) {
+            return Math.min(chunkSize, totalSize - (long) index * chunkSize);
+        }
+    }
+
+    private final Path uploadDir;
+
+    /** Open assemblies by video id; reloaded from the sidecar on first use after a restart. */
+    private final ConcurrentHashMap<String, Assembly> assemblies = new ConcurrentHashMap<>();
+
+    /** Folds stored chunks into each upload's whole-file hash, off the request threads. */
+    private final ExecutorService hasher;
+
+    public ChunkAssembler(@Value("${modtube.storage.upload-dir}") String uploadDirPath,
+                          @Value("${modtube.storage.upload-hash-threads:2}") int hashThreads) {
+        this.uploadDir = Paths.get(uploadDirPath);
+        this.hasher = Executors.newFixedThreadPool(Math.max(1, hashThreads), r -> {
+            Thread t = new Thread(r, "upload-hash");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hasher.shutdownNow();
+    }
+
+    /** Creates the sparse target file and an empty bitmap. */
+    public void create(String videoId, String extension, long totalSize, int chunkSize, int totalChunks)
+            throws IOException {
+        if (totalSize <= 0 || chunkSize <= 0 || totalChunks <= 0
+                || (long) chunkSize * totalChunks < totalSize
+                || (long) chunkSize * (totalChunks - 1) >= totalSize) {
+            throw new IllegalArgumentException("Inconsistent upload layout: size=" + totalSize
+                    + " chunkSize=" + chunkSize + " chunks=" + totalChunks);
+        }
+        Path dir = uploadDir.resolve(videoId);
+        Files.createDirectories(dir);
+        Path target = dir.resolve("original." + extension);
+        try (RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw")) {
+            raf.setLength(totalSize);   // sparse: no blocks are allocated until chunks land
+        }
+        Layout layout = new Layout(totalSize, chunkSize, totalChunks);
+        Assembly assembly = new Assembly(target, dir.resolve(BITMAP_FILE), layout, new BitSet(totalChunks));
+        assembly.writeSidecar();
+        assemblies.put(videoId, assembly);
+    }
+
+    /**
+     * Writes one chunk at its offset in the target file and records it.
+     * Re-sending a chunk that is already stored is read and acknowledged, but
+     * never rewritten — its bytes may already be in the whole-file hash.
+     */
+    public void writeChunk(String videoId, int chunkIndex, InputStream in, long length) throws IOException {
+        writeChunk(videoId, chunkIndex, Channels.newChannel(in), length, null);
+    }
+
+    /** As above; if {@code expectedSha256} is given the chunk is only recorded when its bytes match it. */
+    public void writeChunk(String videoId, int chunkIndex, ReadableByteChannel src, long length,
+                           byte[] expectedSha256) throws IOException {
+        Assembly a = assembly(videoId);
+        if (chunkIndex < 0 || chunkIndex >= a.layout.totalChunks()) {
+            throw new IllegalArgumentException("Invalid chunk index " + chunkIndex
+                    + " (upload has " + a.layout.totalChunks() + " chunks)");
+        }
+        long expected = a.layout.chunkLength(chunkIndex);
+        if (length != expected) {
+            throw new IllegalArgumentException("Chunk " + chunkIndex + " is " + length
+                    + " bytes, expected " + expected);
+        }
+        long position = (long) chunkIndex * a.layout.chunkSize();
+        MessageDigest digest = expectedSha256 != null ? sha256() : null;
+        // One writer per chunk at a time: two sends of the same chunk racing could
+        // otherwise leave a damaged one's bytes under the good one's bit.
+        synchronized (a.chunkLock(chunkIndex)) {
+            boolean stored = a.isStored(chunkIndex);
+            ByteBuffer buffer = COPY_BUFFERS.poll();
+            if (buffer == null) buffer = ByteBuffer.allocateDirect(COPY_BUFFER_BYTES);
+            try (FileChannel file = stored ? null : FileChannel.open(a.target, StandardOpenOption.WRITE)) {
+                long written = 0;
+                while (written < length) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), length - written));
+                    if (src.read(buffer) < 0) break;
+                    buffer.flip();
+                    if (digest != null) digest.update(buffer.duplicate());
+                    if (file == null) {
+                        written += buffer.remaining();
+                        continue;
+                    }
+                    while (buffer.hasRemaining()) {
+                        written += file.write(buffer, position + written);
+                    }
+                }
+                if (written != length || src.read(buffer.clear().limit(1)) > 0) {
+                    throw new IOException("Chunk " + chunkIndex + " is not " + length + " bytes (got "
+                            + (written != length ? written : "more") + ")");
+                }
+                if (digest != null && !MessageDigest.isEqual(digest.digest(), expectedSha256)) {
+                    // Left unrecorded: only a chunk that isn't stored yet was written, and the
+                    // client's resend overwrites it.
+                    throw new ChecksumMismatchException(chunkIndex);
+                }
+                if (file != null) file.force(false);
+            } finally {
+                buffer.clear();
+                COPY_BUFFERS.offer(buffer);
+            }
+            if (stored) return;
+            a.markStored(chunkIndex);
+        }
+        hasher.execute(() -> {
+            try {
+                advanceHash(a);
+            } catch (Exception e) {
+                log.debug("[Upload] hashing video={} deferred: {}", videoId, e.getMessage());
+            }
+        });
+    }
+
+    /** True once every chunk is stored — constant time, no directory scan. */
+    public boolean isComplete(String videoId) throws IOException {
+        Assembly a = assembly(videoId);
+        return a.storedCount() == a.layout.totalChunks();
+    }
+
+    public Layout layout(String videoId) throws IOException {
+        return assembly(videoId).layout;
+    }
+
+    public boolean isStored(String videoId, int chunkIndex) throws IOException {
+        return assembly(videoId).isStored(chunkIndex);
+    }
+
+    /** The file chunks are written into — readable (sparse where chunks are missing) while the upload runs. */
+    public Path target(String videoId) throws IOException {
+        return assembly(videoId).target;
+    }
+
+    public int storedCount(String videoId) throws IOException {
+        return assembly(videoId).storedCount();
+    }
+
+    /** Stored chunks as inclusive {first, last} index ranges, ascending — what a resuming client skips. */
+    public List<int[]> storedRanges(String videoId) throws IOException {
+        Assembly a = assembly(videoId);
+        List<int[]> ranges = new ArrayList<>();
+        synchronized (a) {
+            int from = a.stored.nextSetBit(0);
+            while (from >= 0) {
+                int to = a.stored.nextClearBit(from) - 1;
+                ranges.add(new int[]{from, to});
+                from = a.stored.nextSetBit(to + 1);
+            }
+        }
+        return ranges;
+    }
+
+    /** Index of the first chunk not yet stored, or -1 when complete. */
+    public int firstMissing(String videoId) throws IOException {
+        Assembly a = assembly(videoId);
+        synchronized (a) {
+            int i = a.stored.nextClearBit(0);
+            return i < a.layout.totalChunks() ? i : -1;
+        }
+    }
+
+    /**
+     * Finishes a complete upload: completes the whole-file hash (normally only
+     * the last chunk or two are left), drops the bitmap and returns the
+     * assembled file, which is already at its final path.
+     */
+    public Assembled finish(String videoId) throws IOException {
+        Assembly a = assembly(videoId);
+        String sha256 = null;
+        try {
+            sha256 = advanceHash(a);
+        } catch (IOException e) {
+            log.warn("[Upload] Could not hash upload for video={}: {}", videoId, e.getMessage());
+        }
+        Files.deleteIfExists(a.sidecar);
+        assemblies.remove(videoId);
+        return new Assembled(a.target, sha256);
+    }
+
+    /** Forgets an upload and deletes its partial file (cancelled or abandoned). */
+    public void discard(String videoId) {
+        Assembly a = assemblies.remove(videoId);
+        try {
+            if (a == null) a = load(videoId);
+            if (a != null) {
+                Files.deleteIfExists(a.target);
+                Files.deleteIfExists(a.sidecar);
+            }
+        } catch (IOException e) {
+            log.warn("[Upload] Could not discard partial upload for video={}: {}", videoId, e.getMessage());
+        }
+    }
+
+    /** Video ids whose bitmap hasn't changed since {@code cutoff} — candidates for reclaiming. */
+    public List<String> staleAssemblies(Instant cutoff) {
+        List<String> stale = new ArrayList<>();
+        if (!Files.isDirectory(uploadDir)) return stale;
+        try (var dirs = Files.list(uploadDir)) {
+            dirs.forEach(dir -> {
+                Path sidecar = dir.resolve(BITMAP_FILE);
+                try {
+                    if (Files.exists(sidecar)
+                            && Files.getLastModifiedTime(sidecar).compareTo(FileTime.from(cutoff)) < 0) {
+                        stale.add(dir.getFileName().toString());
+                    }
+                } catch (IOException ignored) {
+                    // vanished while we looked
+                }
+            });
+        } catch (IOException e) {
+            log.warn("[Upload] Could not scan {}: {}", uploadDir, e.getMessage());
+        }
+        return stale;
+    }
+
+    /**
+     * Folds every chunk of the contiguous stored prefix that isn't hashed yet
+     * into the file digest. Returns the hex SHA-256 once all chunks are in.
+     */
+    private String advanceHash(Assembly a) throws IOException {
+        synchronized (a.hashLock) {
+            if (a.fileSha256 != null) return a.fileSha256;
+            int total = a.layout.totalChunks();
+            if (a.hashedChunks < total && a.isStored(a.hashedChunks)) {
+                ByteBuffer buffer = COPY_BUFFERS.poll();
+                if (buffer == null) buffer = ByteBuffer.allocateDirect(COPY_BUFFER_BYTES);
+                try (FileChannel file = FileChannel.open(a.target, StandardOpenOption.READ)) {
+                    while (a.hashedChunks < total && a.isStored(a.hashedChunks)) {
+                        long pos = (long) a.hashedChunks * a.layout.chunkSize();
+                        long end = pos + a.layout.chunkLength(a.hashedChunks);
+                        while (pos < end) {
+                            buffer.clear().limit((int) Math.min(buffer.capacity(), end - pos));
+                            int n = file.read(buffer, pos);
+                            if (n < 0) throw new IOException("Upload file shorter than its layout");
+                            buffer.flip();
+                            a.fileDigest.update(buffer);
+                            pos += n;
+                        }
+                        a.hashedChunks++;
+                    }
+                } finally {
+                    buffer.clear();
+                    COPY_BUFFERS.offer(buffer);
+                }
+            }
+            if (a.hashedChunks == total) {
+                a.fileSha256 = HexFormat.of().formatHex(a.fileDigest.digest());
+            }
+            return a.fileSha256;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Assembly assembly(String videoId) throws IOException {
+        Assembly a = assemblies.get(videoId);
+        if (a != null) return a;
+        Assembly loaded = load(videoId);
+        if (loaded == null) throw new IllegalStateException("No upload in progress for video " + videoId);
+        Assembly raced = assemblies.putIfAbsent(videoId, loaded);
+        return raced != null ? raced : loaded;
+    }
+
+    /** Rebuilds an assembly from its sidecar (after a restart). Null if there is none. */
+    private Assembly load(String videoId) throws IOException {
+        Path dir = uploadDir.resolve(videoId);
+        Path sidecar = dir.resolve(BITMAP_FILE);
+        if (!Files.exists(sidecar)) return null;
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(sidecar));
+        if (buf.remaining() < HEADER_BYTES) return null;
+        Layout layout = new Layout(buf.getLong(), buf.getInt(), buf.getInt());
+        BitSet stored = BitSet.valueOf(buf.slice());
+        Path target;
+        try (var files = Files.list(dir)) {
+            target = files.filter(p -> p.getFileName().toString().startsWith("original."))
+                    .findFirst().orElse(null);
+        }
+        if (target == null) return null;
+        log.info("[Upload] Resumed assembly for video={}: {}/{} chunks stored",
+                videoId, stored.cardinality(), layout.totalChunks());
+        return new Assembly(target, sidecar, layout, stored);
+    }
+
+    private static final class Assembly {
+        private final Path target;
+        private final Path sidecar;
+        private final Layout layout;
+        /** Guarded by {@code this}. */
+        private final BitSet stored;
+        private int storedCount;
+
+        /** Whole-file hash state; guarded by {@code hashLock}. Chunks [0, hashedChunks) are folded in. */
+        private final Object hashLock = new Object();
+        private final MessageDigest fileDigest = sha256();
+        private int hashedChunks;
+        private String fileSha256;
+
+        /** Serialise writers of the same chunk; striped, so memory doesn't grow with the chunk count. */
+        private final Object[] chunkLocks = new Object[64];
+
+        private Assembly(Path target, Path sidecar, Layout layout, BitSet stored) {
+            this.target = target;
+            this.sidecar = sidecar;
+            this.layout = layout;
+            this.stored = stored;
+            this.storedCount = stored.cardinality();
+            for (int i = 0; i < chunkLocks.length; i++) chunkLocks[i] = new Object();
+        }
+
+        Object chunkLock(int index) {
+            return chunkLocks[index % chunkLocks.length];
+        }
+
+        synchronized int storedCount() {
+            return storedCount;
+        }
+
+        synchronized boolean isStored(int index) {
+            return stored.get(index);
+        }
+
+        /** Sets the chunk's bit and persists just the byte that holds it. */
+        synchronized void markStored(int index) throws IOException {
+            if (stored.get(index)) return;
+            stored.set(index);
+            storedCount++;
+            int byteIndex = index / 8;
+            byte[] bits = stored.toByteArray();
+            byte value = byteIndex < bits.length ? bits[byteIndex] : 0;
+            try (FileChannel ch = FileChannel.open(sidecar, StandardOpenOption.WRITE)) {
+                ch.write(ByteBuffer.wrap(new byte[]{value}), HEADER_BYTES + byteIndex);
+            }
+        }
+
+        void writeSidecar() throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + (layout.totalChunks() + 7) / 8);
+            buf.putLong(layout.totalSize()).putInt(layout.chunkSize()).putInt(layout.totalChunks());
+            byte[] bits = stored.toByteArray();
+            buf.put(bits, 0, Math.min(bits.length, buf.remaining()));
+            Files.write(sidecar, buf.array());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ao.az.modtube.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how hard a source is to encode: a few short windows spread over
+ * the video are encoded at a fixed CRF with a fast preset, once per output
+ * size, and the bitrate each size needed is what per-title ladder decisions
+ * in {@link TranscodingService} are made from. A slide deck needs a fraction
+ * of the bits of a sports clip at the same CRF, and barely more at 2160p than
+ * at 1080p if the detail isn't there.
+ */
+@Slf4j
+@Component
+public class ComplexityProbe {
+
+    /** CRF the samples are encoded at — the bitrates are relative to this. */
+    public static final int REFERENCE_CRF = 23;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private final int samples;
+    private final int sampleSeconds;
+
+    public ComplexityProbe(@Value("${modtube.transcoding.per-title.samples:3}") int samples,
+                           @Value("${modtube.transcoding.per-title.sample-seconds:4}") int sampleSeconds) {
+        this.samples = Math.max(1, samples);
+        this.sampleSeconds = Math.max(1, sampleSeconds);
+    }
+
+    /**
+     * Bits per second an x264 encode at {@link #REFERENCE_CRF} needs after each
+     * of {@code filters} (one video filter chain per output size), averaged over
+     * the sample windows of a {@code durationSeconds}-long {@code input}. Empty
+     * if any sample failed — the caller keeps its static ladder.
+     */
+    public Optional<double[]> bitrates(String input, int durationSeconds, List<String> filters)
+            throws InterruptedException {
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("complexity-");
+            long[] bytes = new long[filters.size()];
+            double sampled = 0;
+            for (double[] window : windows(durationSeconds)) {
+                List<String> cmd = new ArrayList<>(List.of(
+                        "ffmpeg", "-v", "error", "-y",
+                        "-ss", String.format(Locale.ROOT, "%.3f", window[0]),
+                        "-t", String.format(Locale.ROOT, "%.3f", window[1]),
+                        "-i", input));
+                for (int i = 0; i < filters.size(); i++) {
+                    cmd.addAll(List.of(
+                            "-map", "0:v:0", "-an",
+                            "-vf", filters.get(i),
+                            "-c:v", "libx264", "-preset", "veryfast",
+                            "-crf", String.valueOf(REFERENCE_CRF), "-pix_fmt", "yuv420p",
+                            "-f", "h264", dir.resolve("s" + i + ".h264").toString()));
+                }
+                ProcessBuilder pb = new ProcessBuilder(cmd);
+                pb.redirectErrorStream(true);
+                pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+                Process process = pb.start();
+                try {
+                    if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                        log.warn("[Complexity] sample at {}s failed for {}", (long) window[0], input);
+                        return Optional.empty();
+                    }
+                } finally {
+                    if (process.isAlive()) process.destroyForcibly();
+                }
+                for (int i = 0; i < filters.size(); i++) {
+                    bytes[i] += Files.size(dir.resolve("s" + i + ".h264"));
+                }
+                sampled += window[1];
+            }
+            double[] bps = new double[filters.size()];
+            for (int i = 0; i < bps.length; i++) bps[i] = bytes[i] * 8 / sampled;
+            return Optional.of(bps);
+        } catch (IOException e) {
+            log.warn("[Complexity] analysis failed for {}: {}", input, e.getMessage());
+            return Optional.empty();
+        } finally {
+            if (dir != null) {
+                try (var files = Files.list(dir)) {
+                    files.forEach(f -> f.toFile().delete());
+                } catch (IOException ignored) {
+                }
+                dir.toFile().delete();
+            }
+        }
+    }
+
+    /** (start, length) of each sample: evenly spread, clear of intros and credits; the whole of a short video. */
+    private List<double[]> windows(int durationSeconds) {
+        if (durationSeconds <= 2 * samples * sampleSeconds) {
+            return List.<double[]>of(new double[]{0, Math.max(1, durationSeconds)});
+        }
+        List<double[]> windows = new ArrayList<>();
+        for (int i = 0; i < samples; i++) {
+            double center = durationSeconds * (i + 1.0) / (samples + 1);
+            windows.add(new double[]{center - sampleSeconds / 2.0, sampleSeconds});
+        }
+        return windows;
+    }
+}
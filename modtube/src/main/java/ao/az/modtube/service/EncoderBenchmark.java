@@ -0,0 +1,158 @@
+package ao.az.modtube.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Encodes one clip with each {@link VideoEncoder} backend the way a ladder
+ * rung is encoded and prints frames per second, CPU-seconds and output size,
+ * so encoders and presets for a box can be chosen from numbers. Run with
+ * {@code ./gradlew encoderBenchmark}, options as -P properties:
+ * <pre>
+ *   encoders  x264,x265,svt-av1        backends to run, each "{name}" or "{name}:{preset}"
+ *   size      1920x1080                output size
+ *   crf       19                       quality on the x264 CRF scale, mapped per backend
+ *   seconds   10                       length of the generated clip
+ *   clip      (generated)              a source file to use instead
+ * </pre>
+ * Without a clip, the same synthetic one is generated every time — testsrc2
+ * under temporal noise, so it isn't trivially compressible — and results
+ * compare across boxes. CPU-seconds are FFmpeg's own -benchmark user + system
+ * time, decode included.
+ */
+public final class EncoderBenchmark {
+
+    private static final Pattern BENCH = Pattern.compile("bench: utime=([\\d.]+)s stime=([\\d.]+)s rtime=([\\d.]+)s");
+    private static final Pattern FRAME = Pattern.compile("frame=\\s*(\\d+)");
+
+    private EncoderBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        String[] size = options.getOrDefault("size", "1920x1080").split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        int crf = Integer.parseInt(options.getOrDefault("crf", "19"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+
+        Map<String, VideoEncoder> backends = new HashMap<>();
+        for (VideoEncoder e : List.of(new X264Encoder(), new X265Encoder(), new SvtAv1Encoder())) {
+            backends.put(e.name(), e);
+        }
+
+        Path dir = Files.createTempDirectory("encoder-benchmark-");
+        try {
+            Path clip;
+            if (options.containsKey("clip")) {
+                clip = Path.of(options.get("clip"));
+            } else {
+                clip = dir.resolve("clip.mkv");
+                System.out.printf("Generating a %ds %dx%d test clip…%n", seconds, width, height);
+                Result generated = run(List.of("ffmpeg", "-hide_banner", "-y",
+                        "-f", "lavfi", "-i", "testsrc2=size=" + width + "x" + height + ":rate=30",
+                        "-t", String.valueOf(seconds),
+                        "-vf", "noise=alls=12:allf=t+u",
+                        "-c:v", "libx264", "-preset", "ultrafast", "-crf", "8", "-pix_fmt", "yuv420p",
+                        clip.toString()));
+                if (generated.exitCode() != 0) {
+                    System.out.println("Could not generate the test clip: " + generated.tail());
+                    return;
+                }
+            }
+
+            String level = VideoEncoder.levelFor(width, height);
+            VideoEncoder.Rung rung = new VideoEncoder.Rung(width, height, crf, "high", level);
+            System.out.printf("%n%-10s %-8s %7s %8s %8s %9s %10s %9s%n",
+                    "encoder", "preset", "frames", "wall s", "fps", "cpu s", "cpu ms/f", "kb/s");
+            for (String choice : options.getOrDefault("encoders", "x264,x265,svt-av1").split(",")) {
+                String[] f = choice.trim().split(":", 2);
+                VideoEncoder encoder = backends.get(f[0]);
+                if (encoder == null) {
+                    System.out.printf("%-10s unknown encoder%n", f[0]);
+                    continue;
+                }
+                String preset = f.length > 1 && !f[1].isBlank() ? f[1].trim() : encoder.defaultPreset();
+                Path out = dir.resolve(encoder.name() + ".mp4");
+                List<String> cmd = new ArrayList<>(List.of("ffmpeg", "-hide_banner", "-benchmark", "-y",
+                        "-i", clip.toString(), "-map", "0:v:0", "-an",
+                        "-vf", "scale=" + width + ":" + height, "-pix_fmt", "yuv420p"));
+                cmd.addAll(encoder.args(":v", rung, preset));
+                cmd.add(out.toString());
+                Result r = run(cmd);
+                if (r.exitCode != 0 || !Files.exists(out)) {
+                    System.out.printf("%-10s %-8s failed (exit %d): %s%n", encoder.name(), preset, r.exitCode, r.tail);
+                    continue;
+                }
+                long bytes = Files.size(out);
+                double duration = duration(out);
+                System.out.printf(Locale.ROOT, "%-10s %-8s %7d %8.1f %8.1f %9.1f %10.1f %9d%n",
+                        encoder.name(), preset, r.frames, r.wall,
+                        r.wall > 0 ? r.frames / r.wall : 0, r.cpu,
+                        r.frames > 0 ? r.cpu * 1000 / r.frames : 0,
+                        duration > 0 ? Math.round(bytes * 8 / duration / 1000) : 0);
+            }
+        } finally {
+            try (var files = Files.list(dir)) {
+                files.forEach(f -> f.toFile().delete());
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private record Result(int exitCode, long frames, double wall, double cpu, String tail) {}
+
+    /** Seconds of media in {@code file}, or 0 if ffprobe can't tell. */
+    private static double duration(Path file) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder("ffprobe", "-v", "error", "-show_entries", "format=duration",
+                "-of", "csv=p=0", file.toString()).redirectErrorStream(true).start();
+        String out = new String(process.getInputStream().readAllBytes()).trim();
+        process.waitFor();
+        try {
+            return Double.parseDouble(out);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Result run(List<String> command) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        long frames = 0;
+        double wall = 0, cpu = 0;
+        String tail = "";
+        long startNs = System.nanoTime();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // readLine also splits at the \r between FFmpeg's progress updates.
+                Matcher m = FRAME.matcher(line);
+                if (m.find()) frames = Long.parseLong(m.group(1));
+                m = BENCH.matcher(line);
+                if (m.find()) {
+                    cpu = Double.parseDouble(m.group(1)) + Double.parseDouble(m.group(2));
+                    wall = Double.parseDouble(m.group(3));
+                }
+                if (!line.isBlank()) tail = line.trim();
+            }
+        }
+        int exit = process.waitFor();
+        if (wall == 0) wall = (System.nanoTime() - startNs) / 1e9;
+        return new Result(exit, frames, wall, cpu, tail);
+    }
+}
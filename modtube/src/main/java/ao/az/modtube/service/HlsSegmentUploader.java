@@ -0,0 +1,188 @@
+package ao.az.modtube.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Pushes HLS segments to MinIO while FFmpeg is still encoding.
+ *
+ * FFmpeg writes each segment under a temporary name and renames it when the
+ * segment is closed (hls_flags temp_file), so every seg_*.ts / seg_*.m4s
+ * visible in a rendition directory is complete. An fMP4 init segment
+ * (init*.mp4) gets no such rename, so it is left for {@link Session#drain},
+ * which runs after FFmpeg has exited. A session scans the output directory every
+ * scan-ms, uploads new segments on a small bounded pool and deletes the local
+ * copy, so encoding and uploading overlap and /data/hls only ever holds the few
+ * segments in flight. Playlists are left for the caller to upload once
+ * {@link Session#drain} has confirmed every segment they reference is stored.
+ */
+@Slf4j
+@Component
+public class HlsSegmentUploader {
+
+    private final StorageService storageService;
+    private final ExecutorService uploadPool;
+    private final ScheduledExecutorService scanner;
+    private final long scanMs;
+
+    public HlsSegmentUploader(StorageService storageService,
+                              @Value("${modtube.transcoding.segment-upload.parallelism:4}") int parallelism,
+                              @Value("${modtube.transcoding.segment-upload.scan-ms:500}") long scanMs) {
+        this.storageService = storageService;
+        this.uploadPool = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "hls-segment-upload");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scanner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hls-segment-scan");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scanMs = Math.max(100, scanMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scanner.shutdownNow();
+        uploadPool.shutdownNow();
+    }
+
+    /** Starts watching {@code outputDir}; segments go to {@code keyPrefix}/{relative path}. */
+    public Session start(String videoId, Path outputDir, String keyPrefix) {
+        Session session = new Session(videoId, outputDir, keyPrefix);
+        session.scanTask = scanner.scheduleWithFixedDelay(session::scanQuietly, scanMs, scanMs, TimeUnit.MILLISECONDS);
+        return session;
+    }
+
+    /** One transcode's worth of streaming uploads. */
+    public final class Session implements AutoCloseable {
+
+        private final String videoId;
+        private final Path outputDir;
+        private final String keyPrefix;
+        /** Segments handed to the pool and not yet stored (failed uploads stay until drained or discarded). */
+        private final Map<Path, Future<?>> submitted = new ConcurrentHashMap<>();
+        private final AtomicLong uploadedBytes = new AtomicLong();
+        /** Size of every segment stored so far — what measured playlist bandwidths are computed from. */
+        private final Map<Path, Long> storedSizes = new ConcurrentHashMap<>();
+        private volatile ScheduledFuture<?> scanTask;
+
+        private Session(String videoId, Path outputDir, String keyPrefix) {
+            this.videoId = videoId;
+            this.outputDir = outputDir;
+            this.keyPrefix = keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+        }
+
+        /**
+         * Uploads whatever is left under {@code dir} (a rendition directory or the
+         * whole output), init segments included, and waits for every segment below
+         * it to be stored. Call once FFmpeg is done with {@code dir}. Throws the
+         * first upload failure.
+         */
+        public void drain(Path dir) throws Exception {
+            scan(dir, true);
+            List<Map.Entry<Path, Future<?>>> pending = new ArrayList<>();
+            submitted.entrySet().stream().filter(e -> e.getKey().startsWith(dir)).forEach(pending::add);
+            for (Map.Entry<Path, Future<?>> e : pending) {
+                try {
+                    e.getValue().get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    throw cause instanceof Exception c ? c : new IllegalStateException(cause);
+                }
+            }
+        }
+
+        /**
+         * Forgets a rendition directory that is being thrown away (failed encode),
+         * so its pending uploads are dropped and a re-encode into the same path
+         * is picked up again.
+         */
+        public synchronized void discard(Path dir) {
+            submitted.entrySet().removeIf(e -> {
+                if (!e.getKey().startsWith(dir)) return false;
+                e.getValue().cancel(false);
+                return true;
+            });
+            storedSizes.keySet().removeIf(p -> p.startsWith(dir));
+        }
+
+        /** Bytes of a stored segment (its local path before upload), or -1 if it wasn't stored by this session. */
+        public long storedSize(Path segment) {
+            return storedSizes.getOrDefault(segment, -1L);
+        }
+
+        /** Total segment bytes stored so far. */
+        public long uploadedBytes() {
+            return uploadedBytes.get();
+        }
+
+        /** Stops watching. Uploads not yet started are dropped (the run failed or was cancelled). */
+        @Override
+        public void close() {
+            if (scanTask != null) scanTask.cancel(false);
+            submitted.values().forEach(f -> f.cancel(false));
+        }
+
+        private void scanQuietly() {
+            try {
+                scan(outputDir, false);
+            } catch (Exception e) {
+                log.debug("[SegmentUpload] scan failed for video={}: {}", videoId, e.getMessage());
+            }
+        }
+
+        private synchronized void scan(Path dir, boolean withInit) throws IOException {
+            if (!Files.isDirectory(dir)) return;
+            try (Stream<Path> walk = Files.walk(dir)) {
+                walk.filter(p -> {
+                            String name = p.getFileName().toString();
+                            if (name.startsWith("seg_")) return name.endsWith(".ts") || name.endsWith(".m4s");
+                            return withInit && name.startsWith("init") && name.endsWith(".mp4");
+                        })
+                        .filter(p -> !submitted.containsKey(p))
+                        .sorted()
+                        .forEach(p -> {
+                            // Registered before it can run, so a fast upload's remove() always wins.
+                            FutureTask<Void> task = new FutureTask<>(() -> {
+                                upload(p);
+                                return null;
+                            });
+                            submitted.put(p, task);
+                            uploadPool.execute(task);
+                        });
+            }
+        }
+
+        private void upload(Path segment) throws Exception {
+            String key = keyPrefix + outputDir.relativize(segment).toString().replace('\\', '/');
+            long size = Files.size(segment);
+            storageService.putObject(key, segment, StorageService.contentTypeFor(key));
+            uploadedBytes.addAndGet(size);
+            storedSizes.put(segment, size);
+            Files.deleteIfExists(segment);
+            submitted.remove(segment);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package ao.az.modtube.service;
+
+import ao.az.modtube.domain.UploadSession;
+import ao.az.modtube.domain.UploadSessionStatus;
+import ao.az.modtube.domain.Video;
+import ao.az.modtube.domain.VideoStatus;
+import ao.az.modtube.exception.ServiceBusyException;
+import ao.az.modtube.metrics.ModTubeMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The upload ingest pipeline. Every upload — chunked through the app or
+ * direct to MinIO — goes through the same stages:
+ *
+ *   receive   chunks written in place (with their checksums), or presigned
+ *             part PUTs straight to MinIO
+ *   verify    every chunk present (chunk bitmap or MinIO part list)
+ *   assemble  the session is closed: whole-file hash, or multipart complete
+ *   probe     ffprobe reads the container header; undecodable files fail here.
+ *             For a chunked upload this starts as soon as chunk 0 (and, for an
+ *             MP4 indexed at the end, the last chunk) is stored — a broken file
+ *             is turned away before the rest of it is sent, and the source info
+ *             and rendition ladder are recorded on the video while it uploads
+ *   enqueue   link to a byte-identical transcoded video, or queue a transcode
+ *
+ * Each stage is timed (localtube_ingest_stage_seconds{stage}). Receive is
+ * capped at max-concurrent-chunks requests in flight; assemble → enqueue run on
+ * the bounded ingest executor after /complete returns. A saturated stage turns
+ * the request away with 503 + Retry-After instead of queueing without bound —
+ * the upload stays resumable, so the client just retries.
+ */
+@Slf4j
+@Service
+public class IngestService {
+
+    /** 55 MB ceiling (frontend max chunk is 50 MB). */
+    public static final int MAX_CHUNK_SIZE = 55 * 1024 * 1024;
+
+    private static final long RECEIVE_WAIT_MS = 2_000;
+    /** Chunk permits free up within seconds; finishing an upload (assembly) takes longer. */
+    private static final long RECEIVE_RETRY_AFTER_SECONDS = 2;
+    private static final long RETRY_AFTER_SECONDS = 5;
+    private static final int PROBE_URL_SECONDS = 600;
+
+    private final UploadService uploadService;
+    private final VideoService videoService;
+    private final TranscodeJobService transcodeJobService;
+    private final TranscodingService transcodingService;
+    private final StorageService storageService;
+    private final MediaProbe mediaProbe;
+    private final UploadAdmission admission;
+    private final ModTubeMetrics metrics;
+    private final Executor executor;
+    private final Path uploadDir;
+    private final long maxFileSize;
+    private final Semaphore receivePermits;
+
+    /** Held from the admission check until the session exists, so it counts against the next check. */
+    private final Object admissionLock = new Object();
+
+    /** Uploads between verify and enqueue → what the pipeline is doing with them. */
+    private final ConcurrentHashMap<String, String> pipeline = new ConcurrentHashMap<>();
+
+    /** Chunked uploads whose header probe has run → HEAD (first chunk only), FULL (first and last) or SETTLED. */
+    private final ConcurrentHashMap<String, String> preflight = new ConcurrentHashMap<>();
+    private static final String HEAD = "head";
+    private static final String FULL = "full";
+    private static final String SETTLED = "settled";
+
+    /** A freshly opened upload. */
+    public record Started(Video video, UploadSession session) {}
+
+    /** What /complete did. */
+    public enum Completion { ACCEPTED, ALREADY_RUNNING }
+
+    public IngestService(UploadService uploadService,
+                         VideoService videoService,
+                         TranscodeJobService transcodeJobService,
+                         TranscodingService transcodingService,
+                         StorageService storageService,
+                         MediaProbe mediaProbe,
+                         UploadAdmission admission,
+                         ModTubeMetrics metrics,
+                         @Qualifier("ingestExecutor") Executor executor,
+                         @Value("${modtube.storage.upload-dir}") String uploadDirPath,
+                         @Value("${modtube.storage.max-file-size}") long maxFileSize,
+                         @Value("${modtube.storage.ingest.max-concurrent-chunks:32}") int maxConcurrentChunks)
+            throws IOException {
+        this.uploadService = uploadService;
+        this.videoService = videoService;
+        this.transcodeJobService = transcodeJobService;
+        this.transcodingService = transcodingService;
+        this.storageService = storageService;
+        this.mediaProbe = mediaProbe;
+        this.admission = admission;
+        this.metrics = metrics;
+        this.executor = executor;
+        this.uploadDir = Paths.get(uploadDirPath);
+        this.maxFileSize = maxFileSize;
+        this.receivePermits = new Semaphore(Math.max(1, maxConcurrentChunks));
+        Files.createDirectories(this.uploadDir);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Start
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Validates the upload, creates its video and opens the session — direct to
+     * MinIO when the size qualifies, chunked through the app otherwise. Throws
+     * IllegalArgumentException for bad parameters, and whatever {@link UploadAdmission}
+     * decides when the disk or the transcode queue can't take it now.
+     */
+    public Started start(String filename, String title, String description, long totalSize, int totalChunks,
+                         Integer chunkSize, Long uploaderId, String uploaderName, String uploaderEmail)
+            throws IOException {
+        if (totalSize > maxFileSize) {
+            throw new IllegalArgumentException("File too large. Max " + (maxFileSize / (1024 * 1024 * 1024)) + " GB");
+        }
+        // Clients send their chunk size; older ones get the even split of the file.
+        int size = chunkSize != null ? chunkSize
+                : totalChunks > 0 ? (int) Math.min(Integer.MAX_VALUE, (totalSize + totalChunks - 1) / totalChunks) : 0;
+        if (size <= 0 || size > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size");
+        }
+        // Direct uploads go to MinIO and are transcoded from there — no local disk needed.
+        boolean direct = uploadService.isDirect(totalSize);
+        if (direct) {
+            admission.admit(totalSize, true);
+            return open(filename, title, description, totalSize, totalChunks, size, true,
+                    uploaderId, uploaderName, uploaderEmail);
+        }
+        synchronized (admissionLock) {
+            admission.admit(totalSize, false);
+            return open(filename, title, description, totalSize, totalChunks, size, false,
+                    uploaderId, uploaderName, uploaderEmail);
+        }
+    }
+
+    private Started open(String filename, String title, String description, long totalSize, int totalChunks,
+                         int size, boolean direct, Long uploaderId, String uploaderName, String uploaderEmail)
+            throws IOException {
+        metrics.recordUploadAttempt();
+        Video video = videoService.createVideo(
+                title != null ? title : filename, filename, description != null ? description : "",
+                null, uploaderId, uploaderName, uploaderEmail);
+        String extension = extensionOf(filename);
+        try {
+            UploadSession session = direct
+                    ? uploadService.openDirect(video, extension, totalSize, uploadService.directPartSize(totalSize, size))
+                    : uploadService.open(video, extension, totalSize, size, totalChunks);
+            return new Started(video, session);
+        } catch (IllegalArgumentException e) {
+            videoService.deleteVideo(video.getId());
+            throw e;
+        } catch (Exception e) {
+            videoService.deleteVideo(video.getId());
+            throw new IOException("Could not start upload: " + e.getMessage(), e);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Receive
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Multipart-form chunk. False if the session is gone or expired (see {@link UploadService#storeChunk}). */
+    public boolean receiveChunk(String videoId, int chunkIndex, InputStream in, long length, byte[] sha256)
+            throws IOException {
+        acquireReceive();
+        long start = System.nanoTime();
+        boolean stored;
+        try {
+            stored = uploadService.storeChunk(videoId, chunkIndex, in, length, sha256);
+        } finally {
+            receivePermits.release();
+            metrics.recordIngestStage("receive", System.nanoTime() - start);
+        }
+        if (stored) preflight(videoId, chunkIndex);
+        return stored;
+    }
+
+    /** Raw-body chunk named by its byte range. -1 if the session is gone or expired. */
+    public int receiveRange(String videoId, long start, long end, long total, ReadableByteChannel src,
+                            byte[] sha256) throws IOException {
+        acquireReceive();
+        long t = System.nanoTime();
+        int index;
+        try {
+            index = uploadService.storeRange(videoId, start, end, total, src, sha256);
+        } finally {
+            receivePermits.release();
+            metrics.recordIngestStage("receive", System.nanoTime() - t);
+        }
+        if (index >= 0) preflight(videoId, index);
+        return index;
+    }
+
+    private void acquireReceive() {
+        try {
+            if (receivePermits.tryAcquire(RECEIVE_WAIT_MS, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metrics.recordIngestRejected("receive");
+        throw new ServiceBusyException("Too many chunks in flight — retry shortly", RECEIVE_RETRY_AFTER_SECONDS);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Probe, early
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Once chunk 0 is stored, probes the partial file on the ingest executor:
+     * a file ffprobe reads with a video stream gets its source info and ladder
+     * recorded; one it reads without a video stream, or that doesn't even start
+     * like a video container, is rejected now. If the header isn't enough (an MP4
+     * whose index is at the end) it tries again when the last chunk is stored,
+     * and otherwise leaves the decision to the probe after assembly.
+     */
+    private void preflight(String videoId, int chunkIndex) {
+        String state = preflight.get(videoId);
+        if (SETTLED.equals(state) || FULL.equals(state) || chunkIndex != 0 && state == null
+                || pipeline.containsKey(videoId)) return;
+        UploadService.PartialUpload partial;
+        try {
+            partial = uploadService.partial(videoId).orElse(null);
+        } catch (Exception e) {
+            return;   // session went away under us
+        }
+        if (partial == null || chunkIndex != 0 && chunkIndex != partial.totalChunks() - 1) return;
+        String next = partial.tailStored() ? FULL : HEAD;
+        boolean claimed = state == null
+                ? preflight.putIfAbsent(videoId, next) == null
+                : next.equals(FULL) && preflight.replace(videoId, HEAD, FULL);
+        if (!claimed) return;
+        try {
+            executor.execute(() -> probeEarly(videoId, partial, next));
+        } catch (RejectedExecutionException e) {
+            preflight.remove(videoId, next);   // busy — the probe after assembly still runs
+        }
+    }
+
+    /** Acts only while the upload is still arriving — once /complete has it, the pipeline decides. */
+    private void probeEarly(String videoId, UploadService.PartialUpload partial, String claimed) {
+        long t = System.nanoTime();
+        try {
+            MediaProbe.MediaInfo info = mediaProbe.probe(partial.file().toString()).orElse(null);
+            if (info != null && info.hasVideo() && info.width() > 0 && info.height() > 0) {
+                if (!preflight.replace(videoId, claimed, SETTLED)) return;
+                List<String> ladder = settle(videoId, info);
+                log.info("[Ingest] video={} probed while uploading: {} {}x{} {} fps, ladder {}", videoId,
+                        info.videoCodec(), info.width(), info.height(), info.frameRate(), ladder);
+            } else if (info != null && !info.hasVideo()) {
+                rejectEarly(videoId, claimed, "No video stream — the file has no picture (audio only?)");
+            } else if (MediaProbe.sniffContainer(partial.file()) == null) {
+                rejectEarly(videoId, claimed, "Not a video file — its contents match no known video format");
+            }
+        } catch (IOException e) {
+            log.debug("[Ingest] Early probe inconclusive for video={}: {}", videoId, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("[Ingest] Early probe failed for video={}: {}", videoId, e.getMessage());
+        } finally {
+            metrics.recordIngestStage("probe", System.nanoTime() - t);
+        }
+    }
+
+    /** Records the source info and the ladder planned from it. */
+    private List<String> settle(String videoId, MediaProbe.MediaInfo info) {
+        List<String> ladder = transcodingService.planLadder(info.width(), info.height());
+        videoService.updateSourceInfo(videoId, info, ladder);
+        return ladder;
+    }
+
+    /** A cancelled or expired upload won't be probed again. */
+    @EventListener
+    public void onUploadAbandoned(UploadService.UploadAbandonedEvent event) {
+        preflight.remove(event.videoId());
+    }
+
+    /** Ends the upload before the rest of it is sent — the client's next chunk gets 410. */
+    private void rejectEarly(String videoId, String claimed, String reason) {
+        if (pipeline.containsKey(videoId) || !preflight.remove(videoId, claimed)) return;
+        metrics.recordIngestRejected("probe");
+        uploadService.cancel(videoId);
+        reject(videoId, null, reason);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Verify → assemble → probe → enqueue
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Verifies that every chunk arrived (synchronously, so a client with a gap
+     * hears about it) and hands the upload to the pipeline. Throws
+     * IllegalStateException naming what is missing.
+     */
+    public Completion complete(String videoId) throws IOException {
+        if (pipeline.containsKey(videoId)) return Completion.ALREADY_RUNNING;
+        UploadSession session = uploadService.getSession(videoId)
+                .filter(s -> s.getStatus() == UploadSessionStatus.ACTIVE)
+                .orElseThrow(() -> new IllegalStateException("No upload in progress — upload may have failed"));
+
+        long t = System.nanoTime();
+        UploadService.ChunkStatus status = uploadService.status(videoId)
+                .orElseThrow(() -> new IllegalStateException("No upload in progress — upload may have failed"));
+        metrics.recordIngestStage("verify", System.nanoTime() - t);
+        if (status.firstMissing() >= 0) {
+            throw new IllegalStateException("Upload incomplete — chunk " + status.firstMissing() + " is missing");
+        }
+
+        if (pipeline.putIfAbsent(videoId, "Assembling upload") != null) return Completion.ALREADY_RUNNING;
+        metrics.setIngestPending(pipeline.size());
+        // From here the pipeline owns the upload; an early probe still in flight changes nothing.
+        boolean probed = SETTLED.equals(preflight.remove(videoId));
+        try {
+            executor.execute(() -> finish(videoId, session.isDirect(), probed));
+        } catch (RejectedExecutionException e) {
+            if (probed) preflight.put(videoId, SETTLED);
+            pipeline.remove(videoId);
+            metrics.setIngestPending(pipeline.size());
+            metrics.recordIngestRejected("assemble");
+            throw new ServiceBusyException("Too many uploads finishing at once — retry shortly", RETRY_AFTER_SECONDS);
+        }
+        return Completion.ACCEPTED;
+    }
+
+    /** What the pipeline is doing with the upload, or "" once it has been handed on. */
+    public String stage(String videoId) {
+        return pipeline.getOrDefault(videoId, "");
+    }
+
+    private void finish(String videoId, boolean direct, boolean probed) {
+        Path localFile = null;
+        try {
+            // ── assemble ──
+            long t = System.nanoTime();
+            String objectKey = null;
+            String sha256 = null;
+            long size;
+            if (direct) {
+                objectKey = uploadService.completeDirect(videoId);
+                StorageService.ObjectMeta meta = storageService.stat(objectKey);
+                size = meta != null ? meta.size() : -1;
+            } else {
+                ChunkAssembler.Assembled assembled = uploadService.complete(videoId);
+                localFile = assembled.file();
+                sha256 = assembled.sha256();
+                size = Files.size(localFile);
+            }
+            metrics.recordIngestStage("assemble", System.nanoTime() - t);
+
+            // ── probe ── (already done while uploading if the header was readable)
+            if (!probed) {
+                pipeline.put(videoId, "Checking file");
+                t = System.nanoTime();
+                String probeInput = direct
+                        ? storageService.presignGet(objectKey, PROBE_URL_SECONDS) : localFile.toString();
+                try {
+                    MediaProbe.MediaInfo info = mediaProbe.probe(probeInput)
+                            .filter(MediaProbe.MediaInfo::hasVideo).orElse(null);
+                    if (info == null) {
+                        reject(videoId, localFile, "No decodable video stream — not a video file, or it is damaged");
+                        return;
+                    }
+                    settle(videoId, info);
+                } catch (IOException e) {
+                    // ffprobe itself failed — let the transcoder have its go rather than reject a good file.
+                    log.warn("[Ingest] Probe skipped for video={}: {}", videoId, e.getMessage());
+                }
+                metrics.recordIngestStage("probe", System.nanoTime() - t);
+            }
+
+            // ── enqueue ──
+            pipeline.put(videoId, "Queueing");
+            t = System.nanoTime();
+            // Byte-identical to a video that is already transcoded → play its renditions, skip FFmpeg.
+            if (sha256 != null) {
+                videoService.updateContentHash(videoId, sha256);
+                Video twin = videoService.linkToTranscodedTwin(videoId, sha256, size).orElse(null);
+                if (twin != null) {
+                    Files.deleteIfExists(localFile);
+                    log.info("[Ingest] video={} is identical to video={} — reusing its media, not transcoding",
+                            videoId, twin.getId());
+                    metrics.recordUploadSuccess();
+                    metrics.recordIngestStage("enqueue", System.nanoTime() - t);
+                    return;
+                }
+            }
+            videoService.updateVideoStatus(videoId, VideoStatus.UPLOADED);
+            // Hand off to the durable queue — a worker picks it up as soon as a slot is free.
+            if (direct) transcodeJobService.enqueueStored(videoId, objectKey);
+            else transcodeJobService.enqueue(videoId, localFile);
+            metrics.recordUploadSuccess();
+            metrics.recordIngestStage("enqueue", System.nanoTime() - t);
+            log.info("[Ingest] video={} {} upload complete ({} bytes), queued for transcoding",
+                    videoId, direct ? "direct" : "chunked", size);
+        } catch (Exception e) {
+            log.error("[Ingest] Could not finalise upload video={}", videoId, e);
+            reject(videoId, localFile, "Upload could not be finalised: "
+                    + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+        } finally {
+            pipeline.remove(videoId);
+            metrics.setIngestPending(pipeline.size());
+        }
+    }
+
+    /** Fails the video with a reason the UI shows, and drops its local file. */
+    private void reject(String videoId, Path localFile, String reason) {
+        metrics.recordUploadFailure();
+        log.warn("[Ingest] ✗ video={} rejected: {}", videoId, reason);
+        try {
+            videoService.updateProcessingError(videoId, reason);
+            videoService.updateVideoStatus(videoId, VideoStatus.FAILED);
+            if (localFile != null) Files.deleteIfExists(localFile);
+        } catch (Exception e) {
+            log.warn("[Ingest] Could not mark video={} failed: {}", videoId, e.getMessage());
+        }
+    }
+
+    private static String extensionOf(String filename) {
+        if (filename == null || !filename.contains(".")) {
+            return "mp4";
+        }
+        return filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
+    }
+}
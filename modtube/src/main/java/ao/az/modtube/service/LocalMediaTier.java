@@ -0,0 +1,295 @@
+package ao.az.modtube.service;
+
+import ao.az.modtube.metrics.ModTubeMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Read-through local disk tier in front of MinIO for playback media.
+ *
+ * HLS segments, rendition playlists and thumbnails are copied to local NVMe
+ * (modtube.media-tier.dir) the first time they are served and read from there
+ * afterwards, so popular videos stop generating MinIO traffic. The tier is
+ * bounded by max-gb with LRU eviction; each object is stored at its key path
+ * with a small ".meta" sidecar (ETag, Last-Modified, content type) so the index
+ * can be rebuilt after a restart.
+ *
+ * Writes and deletes in MinIO invalidate the local copy (see
+ * {@link StorageService.ObjectWrittenEvent} / {@link StorageService.ObjectsDeletedEvent}).
+ */
+@Slf4j
+@Component
+public class LocalMediaTier {
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String TMP_SUFFIX = ".part";
+
+    /** A locally held object. */
+    public record Entry(Path file, StorageService.ObjectMeta meta) {}
+
+    private final StorageService storage;
+    private final ModTubeMetrics metrics;
+    private final boolean enabled;
+    private final Path root;
+    private final long maxBytes;
+
+    /** LRU order of keys → size on disk; guarded by {@code this}. */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private long bytes;
+
+    /** One MinIO download per key, however many requests miss at once. */
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> inflight = new ConcurrentHashMap<>();
+
+    public LocalMediaTier(StorageService storage,
+                          ModTubeMetrics metrics,
+                          @Value("${modtube.media-tier.enabled:true}") boolean enabled,
+                          @Value("${modtube.media-tier.dir:/data/media-cache}") String dir,
+                          @Value("${modtube.media-tier.max-gb:20}") long maxGb) {
+        this.storage = storage;
+        this.metrics = metrics;
+        this.root = Paths.get(dir).toAbsolutePath().normalize();
+        this.maxBytes = maxGb * 1024L * 1024L * 1024L;
+        this.enabled = enabled && maxGb > 0 && init();
+    }
+
+    /** Segments, rendition playlists and thumbnails. master.m3u8 changes during progressive publishing. */
+    public boolean isCacheable(String key) {
+        return enabled
+                && (key.startsWith("hls/") || key.startsWith("thumbnails/"))
+                && !key.endsWith("master.m3u8")
+                && !key.contains("..");
+    }
+
+    /** Returns the local copy, downloading it from MinIO on a miss. Null if the object doesn't exist. */
+    public Entry get(String key) {
+        Entry hit = lookup(key);
+        if (hit != null) {
+            if (Files.exists(hit.file())) {
+                metrics.recordMediaTierHit();
+                return hit;
+            }
+            remove(key);   // deleted behind our back
+        }
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> leader = inflight.putIfAbsent(key, mine);
+        if (leader != null) {
+            try {
+                return leader.join();
+            } catch (CompletionException e) {
+                return null;
+            }
+        }
+        metrics.recordMediaTierMiss();
+        try {
+            Entry loaded = lookup(key);
+            if (loaded == null) {
+                loaded = download(key);
+                if (loaded != null) store(key, loaded);
+            }
+            mine.complete(loaded);
+            return loaded;
+        } catch (Exception e) {
+            log.debug("[MediaTier] fetch failed for {}: {}", key, e.getMessage());
+            mine.completeExceptionally(e);
+            return null;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Opens the local copy of {@code key} for reading, or returns null (and
+     * forgets the entry) if it has gone. Once open, an eviction or invalidation
+     * only unlinks the file, so the holder can still read every byte of it.
+     */
+    public FileChannel open(String key, Entry entry) {
+        try {
+            return FileChannel.open(entry.file(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            forget(key, entry);
+            return null;
+        }
+    }
+
+    @EventListener
+    public void onObjectWritten(StorageService.ObjectWrittenEvent event) {
+        if (enabled) remove(event.key());
+    }
+
+    @EventListener
+    public void onObjectsDeleted(StorageService.ObjectsDeletedEvent event) {
+        if (!enabled) return;
+        List<String> keys;
+        synchronized (this) {
+            keys = index.keySet().stream().filter(k -> k.startsWith(event.prefix())).toList();
+        }
+        keys.forEach(this::remove);
+        deleteQuietly(root.resolve(event.prefix()));
+    }
+
+    // ── Internals ─────────────────────────────────────────────────────────────
+
+    private synchronized Entry lookup(String key) {
+        return index.get(key);
+    }
+
+    private synchronized void store(String key, Entry entry) {
+        Entry previous = index.put(key, entry);
+        if (previous != null) bytes -= previous.meta().size();
+        bytes += entry.meta().size();
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) continue;
+            bytes -= eldest.getValue().meta().size();
+            deleteFiles(eldest.getValue().file());
+            it.remove();
+            metrics.recordMediaTierEviction();
+        }
+        metrics.setMediaTierBytes(bytes);
+    }
+
+    private synchronized void remove(String key) {
+        Entry e = index.remove(key);
+        if (e != null) {
+            bytes -= e.meta().size();
+            deleteFiles(e.file());
+            metrics.setMediaTierBytes(bytes);
+        }
+    }
+
+    /** Drops {@code key} only if it still maps to {@code entry} — not a copy downloaded since. */
+    private synchronized void forget(String key, Entry entry) {
+        if (index.get(key) == entry) remove(key);
+    }
+
+    /** Downloads to a temp file and renames it into place, so a reader never sees a partial file. */
+    private Entry download(String key) throws Exception {
+        Path file = root.resolve(key).normalize();
+        if (!file.startsWith(root)) return null;
+        // One GET; the metadata comes from its response headers.
+        StorageService.StoredObject remote = storage.open(key);
+        if (remote == null) return null;
+        StorageService.ObjectMeta meta = remote.meta();
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + "." + Thread.currentThread().threadId() + TMP_SUFFIX);
+        try (InputStream in = remote.stream()) {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            if (Files.size(tmp) != meta.size()) {
+                throw new IOException("Short download for " + key + ": " + Files.size(tmp) + "/" + meta.size());
+            }
+            Files.writeString(sidecar(file), writeMeta(meta), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return new Entry(file, meta);
+    }
+
+    /** Creates the root and rebuilds the index from what a previous run left (oldest first). */
+    private boolean init() {
+        try {
+            Files.createDirectories(root);
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.filter(Files::isRegularFile).forEach(files::add);
+            }
+            files.sort(Comparator.comparing(LocalMediaTier::mtime));
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                if (name.endsWith(TMP_SUFFIX)) { Files.deleteIfExists(f); continue; }
+                if (name.endsWith(META_SUFFIX)) continue;
+                StorageService.ObjectMeta meta = readMeta(f);
+                if (meta == null) { Files.deleteIfExists(f); continue; }
+                String key = root.relativize(f).toString().replace('\\', '/');
+                index.put(key, new Entry(f, meta));
+                bytes += meta.size();
+            }
+            metrics.setMediaTierBytes(bytes);
+            log.info("[MediaTier] {} — {} object(s), {} MB of {} GB",
+                    root, index.size(), bytes / (1024 * 1024), maxBytes / (1024L * 1024 * 1024));
+            return true;
+        } catch (Exception e) {
+            log.warn("[MediaTier] Disabled — cannot use {}: {}", root, e.getMessage());
+            return false;
+        }
+    }
+
+    private static Path sidecar(Path file) {
+        return file.resolveSibling(file.getFileName() + META_SUFFIX);
+    }
+
+    private static String writeMeta(StorageService.ObjectMeta meta) {
+        return (meta.etag() != null ? meta.etag() : "") + "\n"
+                + (meta.lastModified() != null ? meta.lastModified().toEpochSecond() : 0) + "\n"
+                + meta.contentType() + "\n";
+    }
+
+    private static StorageService.ObjectMeta readMeta(Path file) {
+        try {
+            List<String> lines = Files.readAllLines(sidecar(file), StandardCharsets.UTF_8);
+            if (lines.size() < 3) return null;
+            long epoch = Long.parseLong(lines.get(1).trim());
+            ZonedDateTime lastModified = epoch > 0
+                    ? ZonedDateTime.ofInstant(Instant.ofEpochSecond(epoch), ZoneOffset.UTC) : null;
+            String etag = lines.get(0).isBlank() ? null : lines.get(0).trim();
+            return new StorageService.ObjectMeta(Files.size(file), lines.get(2).trim(), etag, lastModified);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static FileTime mtime(Path p) {
+        try {
+            return Files.getLastModifiedTime(p);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void deleteFiles(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(sidecar(file));
+        } catch (IOException e) {
+            log.debug("[MediaTier] could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path dir) {
+        if (!Files.isDirectory(dir)) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try { Files.deleteIfExists(p); } catch (IOException ignored) {}
+            });
+        } catch (IOException e) {
+            log.debug("[MediaTier] could not delete {}: {}", dir, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package ao.az.modtube.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Quick ffprobe checks on an upload before it is queued, so a file FFmpeg
+ * cannot decode fails at ingest instead of after a transcode attempt (or three).
+ * Reads only the container header — seconds even for very large files, and it
+ * works on a partial upload as long as the header is there (see
+ * {@link IngestService} preflight).
+ */
+@Slf4j
+@Component
+public class MediaProbe {
+
+    private static final long TIMEOUT_SECONDS = 30;
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /**
+     * What ffprobe found. {@code videoCodec} is null when the container has no
+     * video stream, {@code audioCodec} when it has no audio. Width and height are
+     * as displayed — swapped for a source rotated by ±90°, which FFmpeg
+     * auto-rotates. {@code level} is the codec's level_idc (41 = H.264 level
+     * 4.1). Zero / null where the header doesn't say.
+     */
+    public record MediaInfo(String videoCodec, String profile, int level, String pixelFormat,
+                            int width, int height, double frameRate, long bitRate,
+                            int rotation, int durationSeconds, String audioCodec) {
+        public boolean hasVideo() { return videoCodec != null; }
+        public boolean hasAudio() { return audioCodec != null; }
+    }
+
+    /**
+     * Codec of the first video stream, or empty if ffprobe finds none (not a
+     * video, or unreadable). {@code input} is a local path or a URL. Throws
+     * IOException when ffprobe itself could not run — the caller decides whether
+     * that is fatal.
+     */
+    public Optional<String> videoCodec(String input) throws IOException, InterruptedException {
+        return probe(input).map(MediaInfo::videoCodec);
+    }
+
+    /**
+     * Streams and format of {@code input} (local path or URL). Empty if ffprobe
+     * couldn't read it at all; a readable file without a video stream comes back
+     * with {@link MediaInfo#hasVideo()} false. Throws IOException when ffprobe
+     * itself could not run or timed out.
+     */
+    public Optional<MediaInfo> probe(String input) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(
+                "ffprobe",
+                "-v", "error",
+                "-show_entries",
+                "stream=codec_type,codec_name,profile,level,pix_fmt,width,height,avg_frame_rate,r_frame_rate,bit_rate"
+                        + ":stream_tags=rotate:stream_side_data=rotation:format=duration,bit_rate",
+                "-of", "json",
+                input);
+        Output out = run(pb);
+        if (out.exitCode() != 0 || out.stdout().isBlank()) return Optional.empty();
+        return Optional.of(parse(JSON.readTree(out.stdout())));
+    }
+
+    /**
+     * Longest gap between video keyframes in the first {@code seconds} of an
+     * input {@code durationSeconds} long, counting from the last keyframe to the
+     * end of that window; -1 if ffprobe found none. Only keyframes are decoded,
+     * so this is quick — it tells whether a stream can be cut into segments of a
+     * given length without re-encoding.
+     */
+    public double maxKeyframeInterval(String input, int seconds, int durationSeconds)
+            throws IOException, InterruptedException {
+        List<Double> keyframes = keyframes(input, "%+" + seconds);
+        if (keyframes.isEmpty()) return -1;
+        double maxGap = 0;
+        for (int i = 1; i < keyframes.size(); i++) {
+            maxGap = Math.max(maxGap, keyframes.get(i) - keyframes.get(i - 1));
+        }
+        // A window that ends long after the last keyframe is a gap too.
+        double first = keyframes.get(0);
+        double windowEnd = first + (durationSeconds > 0 ? Math.min(seconds, durationSeconds) : seconds);
+        return Math.max(maxGap, windowEnd - keyframes.get(keyframes.size() - 1));
+    }
+
+    /**
+     * The video keyframe closest to {@code seconds}, looking {@code window}
+     * seconds either side, or empty if there is none in that range. Encoders
+     * place keyframes at scene changes, so this is where a split transcode cuts.
+     */
+    public Optional<Double> keyframeNear(String input, double seconds, double window)
+            throws IOException, InterruptedException {
+        double from = Math.max(0, seconds - window);
+        String interval = String.format(java.util.Locale.ROOT, "%.3f%%+%.3f", from, seconds + window - from);
+        return keyframes(input, interval).stream()
+                .min(java.util.Comparator.comparingDouble(t -> Math.abs(t - seconds)));
+    }
+
+    /**
+     * Timestamps of the video keyframes in an ffprobe -read_intervals range, in
+     * order, relative to the start of the file (as FFmpeg's -ss counts) — MPEG-TS
+     * and some MP4s don't start at zero.
+     */
+    private List<Double> keyframes(String input, String readInterval) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(
+                "ffprobe",
+                "-v", "error",
+                "-select_streams", "v:0",
+                "-skip_frame", "nokey",
+                "-read_intervals", readInterval,
+                "-show_entries", "frame=best_effort_timestamp_time:format=start_time",
+                "-of", "compact",
+                input);
+        String out = run(pb).stdout();
+        List<Double> times = new ArrayList<>();
+        double startTime = 0;
+        for (String line : out.split("\n")) {
+            int eq = line.indexOf('=');
+            if (eq < 0) continue;
+            try {
+                double value = Double.parseDouble(line.substring(eq + 1).trim());
+                if (line.startsWith("frame|")) times.add(value);
+                else if (line.startsWith("format|")) startTime = value;
+            } catch (NumberFormatException e) {
+                // N/A
+            }
+        }
+        double offset = startTime;
+        return times.stream().map(t -> t - offset).sorted().toList();
+    }
+
+    private record Output(int exitCode, String stdout) {}
+
+    /**
+     * Runs ffprobe, its stdout drained by a virtual thread while this one waits
+     * with the timeout — a probe stalled on a slow URL can't hold an ingest
+     * thread for good. Throws IOException on timeout.
+     */
+    private static Output run(ProcessBuilder pb) throws IOException, InterruptedException {
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process = pb.start();
+        try {
+            CompletableFuture<String> stdout = new CompletableFuture<>();
+            Thread.ofVirtual().name("ffprobe-out").start(() -> {
+                try (InputStream in = process.getInputStream()) {
+                    stdout.complete(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    stdout.completeExceptionally(e);
+                }
+            });
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IOException("ffprobe timed out after " + TIMEOUT_SECONDS + "s");
+            }
+            try {
+                // The pipe closes with the process; this is the tail of the output.
+                return new Output(process.exitValue(), stdout.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IOException("Could not read ffprobe output: " + e.getMessage(), e);
+            }
+        } finally {
+            if (process.isAlive()) process.destroyForcibly();
+        }
+    }
+
+    private static MediaInfo parse(JsonNode root) {
+        JsonNode video = null;
+        JsonNode audio = null;
+        for (JsonNode s : root.path("streams")) {
+            String type = s.path("codec_type").asText();
+            if (video == null && "video".equals(type)) video = s;
+            if (audio == null && "audio".equals(type)) audio = s;
+        }
+        JsonNode format = root.path("format");
+        int duration = (int) format.path("duration").asDouble(0);
+        long formatBitRate = format.path("bit_rate").asLong(0);
+        String audioCodec = audio != null ? text(audio, "codec_name") : null;
+        if (video == null) {
+            return new MediaInfo(null, null, 0, null, 0, 0, 0, formatBitRate, 0, duration, audioCodec);
+        }
+
+        int rotation = rotation(video);
+        int width = video.path("width").asInt(0);
+        int height = video.path("height").asInt(0);
+        if (Math.abs(rotation) % 180 == 90) {
+            int w = width;
+            width = height;
+            height = w;
+        }
+        double fps = rate(video.path("avg_frame_rate").asText());
+        if (fps <= 0) fps = rate(video.path("r_frame_rate").asText());
+        long bitRate = video.path("bit_rate").asLong(0);
+        // ffprobe says -99 when the stream doesn't signal a level.
+        int level = Math.max(0, video.path("level").asInt(0));
+        return new MediaInfo(text(video, "codec_name"), text(video, "profile"), level, text(video, "pix_fmt"),
+                width, height, fps, bitRate > 0 ? bitRate : formatBitRate, rotation, duration, audioCodec);
+    }
+
+    /** Display-matrix side data (current FFmpeg) or the legacy "rotate" tag. */
+    private static int rotation(JsonNode video) {
+        for (JsonNode sd : video.path("side_data_list")) {
+            if (sd.has("rotation")) return (int) Math.round(sd.path("rotation").asDouble());
+        }
+        return video.path("tags").path("rotate").asInt(0);
+    }
+
+    /** "30000/1001" → 29.97; 0 for "0/0" or anything unparsable. */
+    private static double rate(String fraction) {
+        try {
+            int slash = fraction.indexOf('/');
+            if (slash < 0) return Double.parseDouble(fraction);
+            double den = Double.parseDouble(fraction.substring(slash + 1));
+            return den > 0 ? Math.round(Double.parseDouble(fraction.substring(0, slash)) / den * 1000) / 1000.0 : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String text(JsonNode node, String field) {
+        String v = node.path(field).asText(null);
+        return v == null || v.isBlank() || "unknown".equals(v) ? null : v;
+    }
+
+    /**
+     * Names the container from the first bytes of a file, or null if they match
+     * no video container we know. Used to turn away an obviously wrong upload
+     * (an archive, a document) from its first chunk, when ffprobe can't read a
+     * partial file for other reasons — e.g. an MP4 whose index is at the end.
+     */
+    public static String sniffContainer(Path file) throws IOException {
+        byte[] head = new byte[200];
+        int n;
+        try (InputStream in = Files.newInputStream(file)) {
+            n = in.readNBytes(head, 0, head.length);
+        }
+        if (n < 12) return null;
+        String box = new String(head, 4, 4, StandardCharsets.ISO_8859_1);
+        if (box.equals("ftyp") || box.equals("moov") || box.equals("mdat") || box.equals("free")
+                || box.equals("wide") || box.equals("skip") || box.equals("pnot")) return "mov,mp4";
+        if (u(head[0]) == 0x1A && u(head[1]) == 0x45 && u(head[2]) == 0xDF && u(head[3]) == 0xA3) return "matroska";
+        String magic = new String(head, 0, 4, StandardCharsets.ISO_8859_1);
+        if (magic.equals("RIFF") && new String(head, 8, 4, StandardCharsets.ISO_8859_1).equals("AVI ")) return "avi";
+        if (magic.startsWith("FLV")) return "flv";
+        if (magic.equals("OggS")) return "ogg";
+        if (u(head[0]) == 0x30 && u(head[1]) == 0x26 && u(head[2]) == 0xB2 && u(head[3]) == 0x75) return "asf";
+        if (u(head[0]) == 0x06 && u(head[1]) == 0x0E && u(head[2]) == 0x2B && u(head[3]) == 0x34) return "mxf";
+        if (u(head[0]) == 0x47 && (n <= 188 || u(head[188]) == 0x47)) return "mpegts";
+        if (u(head[4]) == 0x47 && (n <= 196 || u(head[196]) == 0x47)) return "m2ts";
+        if (head[0] == 0 && head[1] == 0 && (u(head[2]) == 1 || head[2] == 0 && u(head[3]) == 1)) return "mpeg";
+        if (new String(head, 0, 9, StandardCharsets.ISO_8859_1).equals("YUV4MPEG2")) return "yuv4mpegpipe";
+        return null;
+    }
+
+    private static int u(byte b) {
+        return b & 0xFF;
+    }
+}
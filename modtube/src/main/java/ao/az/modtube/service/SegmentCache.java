@@ -0,0 +1,187 @@
+package ao.az.modtube.service;
+
+import ao.az.modtube.metrics.ModTubeMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process cache of hot HLS objects (segments and rendition playlists).
+ *
+ * When a few hundred people open the same all-hands recording they all request
+ * the same segments within seconds of each other. Entries live off-heap in
+ * direct buffers (the heap is only 512 MB), bounded by total bytes with LRU
+ * eviction. Concurrent misses for one key share a single MinIO fetch.
+ *
+ * master.m3u8 is never cached: progressive publishing rewrites it as renditions
+ * finish. Everything else under hls/ is immutable once written. Misses are
+ * filled from the local disk tier ({@link LocalMediaTier}) when it is enabled.
+ */
+@Slf4j
+@Component
+public class SegmentCache {
+
+    /** A cached object — read-only direct buffer plus what the response headers need. */
+    public record CachedObject(ByteBuffer data, StorageService.ObjectMeta meta) {
+        /** A private view for one response (position/limit are per-reader). */
+        public ByteBuffer view() { return data.duplicate(); }
+    }
+
+    private final StorageService storage;
+    private final LocalMediaTier localTier;
+    private final ModTubeMetrics metrics;
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    /** LRU order; guarded by {@code this}. */
+    private final LinkedHashMap<String, CachedObject> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    /** Single-flight: one MinIO fetch per key no matter how many requests miss at once. */
+    private final ConcurrentHashMap<String, CompletableFuture<CachedObject>> inflight = new ConcurrentHashMap<>();
+
+    public SegmentCache(StorageService storage,
+                        LocalMediaTier localTier,
+                        ModTubeMetrics metrics,
+                        @Value("${modtube.media-cache.enabled:true}") boolean enabled,
+                        @Value("${modtube.media-cache.max-mb:256}") long maxMb,
+                        @Value("${modtube.media-cache.max-entry-mb:16}") long maxEntryMb) {
+        this.storage = storage;
+        this.localTier = localTier;
+        this.metrics = metrics;
+        this.enabled = enabled && maxMb > 0;
+        this.maxBytes = maxMb * 1024 * 1024;
+        this.maxEntryBytes = Math.min(maxEntryMb * 1024 * 1024, this.maxBytes);
+        log.info("[MediaCache] {} (max {} MB, entries up to {} MB)",
+                this.enabled ? "enabled" : "disabled", maxMb, maxEntryMb);
+    }
+
+    public boolean isCacheable(String key) {
+        return enabled && key.startsWith("hls/") && !key.endsWith("master.m3u8");
+    }
+
+    /**
+     * Returns the cached object, fetching it on a miss. Returns null if it does
+     * not exist or is too large to cache — the caller then streams it directly.
+     */
+    public CachedObject get(String key) {
+        CachedObject hit = lookup(key);
+        if (hit != null) {
+            metrics.recordMediaCacheHit();
+            return hit;
+        }
+        CompletableFuture<CachedObject> mine = new CompletableFuture<>();
+        CompletableFuture<CachedObject> leader = inflight.putIfAbsent(key, mine);
+        if (leader != null) {
+            // Someone is already fetching it — wait for their result instead of hitting MinIO again.
+            metrics.recordMediaCacheCoalesced();
+            try {
+                return leader.join();
+            } catch (CompletionException e) {
+                return null;
+            }
+        }
+        metrics.recordMediaCacheMiss();
+        try {
+            CachedObject loaded = lookup(key);   // finished between our lookup and putIfAbsent
+            if (loaded == null) {
+                loaded = load(key);
+                if (loaded != null) store(key, loaded);
+            }
+            mine.complete(loaded);
+            return loaded;
+        } catch (Exception e) {
+            log.debug("[MediaCache] load failed for {}: {}", key, e.getMessage());
+            mine.completeExceptionally(e);
+            return null;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    /** Drops every entry under the prefix (the video was deleted or re-transcoded). */
+    public synchronized void invalidatePrefix(String prefix) {
+        Iterator<Map.Entry<String, CachedObject>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, CachedObject> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                bytes -= e.getValue().data().capacity();
+                it.remove();
+            }
+        }
+        metrics.setMediaCacheSize(bytes, entries.size());
+    }
+
+    @EventListener
+    public void onObjectsDeleted(StorageService.ObjectsDeletedEvent event) {
+        invalidatePrefix(event.prefix());
+    }
+
+    @EventListener
+    public synchronized void onObjectWritten(StorageService.ObjectWrittenEvent event) {
+        CachedObject previous = entries.remove(event.key());
+        if (previous != null) {
+            bytes -= previous.data().capacity();
+            metrics.setMediaCacheSize(bytes, entries.size());
+        }
+    }
+
+    private synchronized CachedObject lookup(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void store(String key, CachedObject obj) {
+        CachedObject previous = entries.put(key, obj);
+        if (previous != null) bytes -= previous.data().capacity();
+        bytes += obj.data().capacity();
+        Iterator<Map.Entry<String, CachedObject>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, CachedObject> eldest = it.next();
+            if (eldest.getKey().equals(key)) continue;
+            bytes -= eldest.getValue().data().capacity();
+            it.remove();
+            metrics.recordMediaCacheEviction();
+        }
+        metrics.setMediaCacheSize(bytes, entries.size());
+    }
+
+    private CachedObject load(String key) throws Exception {
+        LocalMediaTier.Entry local = localTier.isCacheable(key) ? localTier.get(key) : null;
+        StorageService.ObjectMeta known = local != null ? local.meta() : storage.cachedMeta(key);
+        if (known != null && known.size() > maxEntryBytes) return null;
+        // One GET — its headers carry the metadata when we don't already have it.
+        StorageService.StoredObject remote = local == null ? storage.open(key) : null;
+        if (local == null && remote == null) return null;
+        StorageService.ObjectMeta meta = local != null ? local.meta() : remote.meta();
+        if (meta.size() < 0 || meta.size() > maxEntryBytes) {
+            if (remote != null) remote.stream().close();
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) meta.size());
+        try (InputStream in = local != null ? Files.newInputStream(local.file()) : remote.stream();
+             ReadableByteChannel src = Channels.newChannel(in)) {
+            while (buffer.hasRemaining() && src.read(buffer) >= 0) {
+                // fill
+            }
+        }
+        if (buffer.hasRemaining()) {
+            throw new IllegalStateException("Short read for " + key + ": " + buffer.position() + "/" + meta.size());
+        }
+        buffer.flip();
+        return new CachedObject(buffer.asReadOnlyBuffer(), meta);
+    }
+}
@@ -0,0 +1,183 @@
+package ao.az.modtube.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Trick-play thumbnails: one small frame every interval-seconds, packed
+ * columns × rows to a sheet, indexed by a WebVTT track (cue → sheet#xywh=)
+ * for web players and by an HLS image playlist (EXT-X-TILES) for native ones.
+ *
+ * The sheets are an extra output of an FFmpeg run that already decodes the
+ * source for the renditions ({@link #outputArgs}), so they cost a 1-in-N-seconds
+ * downscale and a JPEG encode, not another decode. Only when no run decodes
+ * the whole source (a stream-copied ladder) is there a pass of its own
+ * ({@link #keyframeCommand}), and it decodes only keyframes.
+ */
+@Component
+public class SpriteSheets {
+
+    public static final String VTT_NAME = "thumbnails.vtt";
+    public static final String PLAYLIST_NAME = "playlist.m3u8";
+
+    private final boolean enabled;
+    private final int interval;
+    private final int tileWidth;
+    private final int columns;
+    private final int rows;
+    private final String extension;
+
+    public SpriteSheets(@Value("${modtube.transcoding.trick-play.enabled:true}") boolean enabled,
+                        @Value("${modtube.transcoding.trick-play.interval-seconds:5}") int interval,
+                        @Value("${modtube.transcoding.trick-play.width:160}") int tileWidth,
+                        @Value("${modtube.transcoding.trick-play.columns:5}") int columns,
+                        @Value("${modtube.transcoding.trick-play.rows:5}") int rows,
+                        @Value("${modtube.transcoding.trick-play.format:jpg}") String format) {
+        this.enabled = enabled;
+        this.interval = Math.max(1, interval);
+        this.tileWidth = Math.max(16, tileWidth / 2 * 2);
+        this.columns = Math.max(1, columns);
+        this.rows = Math.max(1, rows);
+        this.extension = "webp".equalsIgnoreCase(format.trim()) ? "webp" : "jpg";
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /** Tile size for a source displayed at width × height: tile-width wide, even height. */
+    public int[] tileSize(int width, int height) {
+        int h = width > 0 && height > 0 ? (int) Math.round((double) tileWidth * height / width / 2) * 2 : tileWidth * 9 / 16;
+        return new int[]{tileWidth, Math.max(2, h)};
+    }
+
+    /**
+     * Output options that add the sheets to an FFmpeg command reading the
+     * source as input 0: {@code dir}/{stem}_001.jpg, … Appended after the
+     * command's own output, so they apply to this output alone.
+     */
+    public List<String> outputArgs(Path dir, String stem, int width, int height) throws IOException {
+        Files.createDirectories(dir);
+        List<String> args = new ArrayList<>(List.of(
+                "-map", "0:v:0",
+                "-vf", filter(width, height),
+                "-an", "-sn"));
+        args.addAll(extension.equals("webp")
+                ? List.of("-c:v", "libwebp", "-quality", "60")
+                : List.of("-c:v", "mjpeg", "-q:v", "5"));
+        args.addAll(List.of(
+                "-f", "image2", "-start_number", "1",
+                dir.resolve(stem + "_%03d." + extension).toString()));
+        return args;
+    }
+
+    /**
+     * FFmpeg command for a pass of their own, when no rendition run decodes the
+     * source: only its keyframes are decoded, and each tile shows the last one
+     * at or before its time.
+     */
+    public List<String> keyframeCommand(String input, Path dir, String stem, int width, int height)
+            throws IOException {
+        List<String> cmd = new ArrayList<>(List.of("ffmpeg", "-y", "-skip_frame", "nokey", "-i", input));
+        cmd.addAll(outputArgs(dir, stem, width, height));
+        return cmd;
+    }
+
+    /** Sheets FFmpeg wrote to {@code dir} for {@code stem}, in order. */
+    public List<Path> sheets(Path dir, String stem) throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (var files = Files.list(dir)) {
+            return files.filter(f -> {
+                        String name = f.getFileName().toString();
+                        return name.startsWith(stem + "_") && name.endsWith("." + extension);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Sheets covering {@code length} seconds of the video from {@code start} —
+     * the whole video, or one piece of a split transcode. Tiles run from the
+     * run's start, one per interval.
+     */
+    public record Run(double start, double length, List<String> sheets, long bytes) {}
+
+    /** WebVTT track: one cue per tile, pointing at its rectangle of its sheet. */
+    public String webVtt(List<Run> runs, int[] tile) {
+        StringBuilder vtt = new StringBuilder("WEBVTT\n");
+        for (Run run : runs) {
+            int tiles = tiles(run);
+            for (int i = 0; i < tiles; i++) {
+                double from = run.start() + (double) i * interval;
+                double to = Math.min(run.start() + run.length(), from + interval);
+                int cell = i % (columns * rows);
+                vtt.append('\n').append(timestamp(from)).append(" --> ").append(timestamp(to)).append('\n')
+                   .append(run.sheets().get(i / (columns * rows)))
+                   .append("#xywh=").append(cell % columns * tile[0]).append(',').append(cell / columns * tile[1])
+                   .append(',').append(tile[0]).append(',').append(tile[1]).append('\n');
+            }
+        }
+        return vtt.toString();
+    }
+
+    /**
+     * HLS image media playlist (Apple's image-stream extension): each sheet is
+     * a segment lasting as long as its tiles, described by EXT-X-TILES.
+     */
+    public String imagePlaylist(List<Run> runs, int[] tile) {
+        StringBuilder body = new StringBuilder();
+        double longest = 0;
+        for (Run run : runs) {
+            int remaining = tiles(run);
+            for (String sheet : run.sheets()) {
+                if (remaining <= 0) break;
+                int count = Math.min(remaining, columns * rows);
+                double duration = Math.min((double) count * interval,
+                        run.length() - (double) (tiles(run) - remaining) * interval);
+                longest = Math.max(longest, duration);
+                body.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", duration))
+                    .append("#EXT-X-TILES:RESOLUTION=").append(tile[0]).append('x').append(tile[1])
+                    .append(",LAYOUT=").append(columns).append('x').append(rows)
+                    .append(String.format(Locale.ROOT, ",DURATION=%.3f\n", (double) interval))
+                    .append(sheet).append('\n');
+                remaining -= count;
+            }
+        }
+        return "#EXTM3U\n#EXT-X-VERSION:7\n#EXT-X-TARGETDURATION:" + (int) Math.ceil(longest)
+                + "\n#EXT-X-MEDIA-SEQUENCE:0\n#EXT-X-PLAYLIST-TYPE:VOD\n#EXT-X-IMAGES-ONLY\n"
+                + body + "#EXT-X-ENDLIST\n";
+    }
+
+    /** Master playlist entry for the image playlist at {@code uri}; BANDWIDTH is the sheets' average rate. */
+    public String streamInf(String uri, List<Run> runs, int[] tile) {
+        double seconds = runs.stream().mapToDouble(Run::length).sum();
+        long bytes = runs.stream().mapToLong(Run::bytes).sum();
+        long bandwidth = seconds > 0 ? Math.max(1, Math.round(bytes * 8 / seconds)) : 1;
+        return "#EXT-X-IMAGE-STREAM-INF:BANDWIDTH=" + bandwidth + ",RESOLUTION=" + tile[0] + "x" + tile[1]
+                + ",CODECS=\"" + (extension.equals("webp") ? "webp" : "jpeg") + "\",URI=\"" + uri + "\"\n";
+    }
+
+    /** Tiles in a run: one per started interval, no more than its sheets hold. */
+    private int tiles(Run run) {
+        int expected = (int) Math.ceil(run.length() / interval - 1e-6);
+        return Math.max(0, Math.min(expected, run.sheets().size() * columns * rows));
+    }
+
+    private String filter(int width, int height) {
+        int[] tile = tileSize(width, height);
+        return "fps=1/" + interval + ",scale=" + tile[0] + ":" + tile[1] + ",setsar=1,tile=" + columns + "x" + rows;
+    }
+
+    private static String timestamp(double seconds) {
+        long ms = Math.round(seconds * 1000);
+        return String.format(Locale.ROOT, "%02d:%02d:%02d.%03d", ms / 3_600_000, ms / 60_000 % 60, ms / 1000 % 60, ms % 1000);
+    }
+}
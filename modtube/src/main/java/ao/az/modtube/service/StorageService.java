@@ -1,13 +1,20 @@
 package ao.az.modtube.service;
 
+import ao.az.modtube.metrics.ModTubeMetrics;
 import io.minio.*;
+import com.google.common.collect.ImmutableMultimap;
 import io.minio.errors.ErrorResponseException;
+import io.minio.http.Method;
 import io.minio.messages.DeleteObject;
 import io.minio.messages.Item;
+import io.minio.messages.ListPartsResult;
+import io.minio.messages.Part;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Headers;
 import okhttp3.OkHttpClient;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import javax.net.ssl.SSLContext;
@@ -15,6 +22,7 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 import java.io.InputStream;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -23,8 +31,20 @@ import java.security.SecureRandom;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
@@ -33,9 +53,11 @@ import java.util.stream.Stream;
  * Object key layout:
  *   hls/{videoId}/master.m3u8
  *   hls/{videoId}/{quality}/playlist.m3u8
- *   hls/{videoId}/{quality}/seg_00001.ts
+ *   hls/{videoId}/{quality}/seg_00001.ts      (or seg_00001.m4s + init.mp4 in fMP4 mode)
+ *   hls/{videoId}/images/sprite_001.jpg       (trick-play sheets + thumbnails.vtt + playlist.m3u8)
  *   thumbnails/{videoId}/default.jpg
  *   thumbnails/{videoId}/custom.jpg
+ *   originals/{videoId}/{filename}
  *
  * HLS playlists use relative segment references, so no URL rewriting is needed —
  * the browser resolves them against the request path, which keeps hitting the
@@ -45,9 +67,31 @@ import java.util.stream.Stream;
 @Service
 public class StorageService {
 
+    /** S3 minimum multipart part size. */
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
     private final MinioClient client;
+    /** Same connection, for the S3 multipart primitives MinioClient keeps protected. */
+    private final MultipartClient multipart;
     private final String bucket;
     private final String endpoint;
+    private final ModTubeMetrics metrics;
+    private final ApplicationEventPublisher events;
+    /** Caps concurrent uploads to MinIO across every caller (batches, segment streaming, originals). */
+    private final Semaphore uploadPermits;
+    private final int maxAttempts;
+    private final long partSize;
+
+    /** Recently seen object metadata, so range and HEAD-style lookups skip statObject. */
+    private static final int META_CACHE_SIZE = 10_000;
+    private static final long META_TTL_MS = 5 * 60_000;
+    private record CachedMeta(ObjectMeta meta, long expiresAtMs) {}
+    private final LinkedHashMap<String, CachedMeta> metaCache = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedMeta> eldest) {
+            return size() > META_CACHE_SIZE;
+        }
+    };
     /** Whether MinIO is reachable (set at startup; retried on use). */
     private volatile boolean minioReady = false;
 
@@ -58,14 +102,28 @@ public class StorageService {
             @Value("${modtube.storage.minio.bucket}")     String bucket,
             @Value("${modtube.storage.minio.region:}")    String region,
             @Value("${modtube.storage.minio.ca-cert:}")   String caCertPath,
-            @Value("${modtube.storage.minio.insecure:false}") boolean insecure) {
+            @Value("${modtube.storage.minio.insecure:false}") boolean insecure,
+            @Value("${modtube.storage.upload.concurrency:8}") int concurrency,
+            @Value("${modtube.storage.upload.max-attempts:4}") int maxAttempts,
+            @Value("${modtube.storage.upload.part-size-mb:16}") int partSizeMb,
+            ModTubeMetrics metrics,
+            ApplicationEventPublisher events) {
         this.bucket = bucket;
         this.endpoint = endpoint;
+        this.metrics = metrics;
+        this.events = events;
+        this.uploadPermits = new Semaphore(Math.max(1, concurrency));
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.partSize = Math.max(MIN_PART_SIZE, partSizeMb * 1024L * 1024L);
         MinioClient.Builder builder = MinioClient.builder()
                 .endpoint(endpoint)
                 .credentials(accessKey, secretKey);
+        MinioAsyncClient.Builder asyncBuilder = MinioAsyncClient.builder()
+                .endpoint(endpoint)
+                .credentials(accessKey, secretKey);
         if (region != null && !region.isBlank()) {
             builder.region(region.trim());
+            asyncBuilder.region(region.trim());
         }
         // HTTPS MinIO with a custom/self-signed cert: build an HTTP client that trusts
         // the supplied CA/server PEM (MINIO_CA_CERT), or skip verification entirely
@@ -75,6 +133,7 @@ public class StorageService {
             OkHttpClient http = buildHttpClient(caCertPath, insecure);
             if (http != null) {
                 builder.httpClient(http);
+                asyncBuilder.httpClient(http);
                 tls = insecure ? "INSECURE (no verification)" : "custom CA: " + caCertPath;
             }
         } catch (Exception e) {
@@ -82,8 +141,10 @@ public class StorageService {
                     insecure ? "insecure" : caCertPath, e.getMessage());
         }
         this.client = builder.build();
-        log.info("StorageService configured: endpoint={} bucket={} region={} tls={}",
-                endpoint, bucket, region == null || region.isBlank() ? "(default)" : region, tls);
+        this.multipart = new MultipartClient(asyncBuilder.build());
+        log.info("StorageService configured: endpoint={} bucket={} region={} tls={} uploads={}x part={}MB",
+                endpoint, bucket, region == null || region.isBlank() ? "(default)" : region, tls,
+                Math.max(1, concurrency), this.partSize / (1024 * 1024));
     }
 
     /**
@@ -156,8 +217,14 @@ public class StorageService {
                 + "Ensure the app and MinIO share a Docker network and MINIO_ENDPOINT is correct.", endpoint);
     }
 
-    /** A stored object's stream + metadata from MinIO. */
-    public record StoredObject(InputStream stream, long size, String contentType) {}
+    /** An open object: {@code length} bytes of stream, plus the whole object's metadata. */
+    public record StoredObject(InputStream stream, long length, ObjectMeta meta) {}
+
+    /** One file in a {@link #putAll} batch. */
+    public record UploadItem(String key, Path file, String contentType) {}
+
+    /** Aggregate progress of a {@link #putAll} batch, reported after each object. */
+    public record UploadProgress(int done, int total, long bytesDone, long bytesTotal) {}
 
     private void requireMinio() {
         if (!minioReady && !pingMinio()) {
@@ -177,24 +244,45 @@ public class StorageService {
         }
     }
 
-    /** Uploads a single file to MinIO (retries transient failures). Never writes to disk. */
+    /**
+     * Uploads a single file to MinIO. Transient failures are retried with
+     * exponential backoff; files above the part size go up as explicit
+     * multipart uploads. Never writes to disk.
+     */
     public void putObject(String key, Path file, String contentType) throws Exception {
         requireMinio();
         String ct = contentType != null ? contentType : "application/octet-stream";
+        long size = Files.size(file);
         Exception last = null;
-        for (int attempt = 1; attempt <= 3; attempt++) {
-            try (InputStream in = Files.newInputStream(file)) {
-                client.putObject(PutObjectArgs.builder()
-                        .bucket(bucket).object(key)
-                        .stream(in, Files.size(file), -1)
-                        .contentType(ct).build());
-                return;
-            } catch (Exception e) {
-                last = e;
-                log.warn("MinIO put failed for {} (attempt {}/3): {}", key, attempt, e.getMessage());
-                try { Thread.sleep(500L * attempt); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); break; }
+        uploadPermits.acquire();
+        metrics.incrementStoragePutsInFlight();
+        try {
+            for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                long start = System.nanoTime();
+                try (InputStream in = Files.newInputStream(file)) {
+                    client.putObject(PutObjectArgs.builder()
+                            .bucket(bucket).object(key)
+                            .stream(in, size, size > partSize ? partSize : -1)
+                            .contentType(ct).build());
+                    metrics.recordStoragePut(System.nanoTime() - start, size);
+                    forgetMeta(key);
+                    events.publishEvent(new ObjectWrittenEvent(key));
+                    return;
+                } catch (Exception e) {
+                    last = e;
+                    if (attempt == maxAttempts) break;
+                    metrics.recordStoragePutRetry();
+                    long backoff = backoffMillis(attempt);
+                    log.warn("MinIO put failed for {} (attempt {}/{}), retrying in {}ms: {}",
+                            key, attempt, maxAttempts, backoff, e.getMessage());
+                    Thread.sleep(backoff);
+                }
             }
+        } finally {
+            metrics.decrementStoragePutsInFlight();
+            uploadPermits.release();
         }
+        metrics.recordStoragePutFailure();
         throw new IllegalStateException("MinIO upload failed for " + key + " at " + endpoint
                 + ": " + (last != null ? last.getMessage() : "unknown"), last);
     }
@@ -205,7 +293,44 @@ public class StorageService {
         String ct = contentType != null ? contentType : "application/octet-stream";
         client.putObject(PutObjectArgs.builder()
                 .bucket(bucket).object(key)
-                .stream(in, size, -1).contentType(ct).build());
+                .stream(in, size, size > partSize ? partSize : -1).contentType(ct).build());
+        forgetMeta(key);
+        events.publishEvent(new ObjectWrittenEvent(key));
+    }
+
+    /**
+     * Uploads a batch concurrently — one virtual thread per object, with at most
+     * modtube.storage.upload.concurrency requests in flight to MinIO. Each object
+     * is retried on its own; after the first object runs out of retries the
+     * rest of the batch is skipped and that failure is thrown.
+     */
+    public void putAll(List<UploadItem> items, Consumer<UploadProgress> onProgress) throws Exception {
+        if (items.isEmpty()) return;
+        requireMinio();
+        long bytesTotal = 0;
+        for (UploadItem item : items) bytesTotal += Files.size(item.file());
+        final long total = bytesTotal;
+
+        AtomicInteger done = new AtomicInteger();
+        AtomicLong bytesDone = new AtomicLong();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        try (ExecutorService vthreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (UploadItem item : items) {
+                vthreads.submit(() -> {
+                    if (failure.get() != null) return;
+                    try {
+                        long size = Files.size(item.file());
+                        putObject(item.key(), item.file(), item.contentType());
+                        UploadProgress p = new UploadProgress(done.incrementAndGet(), items.size(),
+                                bytesDone.addAndGet(size), total);
+                        if (onProgress != null) onProgress.accept(p);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            }
+        }   // close() waits for every upload
+        if (failure.get() != null) throw failure.get();
     }
 
     /**
@@ -214,28 +339,150 @@ public class StorageService {
      */
     public void uploadDirectory(Path localDir, String keyPrefix) throws Exception {
         if (!Files.isDirectory(localDir)) return;
-        requireMinio();
-        int count = 0;
+        List<UploadItem> items;
         try (Stream<Path> walk = Files.walk(localDir)) {
-            List<Path> files = walk.filter(Files::isRegularFile).toList();
-            for (Path f : files) {
+            items = walk.filter(Files::isRegularFile).map(f -> {
                 String rel = localDir.relativize(f).toString().replace('\\', '/');
                 String key = keyPrefix.endsWith("/") ? keyPrefix + rel : keyPrefix + "/" + rel;
-                putObject(key, f, contentTypeFor(rel));
-                count++;
-            }
+                return new UploadItem(key, f, contentTypeFor(rel));
+            }).toList();
         }
-        log.info("Uploaded {} files to MinIO under {}", count, keyPrefix);
+        putAll(items, null);
+        log.info("Uploaded {} files to MinIO under {}", items.size(), keyPrefix);
     }
 
-    /** Opens an object for reading from MinIO. Returns null if it doesn't exist. */
+    // ── Direct (presigned) multipart uploads ─────────────────────────────────
+
+    /** Exposes the S3 multipart calls the SDK only offers to subclasses. */
+    private static final class MultipartClient extends MinioAsyncClient {
+        MultipartClient(MinioAsyncClient client) {
+            super(client);
+        }
+
+        String create(String bucket, String key, String contentType) throws Exception {
+            return createMultipartUploadAsync(bucket, null, key,
+                    ImmutableMultimap.of("Content-Type", contentType), null).get().result().uploadId();
+        }
+
+        ListPartsResult list(String bucket, String key, String uploadId, int marker) throws Exception {
+            return listPartsAsync(bucket, null, key, 1000, marker, uploadId, null, null).get().result();
+        }
+
+        void complete(String bucket, String key, String uploadId, Part[] parts) throws Exception {
+            completeMultipartUploadAsync(bucket, null, key, uploadId, parts, null, null).get();
+        }
+
+        void abort(String bucket, String key, String uploadId) throws Exception {
+            abortMultipartUploadAsync(bucket, null, key, uploadId, null, null).get();
+        }
+    }
+
+    /** A part MinIO holds for an unfinished multipart upload. */
+    public record UploadedPart(int partNumber, String etag, long size) {}
+
+    /** Starts a multipart upload of {@code key} and returns its upload id. */
+    public String createMultipartUpload(String key, String contentType) throws Exception {
+        requireMinio();
+        return multipart.create(bucket, key, contentType != null ? contentType : "application/octet-stream");
+    }
+
+    /**
+     * Presigned PUT for one part (1-based), for a client to upload straight to
+     * MinIO. The URL is signed for the MinIO endpoint's host — the caller
+     * rewrites it onto the public proxy path ({@link #proxiedUrl}).
+     */
+    public String presignPart(String key, String uploadId, int partNumber, int expirySeconds) throws Exception {
+        return client.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                .method(Method.PUT).bucket(bucket).object(key).expiry(expirySeconds)
+                .extraQueryParams(Map.of("uploadId", uploadId, "partNumber", String.valueOf(partNumber)))
+                .build());
+    }
+
+    /** Presigned GET of a whole object — lets FFmpeg read a stored original with ranged requests. */
+    public String presignGet(String key, int expirySeconds) throws Exception {
+        return client.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                .method(Method.GET).bucket(bucket).object(key).expiry(expirySeconds).build());
+    }
+
+    /**
+     * Moves a presigned URL onto {@code proxyPath} of the public origin
+     * ("http://minio:9000/bucket/key?X-Amz-…" → "/s3/bucket/key?X-Amz-…"). The
+     * proxy must forward to MinIO with the original Host, which the signature covers.
+     */
+    public static String proxiedUrl(String presignedUrl, String proxyPath) {
+        URI uri = URI.create(presignedUrl);
+        String prefix = proxyPath.endsWith("/") ? proxyPath.substring(0, proxyPath.length() - 1) : proxyPath;
+        return prefix + uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+    }
+
+    /** Every part uploaded so far, in part-number order. */
+    public List<UploadedPart> listParts(String key, String uploadId) throws Exception {
+        requireMinio();
+        List<UploadedPart> parts = new ArrayList<>();
+        int marker = 0;
+        while (true) {
+            ListPartsResult page = multipart.list(bucket, key, uploadId, marker);
+            for (Part p : page.partList()) parts.add(new UploadedPart(p.partNumber(), p.etag(), p.partSize()));
+            if (!page.isTruncated()) return parts;
+            marker = page.nextPartNumberMarker();
+        }
+    }
+
+    /**
+     * Completes a multipart upload from the parts MinIO reports, so the ETags
+     * never have to round-trip through the client.
+     */
+    public void completeMultipartUpload(String key, String uploadId, List<UploadedPart> parts) throws Exception {
+        requireMinio();
+        Part[] s3Parts = parts.stream().map(p -> new Part(p.partNumber(), p.etag())).toArray(Part[]::new);
+        multipart.complete(bucket, key, uploadId, s3Parts);
+        forgetMeta(key);
+        events.publishEvent(new ObjectWrittenEvent(key));
+    }
+
+    public void abortMultipartUpload(String key, String uploadId) {
+        try {
+            multipart.abort(bucket, key, uploadId);
+        } catch (Exception e) {
+            log.warn("Could not abort multipart upload {} of {}: {}", uploadId, key, e.getMessage());
+        }
+    }
+
+    /** 250 ms, 500 ms, 1 s, … capped at 8 s, with ±20% jitter so retries don't stampede. */
+    private static long backoffMillis(int attempt) {
+        long base = Math.min(8_000, 250L << Math.min(5, attempt - 1));
+        return base + ThreadLocalRandom.current().nextLong(-base / 5, base / 5 + 1);
+    }
+
+    /** Size, type and validators of a stored object — what a ranged response needs up front. */
+    public record ObjectMeta(long size, String contentType, String etag, ZonedDateTime lastModified) {}
+
+    /** Opens an object for reading from MinIO with a single GET. Returns null if it doesn't exist. */
     public StoredObject open(String key) {
+        return open(key, 0, -1);
+    }
+
+    /**
+     * Opens {@code length} bytes from {@code offset} (negative length = to the end)
+     * with a single GET. Size, type and validators are read from the response
+     * headers instead of a separate statObject, and remembered in the metadata
+     * cache. Returns null if the object doesn't exist.
+     */
+    public StoredObject open(String key, long offset, long length) {
         try {
-            StatObjectResponse st = client.statObject(StatObjectArgs.builder().bucket(bucket).object(key).build());
-            InputStream in = client.getObject(GetObjectArgs.builder().bucket(bucket).object(key).build());
-            String ct = st.contentType();
-            if (ct == null || ct.isBlank() || "application/octet-stream".equals(ct)) ct = contentTypeFor(key);
-            return new StoredObject(in, st.size(), ct);
+            GetObjectResponse response = client.getObject(getArgs(key, offset, length));
+            Headers h = response.headers();
+            long partLength = parseLong(h.get("Content-Length"), -1);
+            // A ranged GET reports the full size in Content-Range ("bytes 0-99/12345").
+            long size = partLength;
+            String contentRange = h.get("Content-Range");
+            if (contentRange != null && contentRange.lastIndexOf('/') > 0) {
+                size = parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1), partLength);
+            }
+            ObjectMeta meta = new ObjectMeta(size, contentTypeOr(h.get("Content-Type"), key),
+                    unquote(h.get("ETag")), parseHttpDate(h.get("Last-Modified")));
+            if (size >= 0) rememberMeta(key, meta);
+            return new StoredObject(response, partLength, meta);
         } catch (ErrorResponseException e) {
             return null;   // not found
         } catch (Exception e) {
@@ -244,6 +491,93 @@ public class StorageService {
         }
     }
 
+    /** Stats an object, from the metadata cache when possible. Returns null if it doesn't exist. */
+    public ObjectMeta stat(String key) {
+        ObjectMeta known = cachedMeta(key);
+        if (known != null) return known;
+        try {
+            StatObjectResponse st = client.statObject(StatObjectArgs.builder().bucket(bucket).object(key).build());
+            ObjectMeta meta = new ObjectMeta(st.size(), contentTypeOr(st.contentType(), key),
+                    st.etag(), st.lastModified());
+            rememberMeta(key, meta);
+            return meta;
+        } catch (ErrorResponseException e) {
+            return null;   // not found
+        } catch (Exception e) {
+            log.debug("MinIO stat failed for {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    /** Metadata seen recently for this key, or null — never goes to MinIO. */
+    public ObjectMeta cachedMeta(String key) {
+        CachedMeta c;
+        synchronized (metaCache) {
+            c = metaCache.get(key);
+        }
+        if (c == null) return null;
+        if (c.expiresAtMs() < System.currentTimeMillis()) {
+            forgetMeta(key);
+            return null;
+        }
+        return c.meta();
+    }
+
+    private GetObjectArgs getArgs(String key, long offset, long length) {
+        GetObjectArgs.Builder args = GetObjectArgs.builder().bucket(bucket).object(key);
+        if (offset > 0) args.offset(offset);
+        if (length >= 0) args.length(length);
+        return args.build();
+    }
+
+    private void rememberMeta(String key, ObjectMeta meta) {
+        synchronized (metaCache) {
+            metaCache.put(key, new CachedMeta(meta, System.currentTimeMillis() + META_TTL_MS));
+        }
+    }
+
+    private void forgetMeta(String key) {
+        synchronized (metaCache) {
+            metaCache.remove(key);
+        }
+    }
+
+    private void forgetMetaPrefix(String prefix) {
+        synchronized (metaCache) {
+            metaCache.keySet().removeIf(k -> k.startsWith(prefix));
+        }
+    }
+
+    private static String contentTypeOr(String ct, String key) {
+        return ct == null || ct.isBlank() || "application/octet-stream".equals(ct) ? contentTypeFor(key) : ct;
+    }
+
+    private static String unquote(String etag) {
+        return etag == null ? null : etag.replace("\"", "");
+    }
+
+    private static long parseLong(String v, long fallback) {
+        try {
+            return v != null ? Long.parseLong(v.trim()) : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static ZonedDateTime parseHttpDate(String v) {
+        try {
+            return v != null ? ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Published after an object is (over)written so read caches drop a stale copy. */
+    public record ObjectWrittenEvent(String key) {}
+
+    /** Published after {@link #deletePrefix} so read caches drop their copies. */
+    public record ObjectsDeletedEvent(String prefix) {}
+
     /** Deletes every object under the given key prefix from MinIO. */
     public void deletePrefix(String prefix) {
         String normalized = prefix.endsWith("/") ? prefix : prefix + "/";
@@ -259,6 +593,8 @@ public class StorageService {
                 log.warn("Failed to delete object: {}", e.get().objectName());
             }
             log.info("Deleted {} objects under prefix {}", toDelete.size(), normalized);
+            forgetMetaPrefix(normalized);
+            events.publishEvent(new ObjectsDeletedEvent(normalized));
         } catch (Exception e) {
             log.warn("deletePrefix failed for {}: {}", prefix, e.getMessage());
         }
@@ -274,6 +610,7 @@ public class StorageService {
         if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) return "image/jpeg";
         if (lower.endsWith(".png"))  return "image/png";
         if (lower.endsWith(".webp")) return "image/webp";
+        if (lower.endsWith(".vtt"))  return "text/vtt";
         return "application/octet-stream";
     }
 }
@@ -0,0 +1,51 @@
+package ao.az.modtube.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * libsvtav1 (AV1 Main, 8-bit): the fewest bits of the three at equal
+ * quality, and the presets from 8 up are fast enough for CPU-only encoding
+ * of the higher rungs. Presets are numbers, 0 (slowest) to 13. HLS only
+ * carries AV1 in fMP4, and players without an AV1 decoder skip the rung.
+ */
+@Component
+public class SvtAv1Encoder implements VideoEncoder {
+
+    @Override
+    public String name() {
+        return "svt-av1";
+    }
+
+    @Override
+    public String defaultPreset() {
+        return "8";
+    }
+
+    @Override
+    public boolean supportsTs() {
+        return false;
+    }
+
+    @Override
+    public List<String> args(String stream, Rung rung, String preset) {
+        return List.of(
+                "-c" + stream,      "libsvtav1",
+                "-preset" + stream, preset,
+                "-crf" + stream,    String.valueOf(crf(rung.crf())));
+    }
+
+    /** av01.0.{seq_level_idx}M.08 — Main profile, main tier, 8-bit. */
+    @Override
+    public String codecs(Rung rung) {
+        String[] level = VideoEncoder.levelFor(rung.width(), rung.height()).split("\\.");
+        int idx = (Integer.parseInt(level[0]) - 2) * 4 + Integer.parseInt(level[1]);
+        return String.format("av01.0.%02dM.08", idx);
+    }
+
+    /** SVT-AV1's 0-63 scale: x264 CRF 23 ≈ 36, 19 ≈ 30, 17 ≈ 27. */
+    private static int crf(int x264Crf) {
+        return Math.clamp(Math.round(x264Crf * 1.5f) + 1, 1, 63);
+    }
+}
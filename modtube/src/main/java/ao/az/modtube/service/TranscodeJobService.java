@@ -0,0 +1,320 @@
+package ao.az.modtube.service;
+
+import ao.az.modtube.domain.TranscodeJob;
+import ao.az.modtube.domain.TranscodeJobStatus;
+import ao.az.modtube.domain.UploadSession;
+import ao.az.modtube.domain.UploadSessionStatus;
+import ao.az.modtube.domain.Video;
+import ao.az.modtube.domain.VideoStatus;
+import ao.az.modtube.repository.TranscodeJobRepository;
+import ao.az.modtube.repository.UploadSessionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * State transitions of the durable transcoding queue (transcode_jobs).
+ *
+ * Workers ({@link TranscodeWorkerPool}) claim jobs with SKIP LOCKED, so any
+ * number of workers — on one node or several sharing the database — can pull
+ * from the same queue without double-processing. A claimed job carries a lease
+ * that the worker heartbeats; if the lease lapses (crash, kill -9, network
+ * partition) the reaper puts the job back in the queue.
+ */
+@Slf4j
+@Service
+public class TranscodeJobService {
+
+    private static final List<TranscodeJobStatus> ACTIVE =
+            List.of(TranscodeJobStatus.QUEUED, TranscodeJobStatus.RUNNING);
+
+    private final TranscodeJobRepository jobRepository;
+    private final VideoService videoService;
+    private final UploadSessionRepository uploadSessionRepository;
+    private final ApplicationEventPublisher events;
+    private final int maxAttempts;
+    private final int leaseSeconds;
+
+    /** Host part of the owner id — a restarted process on the same host reclaims its orphans. */
+    private final String host;
+    /** This process's identity in the owner column: "{host}/{instance}". */
+    private final String owner;
+
+    /** Published on enqueue; the worker pool polls after commit so the job starts immediately. */
+    public record JobEnqueuedEvent(Long jobId, String videoId) {}
+
+    /** What happened to a job whose run threw. */
+    public enum FailureOutcome { RETRY, FAILED, LOST }
+
+    public TranscodeJobService(TranscodeJobRepository jobRepository,
+                               VideoService videoService,
+                               UploadSessionRepository uploadSessionRepository,
+                               ApplicationEventPublisher events,
+                               @Value("${modtube.transcoding.queue.max-attempts:3}") int maxAttempts,
+                               @Value("${modtube.transcoding.queue.lease-seconds:120}") int leaseSeconds) {
+        this.jobRepository = jobRepository;
+        this.videoService = videoService;
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.events = events;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.leaseSeconds = Math.max(30, leaseSeconds);
+        this.host = resolveHost();
+        this.owner = host + "/" + UUID.randomUUID().toString().substring(0, 8);
+        log.info("[Queue] Transcode worker identity: {} (lease {}s, max attempts {})",
+                owner, this.leaseSeconds, this.maxAttempts);
+    }
+
+    public String getOwner() { return owner; }
+
+    public String getHost() { return host; }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Producer side
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Queues a transcode of {@code inputFile}. The video stays UPLOADED until a worker claims it. */
+    @Transactional
+    public TranscodeJob enqueue(String videoId, Path inputFile) {
+        return enqueueInput(videoId, inputFile.toAbsolutePath().toString());
+    }
+
+    /** Queues a transcode of an original that was uploaded straight to MinIO. */
+    @Transactional
+    public TranscodeJob enqueueStored(String videoId, String objectKey) {
+        return enqueueInput(videoId, TranscodingService.STORED_INPUT_PREFIX + objectKey);
+    }
+
+    private TranscodeJob enqueueInput(String videoId, String input) {
+        TranscodeJob job = new TranscodeJob();
+        job.setVideoId(videoId);
+        job.setInputPath(input);
+        job.setMaxAttempts(maxAttempts);
+        job = jobRepository.save(job);
+        events.publishEvent(new JobEnqueuedEvent(job.getId(), videoId));
+        log.info("[Queue] Enqueued job={} video={}", job.getId(), videoId);
+        return job;
+    }
+
+    /** Cancels any queued or running job for the video (running FFmpeg notices on its next heartbeat). */
+    public void cancelForVideo(String videoId) {
+        int n = jobRepository.cancelActiveForVideo(videoId);
+        if (n > 0) log.info("[Queue] Cancelled {} job(s) for video={}", n, videoId);
+    }
+
+    /** 1-based queue position for the status endpoint, or 0 when nothing is waiting. */
+    public long queuePosition(String videoId) {
+        return jobRepository.queuePosition(videoId);
+    }
+
+    public long countQueued() {
+        return jobRepository.countByStatus(TranscodeJobStatus.QUEUED);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Worker side
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Claims the next runnable job for this worker. Always its own short
+     * transaction: it is also invoked from an after-commit listener, where
+     * joining the finished transaction would silently never commit.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Optional<TranscodeJob> claimNext() {
+        Optional<TranscodeJob> next = jobRepository.lockNextRunnable();
+        if (next.isEmpty()) return Optional.empty();
+        Long id = next.get().getId();
+        if (jobRepository.markRunning(id, owner, leaseSeconds) == 0) return Optional.empty();
+        return jobRepository.findById(id);
+    }
+
+    /** Extends the lease. False means the job was cancelled or reassigned and must stop. */
+    public boolean heartbeat(TranscodeJob job) {
+        return jobRepository.heartbeat(job.getId(), owner, leaseSeconds) > 0;
+    }
+
+    public void markDone(TranscodeJob job) {
+        if (jobRepository.markDone(job.getId(), owner) == 0) {
+            log.warn("[Queue] job={} video={} finished after losing its lease", job.getId(), job.getVideoId());
+        }
+    }
+
+    public void markCancelled(TranscodeJob job, String reason) {
+        jobRepository.cancelActiveForVideo(job.getVideoId());
+        log.info("[Queue] Dropped job={} video={}: {}", job.getId(), job.getVideoId(), reason);
+    }
+
+    /**
+     * Records a failed run. Re-queues with exponential backoff while attempts
+     * remain; otherwise the job is FAILED and the caller must fail the video.
+     */
+    public FailureOutcome markFailed(TranscodeJob job, String reason) {
+        String error = truncate(reason);
+        if (job.getAttempts() < job.getMaxAttempts()) {
+            int delay = backoffSeconds(job.getAttempts());
+            if (jobRepository.requeue(job.getId(), owner, error, delay) > 0) {
+                log.warn("[Queue] job={} video={} attempt {}/{} failed — retrying in {}s: {}",
+                        job.getId(), job.getVideoId(), job.getAttempts(), job.getMaxAttempts(), delay, reason);
+                return FailureOutcome.RETRY;
+            }
+            return FailureOutcome.LOST;
+        }
+        if (jobRepository.markFailed(job.getId(), owner, error) > 0) {
+            log.error("[Queue] job={} video={} failed after {} attempts: {}",
+                    job.getId(), job.getVideoId(), job.getAttempts(), reason);
+            return FailureOutcome.FAILED;
+        }
+        return FailureOutcome.LOST;
+    }
+
+    /** Graceful shutdown: give our RUNNING jobs straight back to the queue. */
+    public int releaseOwned() {
+        return jobRepository.releaseOwned(owner);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Recovery
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Re-queues RUNNING jobs whose lease lapsed (their worker died). */
+    @Transactional
+    public int reapExpiredLeases() {
+        List<TranscodeJob> expired = jobRepository.lockExpiredLeases();
+        expired.forEach(job -> requeueOrFail(job, "Worker " + job.getOwner() + " stopped heartbeating"));
+        return expired.size();
+    }
+
+    /**
+     * On startup, jobs this host was running before the restart are re-queued at
+     * once rather than waiting for their lease to lapse.
+     */
+    @Transactional
+    public int requeueOrphaned() {
+        List<TranscodeJob> orphaned = jobRepository.lockOrphanedOnHost(host + "/%", owner);
+        orphaned.forEach(job -> requeueOrFail(job, "Server restarted during transcoding"));
+        return orphaned.size();
+    }
+
+    /**
+     * Videos left mid-pipeline with no active job (uploads interrupted by the
+     * restart, or rows from before the queue existed). A finished upload whose
+     * original is still there (on disk, or in MinIO for a direct upload) is
+     * queued again; anything else cannot be resumed.
+     * An upload whose session is still live is left alone — the client can push
+     * the missing chunks, and the janitor deletes it if the session expires.
+     */
+    @Transactional
+    public int recoverVideosWithoutJobs() {
+        List<Video> stuck = videoService.getVideosByStatusIn(
+                List.of(VideoStatus.UPLOADING, VideoStatus.UPLOADED, VideoStatus.PROCESSING));
+        int recovered = 0;
+        for (Video video : stuck) {
+            if (jobRepository.existsByVideoIdAndStatusIn(video.getId(), ACTIVE)) continue;
+            if (video.getStatus() == VideoStatus.UPLOADING && uploadSessionRepository.isActive(video.getId())) {
+                log.info("[Startup] Upload of video={} is resumable — leaving it to its session", video.getId());
+                continue;
+            }
+            Optional<String> input = originalInput(video);
+            if (input.isPresent()) {
+                // Assembled but not yet handed on when the restart hit — it is uploaded now.
+                if (video.getStatus() == VideoStatus.UPLOADING) {
+                    videoService.updateVideoStatus(video.getId(), VideoStatus.UPLOADED);
+                }
+                enqueueInput(video.getId(), input.get());
+                log.warn("[Startup] Re-queued video={} (was {})", video.getId(), video.getStatus());
+                recovered++;
+            } else {
+                log.warn("[Startup] Cannot resume video={} status={} — marking FAILED",
+                        video.getId(), video.getStatus());
+                videoService.updateProcessingError(video.getId(), "Server restarted before the upload finished");
+                videoService.updateVideoStatus(video.getId(), VideoStatus.FAILED);
+            }
+        }
+        return recovered;
+    }
+
+    private void requeueOrFail(TranscodeJob job, String reason) {
+        if (job.getAttempts() < job.getMaxAttempts()) {
+            job.setStatus(TranscodeJobStatus.QUEUED);
+            job.setRunAfter(LocalDateTime.now());
+            log.warn("[Queue] Re-queued job={} video={} ({})", job.getId(), job.getVideoId(), reason);
+        } else {
+            job.setStatus(TranscodeJobStatus.FAILED);
+            job.setFinishedAt(LocalDateTime.now());
+            videoService.updateProcessingError(job.getVideoId(), reason);
+            videoService.updateVideoStatus(job.getVideoId(), VideoStatus.FAILED);
+            log.error("[Queue] job={} video={} out of attempts ({})", job.getId(), job.getVideoId(), reason);
+        }
+        job.setOwner(null);
+        job.setLeaseUntil(null);
+        job.setLastError(truncate(reason));
+        jobRepository.save(job);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Helpers
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * What a transcode of this video would read: the assembled original on
+     * disk, or the MinIO object of a completed direct upload. An UPLOADING video
+     * has one only once its session is COMPLETED — the upload was assembled and
+     * the client told so, but the restart came before it was queued.
+     */
+    private Optional<String> originalInput(Video video) {
+        UploadSession session = uploadSessionRepository.findByVideoId(video.getId())
+                .filter(s -> s.getStatus() == UploadSessionStatus.COMPLETED).orElse(null);
+        if (video.getStatus() == VideoStatus.UPLOADING && session == null) return Optional.empty();
+        if (session != null && session.isDirect()) {
+            return Optional.of(TranscodingService.STORED_INPUT_PREFIX + session.getObjectKey());
+        }
+        return findOriginal(video).map(p -> p.toAbsolutePath().toString());
+    }
+
+    /** Looks for the assembled upload ({uploadPath}/original.*). */
+    private Optional<Path> findOriginal(Video video) {
+        if (video.getUploadPath() == null) return Optional.empty();
+        Path dir = Paths.get(video.getUploadPath());
+        if (!Files.isDirectory(dir)) return Optional.empty();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("original."))
+                    .filter(Files::isRegularFile)
+                    .findFirst();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /** 30 s, 2 min, 8 min, … capped at 30 min. */
+    private static int backoffSeconds(int attempts) {
+        return (int) Math.min(1800, 30L << (2 * Math.max(0, attempts - 1)));
+    }
+
+    private static String truncate(String s) {
+        return s != null && s.length() > 1000 ? s.substring(0, 1000) : s;
+    }
+
+    private static String resolveHost() {
+        String env = System.getenv("HOSTNAME");
+        if (env != null && !env.isBlank()) return env.trim();
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "localhost";
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ao.az.modtube.service;
+
+import ao.az.modtube.domain.TranscodePiece;
+import ao.az.modtube.repository.TranscodePieceRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * State transitions of transcode_pieces — the second-level queue a split
+ * transcode fans out into.
+ *
+ * The job's own worker plans the pieces and waits for them; any
+ * {@link TranscodePieceWorker} whose host can read the input claims them with
+ * SKIP LOCKED, under the same lease/heartbeat rules and the same owner
+ * identity as {@link TranscodeJobService}. A piece of a local upload is pinned
+ * to the host that has the file; a piece of a MinIO-stored original can run
+ * on any node.
+ */
+@Slf4j
+@Service
+public class TranscodePieceService {
+
+    private final TranscodePieceRepository pieceRepository;
+    private final TranscodeJobService jobService;
+    private final int maxAttempts;
+    private final int leaseSeconds;
+
+    public TranscodePieceService(TranscodePieceRepository pieceRepository,
+                                 TranscodeJobService jobService,
+                                 @Value("${modtube.transcoding.queue.max-attempts:3}") int maxAttempts,
+                                 @Value("${modtube.transcoding.queue.lease-seconds:120}") int leaseSeconds) {
+        this.pieceRepository = pieceRepository;
+        this.jobService = jobService;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.leaseSeconds = Math.max(30, leaseSeconds);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Coordinator side
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Queues the pieces of a job, cut at {@code cuts} (seconds, ascending). A
+     * retried job with the same ladder and cuts keeps its finished pieces and
+     * re-queues the rest; anything else is planned from scratch.
+     */
+    @Transactional
+    public List<TranscodePiece> plan(Long jobId, String videoId, String input, String ladder, List<Double> cuts) {
+        List<TranscodePiece> existing = pieceRepository.findByJobIdOrderByPiece(jobId);
+        if (!existing.isEmpty()) {
+            if (matches(existing, input, ladder, cuts)) {
+                int reset = pieceRepository.resetUnfinished(jobId);
+                log.info("[Pieces] job={} video={} resuming: {} of {} piece(s) already done",
+                        jobId, videoId, existing.size() - reset, existing.size());
+                return pieceRepository.findByJobIdOrderByPiece(jobId);
+            }
+            pieceRepository.deleteByJob(jobId);
+            pieceRepository.flush();
+        }
+
+        String host = input.startsWith(TranscodingService.STORED_INPUT_PREFIX) ? null : jobService.getHost();
+        List<TranscodePiece> pieces = new ArrayList<>();
+        for (int i = 0; i <= cuts.size(); i++) {
+            double start = i == 0 ? 0 : cuts.get(i - 1);
+            TranscodePiece piece = new TranscodePiece();
+            piece.setJobId(jobId);
+            piece.setVideoId(videoId);
+            piece.setPiece(i);
+            piece.setStartSeconds(start);
+            piece.setLengthSeconds(i < cuts.size() ? cuts.get(i) - start : null);
+            piece.setInputPath(input);
+            piece.setLadder(ladder);
+            piece.setHost(host);
+            piece.setMaxAttempts(maxAttempts);
+            pieces.add(piece);
+        }
+        pieces = pieceRepository.saveAll(pieces);
+        log.info("[Pieces] job={} video={} split into {} piece(s){}", jobId, videoId, pieces.size(),
+                host != null ? " (pinned to " + host + ")" : "");
+        return pieces;
+    }
+
+    public List<TranscodePiece> pieces(Long jobId) {
+        return pieceRepository.findByJobIdOrderByPiece(jobId);
+    }
+
+    /** Drops a job's pieces once it has been stitched. */
+    public void clear(Long jobId) {
+        pieceRepository.deleteByJob(jobId);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Worker side
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Claims the next piece this host may run. Its own transaction, like {@link TranscodeJobService#claimNext}. */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Optional<TranscodePiece> claimNext() {
+        Optional<TranscodePiece> next = pieceRepository.lockNextRunnable(jobService.getHost());
+        if (next.isEmpty()) return Optional.empty();
+        Long id = next.get().getId();
+        if (pieceRepository.markRunning(id, jobService.getOwner(), leaseSeconds) == 0) return Optional.empty();
+        return pieceRepository.findById(id);
+    }
+
+    /** Extends the lease. False means the piece or its job was cancelled, failed or reassigned. */
+    public boolean heartbeat(TranscodePiece piece) {
+        return pieceRepository.heartbeat(piece.getId(), jobService.getOwner(), leaseSeconds) > 0;
+    }
+
+    public void markDone(TranscodePiece piece, String segments) {
+        if (pieceRepository.markDone(piece.getId(), jobService.getOwner(), segments) == 0) {
+            log.warn("[Pieces] piece={} of job={} finished after losing its lease", piece.getPiece(), piece.getJobId());
+        }
+    }
+
+    public void markFailed(TranscodePiece piece, String reason) {
+        String error = reason != null && reason.length() > 1000 ? reason.substring(0, 1000) : reason;
+        if (pieceRepository.markFailed(piece.getId(), jobService.getOwner(), error) > 0) {
+            log.warn("[Pieces] piece={} of job={} attempt {}/{} failed: {}", piece.getPiece(), piece.getJobId(),
+                    piece.getAttempts(), piece.getMaxAttempts(), reason);
+        }
+    }
+
+    public int releaseOwned() {
+        return pieceRepository.releaseOwned(jobService.getOwner());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Recovery
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public int reapExpiredLeases() {
+        return pieceRepository.reapExpiredLeases();
+    }
+
+    public int deleteForEndedJobs() {
+        return pieceRepository.deleteForEndedJobs();
+    }
+
+    private static boolean matches(List<TranscodePiece> existing, String input, String ladder, List<Double> cuts) {
+        if (existing.size() != cuts.size() + 1) return false;
+        for (TranscodePiece p : existing) {
+            if (!p.getInputPath().equals(input) || !p.getLadder().equals(ladder)) return false;
+            double start = p.getPiece() == 0 ? 0 : cuts.get(p.getPiece() - 1);
+            if (Math.abs(p.getStartSeconds() - start) > 0.001) return false;
+        }
+        return true;
+    }
+}
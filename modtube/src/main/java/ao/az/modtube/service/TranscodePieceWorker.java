@@ -0,0 +1,136 @@
+package ao.az.modtube.service;
+
+import ao.az.modtube.domain.TranscodePiece;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs pieces of split transcodes ({@link TranscodePieceService}) on this node.
+ *
+ * Separate from {@link TranscodeWorkerPool} on purpose: a split job's worker
+ * holds its slot while it waits for the pieces, so pieces need slots of their
+ * own or two long videos would deadlock a two-worker node. Each piece encodes
+ * every rung with threads-per-piece threads; piece-workers defaults to enough
+ * slots to fill the cores (0 = auto).
+ */
+@Slf4j
+@Component
+public class TranscodePieceWorker {
+
+    private final TranscodePieceService pieceService;
+    private final TranscodingService transcodingService;
+    private final Executor executor;
+    private final Semaphore slots;
+
+    /** Pieces running on this node, keyed by piece id (heartbeated every tick). */
+    private final ConcurrentHashMap<Long, TranscodePiece> running = new ConcurrentHashMap<>();
+    private volatile boolean accepting = true;
+
+    public TranscodePieceWorker(TranscodePieceService pieceService,
+                                TranscodingService transcodingService,
+                                @Qualifier("transcodePieceExecutor") Executor executor,
+                                @Value("${modtube.transcoding.split.piece-workers:0}") int pieceWorkers,
+                                @Value("${modtube.transcoding.split.threads-per-piece:4}") int threadsPerPiece) {
+        this.pieceService = pieceService;
+        this.transcodingService = transcodingService;
+        this.executor = executor;
+        this.slots = new Semaphore(slots(pieceWorkers, threadsPerPiece));
+    }
+
+    /** Configured slots, or cores ÷ threads-per-piece when piece-workers is 0. */
+    private static int slots(int pieceWorkers, int threadsPerPiece) {
+        if (pieceWorkers > 0) return pieceWorkers;
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, threadsPerPiece));
+    }
+
+    @Scheduled(fixedDelayString = "${modtube.transcoding.queue.poll-ms:2000}", initialDelay = 10_000)
+    public synchronized void poll() {
+        if (!accepting) return;
+        try {
+            while (slots.tryAcquire()) {
+                Optional<TranscodePiece> next = pieceService.claimNext();
+                if (next.isEmpty()) {
+                    slots.release();
+                    break;
+                }
+                TranscodePiece piece = next.get();
+                running.put(piece.getId(), piece);
+                try {
+                    executor.execute(() -> run(piece));
+                } catch (RejectedExecutionException e) {
+                    running.remove(piece.getId());
+                    slots.release();
+                    pieceService.markFailed(piece, "Piece executor rejected the piece");
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("[Pieces] Poll failed: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${modtube.transcoding.queue.heartbeat-ms:30000}", initialDelay = 30_000)
+    public void heartbeat() {
+        running.values().forEach(piece -> {
+            try {
+                if (!pieceService.heartbeat(piece)) {
+                    log.warn("[Pieces] piece={} of job={} no longer owned — stopping", piece.getPiece(), piece.getJobId());
+                    transcodingService.cancelPiece(piece);
+                }
+            } catch (Exception e) {
+                log.warn("[Pieces] Heartbeat failed for piece={} of job={}: {}",
+                        piece.getPiece(), piece.getJobId(), e.getMessage());
+            }
+        });
+    }
+
+    /** Re-queues pieces of dead workers and drops pieces of jobs that have ended. */
+    @Scheduled(fixedDelayString = "${modtube.transcoding.queue.reap-ms:60000}", initialDelay = 60_000)
+    public void reap() {
+        try {
+            int expired = pieceService.reapExpiredLeases();
+            if (expired > 0) log.warn("[Pieces] Re-queued {} piece(s) with expired leases", expired);
+            pieceService.deleteForEndedJobs();
+        } catch (Exception e) {
+            log.warn("[Pieces] Reaper failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        accepting = false;
+        if (running.isEmpty()) return;
+        try {
+            int released = pieceService.releaseOwned();
+            log.info("[Pieces] Shutdown: released {} running piece(s) back to the queue", released);
+        } catch (Exception e) {
+            log.warn("[Pieces] Could not release pieces on shutdown: {}", e.getMessage());
+        }
+        running.values().forEach(transcodingService::cancelPiece);
+    }
+
+    private void run(TranscodePiece piece) {
+        try {
+            log.info("[Pieces] ▶ piece={} of job={} video={} from {}s attempt {}/{}", piece.getPiece(),
+                    piece.getJobId(), piece.getVideoId(), (long) piece.getStartSeconds(),
+                    piece.getAttempts(), piece.getMaxAttempts());
+            String segments = transcodingService.encodePiece(piece);
+            pieceService.markDone(piece, segments);
+        } catch (Exception e) {
+            pieceService.markFailed(piece, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        } finally {
+            running.remove(piece.getId());
+            slots.release();
+        }
+    }
+}
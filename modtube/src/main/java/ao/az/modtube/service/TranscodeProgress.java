@@ -0,0 +1,65 @@
+package ao.az.modtube.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Progress of one running transcode: a percentage per rung, and the overall
+ * 5–95% that goes to videos.processing_progress. FFmpeg output threads update
+ * it without locks — a rung's slot is swapped and the running sum adjusted by
+ * the difference, so the average is O(1) however often it ticks. The database
+ * is written separately, by {@link TranscodingService#flushProgress}, from
+ * {@link #unflushed}.
+ */
+public final class TranscodeProgress {
+
+    /** Overall progress when the renditions start, and when they are all done. */
+    static final int START = 5;
+    static final int END = 95;
+
+    private final Map<String, Integer> slots = new LinkedHashMap<>();
+    private final AtomicIntegerArray percent;
+    private final AtomicInteger sum = new AtomicInteger();
+    private final AtomicInteger overall = new AtomicInteger(START);
+    private final AtomicInteger flushed = new AtomicInteger(START);
+
+    public TranscodeProgress(List<String> labels) {
+        for (String label : labels) slots.putIfAbsent(label, slots.size());
+        percent = new AtomicIntegerArray(slots.size());
+    }
+
+    /** Sets one rung's percentage (0-100); unknown labels are ignored. */
+    public void set(String label, int pct) {
+        Integer slot = slots.get(label);
+        if (slot == null) return;
+        int value = Math.clamp(pct, 0, 100);
+        int old = percent.getAndSet(slot, value);
+        if (old == value) return;
+        int avg = sum.addAndGet(value - old) / slots.size();
+        // Never backwards: a rung restarting (stream copy → encode, single-pass →
+        // per rendition) holds the bar until it catches up.
+        overall.accumulateAndGet(START + avg * (END - START) / 100, Math::max);
+    }
+
+    /** Overall progress, 5–95%. */
+    public int overall() {
+        return overall.get();
+    }
+
+    /** The overall progress if it moved since the last call, else -1. */
+    public int unflushed() {
+        int current = overall.get();
+        int last = flushed.get();
+        return current > last && flushed.compareAndSet(last, current) ? current : -1;
+    }
+
+    /** Percentage per rung, in ladder order. */
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> copy = new LinkedHashMap<>();
+        slots.forEach((label, slot) -> copy.put(label, percent.get(slot)));
+        return copy;
+    }
+}
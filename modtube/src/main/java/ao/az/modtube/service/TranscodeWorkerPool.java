@@ -0,0 +1,188 @@
+package ao.az.modtube.service;
+
+import ao.az.modtube.domain.TranscodeJob;
+import ao.az.modtube.metrics.ModTubeMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pulls jobs from the durable queue and runs them on a fixed number of workers.
+ *
+ * A job is only claimed when a worker slot is free, so a burst of uploads waits
+ * in the database (where it survives restarts) instead of overflowing an
+ * in-memory executor queue. Slots are sized by modtube.transcoding.queue.workers
+ * so the box is never overcommitted no matter how many uploads arrive.
+ */
+@Slf4j
+@Component
+public class TranscodeWorkerPool {
+
+    private final TranscodeJobService jobService;
+    private final TranscodingService transcodingService;
+    private final VideoService videoService;
+    private final ModTubeMetrics metrics;
+    private final Executor executor;
+    private final Semaphore slots;
+
+    /** Jobs running on this node, keyed by job id (heartbeated every tick). */
+    private final ConcurrentHashMap<Long, TranscodeJob> running = new ConcurrentHashMap<>();
+    private volatile boolean accepting = true;
+
+    public TranscodeWorkerPool(TranscodeJobService jobService,
+                               TranscodingService transcodingService,
+                               VideoService videoService,
+                               ModTubeMetrics metrics,
+                               @Qualifier("transcodeWorkerExecutor") Executor executor,
+                               @Value("${modtube.transcoding.queue.workers:2}") int workers) {
+        this.jobService = jobService;
+        this.transcodingService = transcodingService;
+        this.videoService = videoService;
+        this.metrics = metrics;
+        this.executor = executor;
+        this.slots = new Semaphore(Math.max(1, workers));
+    }
+
+    /** Resume whatever the previous process left behind, then start pulling. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverOnStartup() {
+        try {
+            int orphaned = jobService.requeueOrphaned();
+            int legacy = jobService.recoverVideosWithoutJobs();
+            if (orphaned + legacy > 0) {
+                log.warn("[Startup] Re-queued {} interrupted job(s) and {} video(s) without a job", orphaned, legacy);
+            }
+        } catch (Exception e) {
+            log.error("[Startup] Transcode queue recovery failed: {}", e.getMessage(), e);
+        }
+        poll();
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onJobEnqueued(TranscodeJobService.JobEnqueuedEvent e) {
+        poll();
+    }
+
+    /** Claims jobs while worker slots are free. Also runs on a timer to pick up retries and other nodes' work. */
+    @Scheduled(fixedDelayString = "${modtube.transcoding.queue.poll-ms:2000}", initialDelay = 10_000)
+    public synchronized void poll() {
+        if (!accepting) return;
+        try {
+            while (slots.tryAcquire()) {
+                Optional<TranscodeJob> next = jobService.claimNext();
+                if (next.isEmpty()) {
+                    slots.release();
+                    break;
+                }
+                TranscodeJob job = next.get();
+                running.put(job.getId(), job);
+                try {
+                    executor.execute(() -> run(job));
+                } catch (RejectedExecutionException e) {
+                    running.remove(job.getId());
+                    slots.release();
+                    jobService.markFailed(job, "Worker executor rejected the job");
+                    break;
+                }
+            }
+            metrics.setTranscodeQueueDepth(jobService.countQueued());
+        } catch (Exception e) {
+            log.warn("[Queue] Poll failed: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${modtube.transcoding.queue.heartbeat-ms:30000}", initialDelay = 30_000)
+    public void heartbeat() {
+        running.values().forEach(job -> {
+            try {
+                if (!jobService.heartbeat(job)) {
+                    // Cancelled (video deleted) or reassigned after a lapsed lease — stop FFmpeg.
+                    log.warn("[Queue] job={} video={} no longer owned — stopping", job.getId(), job.getVideoId());
+                    transcodingService.cancelTranscoding(job.getVideoId());
+                }
+            } catch (Exception e) {
+                log.warn("[Queue] Heartbeat failed for job={}: {}", job.getId(), e.getMessage());
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${modtube.transcoding.queue.reap-ms:60000}", initialDelay = 60_000)
+    public void reapExpiredLeases() {
+        try {
+            int n = jobService.reapExpiredLeases();
+            if (n > 0) log.warn("[Queue] Re-queued {} job(s) with expired leases", n);
+        } catch (Exception e) {
+            log.warn("[Queue] Lease reaper failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Hands running jobs back to the queue before killing FFmpeg, so the kill is
+     * not counted as a failed attempt and the next start resumes them.
+     */
+    @PreDestroy
+    public void shutdown() {
+        accepting = false;
+        if (running.isEmpty()) return;
+        try {
+            int released = jobService.releaseOwned();
+            log.info("[Queue] Shutdown: released {} running job(s) back to the queue", released);
+        } catch (Exception e) {
+            log.warn("[Queue] Could not release jobs on shutdown: {}", e.getMessage());
+        }
+        running.values().forEach(job -> transcodingService.cancelTranscoding(job.getVideoId()));
+    }
+
+    private void run(TranscodeJob job) {
+        String videoId = job.getVideoId();
+        String input = job.getInputPath();
+        try {
+            if (videoService.getVideo(videoId).isEmpty()) {
+                jobService.markCancelled(job, "video deleted");
+                return;
+            }
+            if (!transcodingService.inputExists(input)) {
+                // Nothing to retry with — fail the video straight away.
+                String reason = "Uploaded file is missing: " + Paths.get(input).getFileName();
+                if (jobService.markFailed(exhausted(job), reason) == TranscodeJobService.FailureOutcome.FAILED) {
+                    transcodingService.failVideo(videoId, input, reason);
+                }
+                return;
+            }
+            log.info("[Queue] ▶ job={} video={} attempt {}/{}", job.getId(), videoId,
+                    job.getAttempts(), job.getMaxAttempts());
+            transcodingService.transcodeToHLS(job.getId(), videoId, input);
+            jobService.markDone(job);
+        } catch (Exception e) {
+            String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            switch (jobService.markFailed(job, reason)) {
+                case RETRY  -> transcodingService.markRetrying(videoId, job.getAttempts(), job.getMaxAttempts(), reason);
+                case FAILED -> transcodingService.failVideo(videoId, input, reason);
+                case LOST   -> log.info("[Queue] job={} video={} was cancelled or reassigned", job.getId(), videoId);
+            }
+        } finally {
+            running.remove(job.getId());
+            slots.release();
+        }
+    }
+
+    /** A view of the job with no attempts left, so markFailed fails it instead of retrying. */
+    private static TranscodeJob exhausted(TranscodeJob job) {
+        job.setMaxAttempts(job.getAttempts());
+        return job;
+    }
+}
@@ -1,32 +1,34 @@
 package ao.az.modtube.service;
 
+import ao.az.modtube.domain.TranscodeJobStatus;
+import ao.az.modtube.domain.TranscodePiece;
 import ao.az.modtube.domain.Video;
 import ao.az.modtube.domain.VideoStatus;
 import ao.az.modtube.metrics.ModTubeMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
-import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
 
 @Slf4j
 @Service
@@ -34,19 +36,52 @@ public class TranscodingService {
 
     private static final long PROCESS_TIMEOUT_MINUTES = 180;
 
-    // FFmpeg progress parsing patterns
-    private static final Pattern DURATION_PATTERN =
-            Pattern.compile("Duration:\\s+(\\d+):(\\d+):(\\d+\\.\\d+)");
-    private static final Pattern TIME_PATTERN =
-            Pattern.compile("time=(\\d+):(\\d+):(\\d+\\.\\d+)");
+    /** How much of the source the keyframe scan for stream copy reads. */
+    private static final int KEYFRAME_SCAN_SECONDS = 120;
+    private static final java.util.Set<String> COPYABLE_H264_PROFILES =
+            java.util.Set.of("Constrained Baseline", "Baseline", "Main", "High");
+
+    /** How often a split job's worker checks on its pieces. */
+    private static final long PIECE_POLL_MS = 2000;
+
+    /** Job input that lives in MinIO rather than on local disk: this prefix + the object key. */
+    public static final String STORED_INPUT_PREFIX = "minio:";
+    /** Lifetime of the presigned GET FFmpeg reads a stored original through — outlasts every retry of one run. */
+    private static final int STORED_INPUT_URL_SECONDS = (int) TimeUnit.HOURS.toSeconds(24);
+
+    /** How long an FFmpeg's output readers get to finish after it exits. */
+    private static final long OUTPUT_DRAIN_MS = 5000;
 
     private final VideoService videoService;
     private final ModTubeMetrics metrics;
     private final StorageService storageService;
+    private final HlsSegmentUploader segmentUploader;
+    private final MediaProbe mediaProbe;
+    private final ComplexityProbe complexityProbe;
+    private final SpriteSheets spriteSheets;
+    private final VideoEncoders encoders;
+    private final TranscodePieceService pieceService;
     private final Path hlsDir;
     private final Path thumbnailDir;
     private final int segmentDuration;
+    /** CMAF fMP4 segments (.m4s + a per-rendition init.mp4) instead of MPEG-TS. */
+    private final boolean fmp4;
     private final List<String> allowedQualities;
+    /** "single-pass" (default): decode once, split into every rung. "per-rendition": one FFmpeg per rung. */
+    private final boolean singlePass;
+    /** Publish the lowest rung as soon as it is encoded, before the rest of the ladder. */
+    private final boolean progressive;
+    /** Cut a rung the source already matches straight into segments (see {@link #streamCopyRung}). */
+    private final boolean streamCopy;
+    private final double streamCopyMaxBitrateFactor;
+    /** Split a source at least this long into pieces encoded in parallel (see {@link #transcodeSplit}). */
+    private final boolean split;
+    private final int splitMinSeconds;
+    private final int pieceSeconds;
+    private final int threadsPerPiece;
+    /** Shape the ladder to the source's measured complexity (see {@link #perTitle}). */
+    private final boolean perTitle;
+    private final double perTitleMinStep;
 
     @Autowired
     private SystemSettingService settingService;
@@ -55,9 +90,32 @@ public class TranscodingService {
     /** Human-readable stage exposed via GET /api/upload/status/{id} */
     private final ConcurrentHashMap<String, String> processingStages = new ConcurrentHashMap<>();
 
-    /** Per-quality progress (0-100) per video, for detailed UI feedback */
-    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>> qualityProgressMap =
-            new ConcurrentHashMap<>();
+    /** Progress of the transcode running for each video — per quality for the UI, overall for the DB. */
+    private final ConcurrentHashMap<String, TranscodeProgress> transcodeProgress = new ConcurrentHashMap<>();
+
+    /** Streaming segment uploads of the transcode running for each video. */
+    private final ConcurrentHashMap<String, HlsSegmentUploader.Session> segmentSessions = new ConcurrentHashMap<>();
+
+    /**
+     * A stream-copy rung that was encoded after all, keyed by "{videoId}_{label}":
+     * published with its encoder's CODECS instead of the source's.
+     */
+    private final ConcurrentHashMap<String, QualityProfile> reencodedCopies = new ConcurrentHashMap<>();
+
+    /** Bitrates of a stitched rendition keyed by "{videoId}_{label}", measured from its pieces. */
+    private final ConcurrentHashMap<String, Bitrate> renditionRates = new ConcurrentHashMap<>();
+
+    /**
+     * Trick-play sheets a video still needs, taken by the first run that decodes
+     * the whole source (see {@link #claimSprites}).
+     */
+    private final ConcurrentHashMap<String, SpriteJob> pendingSprites = new ConcurrentHashMap<>();
+
+    /** Sheets a split transcode's pieces produced and uploaded, keyed by video. */
+    private final ConcurrentHashMap<String, List<SpriteSheets.Run>> stitchedSprites = new ConcurrentHashMap<>();
+
+    /** EXT-X-IMAGE-STREAM-INF of each video's published trick-play track, for {@link #masterPlaylist}. */
+    private final ConcurrentHashMap<String, String> imageStreams = new ConcurrentHashMap<>();
 
     /** Last FFmpeg failure reason keyed by "{videoId}_{label}", for diagnostics. */
     private final ConcurrentHashMap<String, String> failureReasons = new ConcurrentHashMap<>();
@@ -68,8 +126,8 @@ public class TranscodingService {
 
     /** Returns a snapshot of per-quality progress for the given video (empty if not transcoding). */
     public Map<String, Integer> getQualityProgress(String videoId) {
-        ConcurrentHashMap<String, Integer> m = qualityProgressMap.get(videoId);
-        return m != null ? Map.copyOf(m) : Map.of();
+        TranscodeProgress progress = transcodeProgress.get(videoId);
+        return progress != null ? progress.snapshot() : Map.of();
     }
 
     /**
@@ -93,130 +151,257 @@ public class TranscodingService {
         log.info("[Transcoding] Cancelled all processes for video={}", videoId);
     }
 
+    /** Shown while a failed attempt waits in the queue for its retry. */
+    public void markRetrying(String videoId, int attempt, int maxAttempts, String reason) {
+        processingStages.put(videoId, "Retrying (attempt " + attempt + "/" + maxAttempts + " failed: " + reason + ")");
+    }
+
     /**
-     * On startup, marks any video stuck in UPLOADING / UPLOADED / PROCESSING as FAILED.
-     * These states indicate the server restarted before the operation could complete.
+     * Final failure once the queue has no attempts left: surface the reason,
+     * mark the video FAILED and drop the upload scratch file.
      */
-    @PostConstruct
-    public void recoverStuckTranscodings() {
-        List<VideoStatus> stuck = List.of(VideoStatus.UPLOADING, VideoStatus.UPLOADED, VideoStatus.PROCESSING);
-        List<Video> stuckVideos = videoService.getVideosByStatusIn(stuck);
-        if (stuckVideos.isEmpty()) return;
-        log.warn("[Startup] Found {} stuck videos — marking FAILED", stuckVideos.size());
-        for (Video video : stuckVideos) {
-            log.warn("[Startup] Recovering video={} status={}", video.getId(), video.getStatus());
-            try {
-                videoService.updateVideoStatus(video.getId(), VideoStatus.FAILED);
-                processingStages.put(video.getId(), "Failed: Server restarted");
-            } catch (Exception e) {
-                log.error("[Startup] Failed to recover video={}: {}", video.getId(), e.getMessage());
-            }
+    public void failVideo(String videoId, String input, String reason) {
+        processingStages.put(videoId, "Failed: " + reason);
+        try {
+            videoService.updateProcessingError(videoId, reason);   // surface WHY to the UI
+            // A progressively published video stays playable at the rungs it has.
+            boolean playable = videoService.getVideo(videoId)
+                    .map(v -> v.getStatus() == VideoStatus.READY).orElse(false);
+            if (!playable) videoService.updateVideoStatus(videoId, VideoStatus.FAILED);
+            // A stored original stays in MinIO — it is the user's upload, removed with the video.
+            if (!isStored(input)) Files.deleteIfExists(Paths.get(input));
+        } catch (Exception e) {
+            log.warn("[Transcoding] Could not mark video={} failed: {}", videoId, e.getMessage());
         }
-        log.info("[Startup] Recovery complete for {} videos", stuckVideos.size());
     }
 
     public TranscodingService(VideoService videoService,
                               ModTubeMetrics metrics,
                               StorageService storageService,
+                              HlsSegmentUploader segmentUploader,
+                              MediaProbe mediaProbe,
+                              ComplexityProbe complexityProbe,
+                              SpriteSheets spriteSheets,
+                              VideoEncoders encoders,
+                              TranscodePieceService pieceService,
                               @Value("${modtube.storage.hls-dir}") String hlsDirPath,
                               @Value("${modtube.storage.thumbnail-dir}") String thumbnailDirPath,
                               @Value("${modtube.transcoding.segment-duration}") int segmentDuration,
-                              @Value("${modtube.transcoding.qualities}") List<String> qualities) {
+                              @Value("${modtube.transcoding.segment-format:ts}") String segmentFormat,
+                              @Value("${modtube.transcoding.qualities}") List<String> qualities,
+                              @Value("${modtube.transcoding.pipeline:single-pass}") String pipeline,
+                              @Value("${modtube.transcoding.progressive:true}") boolean progressive,
+                              @Value("${modtube.transcoding.stream-copy.enabled:true}") boolean streamCopy,
+                              @Value("${modtube.transcoding.stream-copy.max-bitrate-factor:2.0}")
+                              double streamCopyMaxBitrateFactor,
+                              @Value("${modtube.transcoding.split.enabled:true}") boolean split,
+                              @Value("${modtube.transcoding.split.min-duration-minutes:30}") int splitMinMinutes,
+                              @Value("${modtube.transcoding.split.piece-minutes:10}") int pieceMinutes,
+                              @Value("${modtube.transcoding.split.threads-per-piece:4}") int threadsPerPiece,
+                              @Value("${modtube.transcoding.per-title.enabled:true}") boolean perTitle,
+                              @Value("${modtube.transcoding.per-title.min-step:1.3}") double perTitleMinStep) {
         this.videoService = videoService;
         this.metrics = metrics;
         this.storageService = storageService;
+        this.segmentUploader = segmentUploader;
+        this.mediaProbe = mediaProbe;
+        this.complexityProbe = complexityProbe;
+        this.spriteSheets = spriteSheets;
+        this.encoders = encoders;
+        this.pieceService = pieceService;
         this.hlsDir = Paths.get(hlsDirPath);
         this.thumbnailDir = Paths.get(thumbnailDirPath);
         this.segmentDuration = segmentDuration;
+        this.fmp4 = "fmp4".equalsIgnoreCase(segmentFormat.trim());
         this.allowedQualities = qualities;
+        this.singlePass = !"per-rendition".equalsIgnoreCase(pipeline.trim());
+        this.progressive = progressive;
+        this.streamCopy = streamCopy;
+        this.streamCopyMaxBitrateFactor = streamCopyMaxBitrateFactor;
+        this.split = split;
+        this.splitMinSeconds = Math.max(1, splitMinMinutes) * 60;
+        this.pieceSeconds = Math.max(1, pieceMinutes) * 60;
+        this.threadsPerPiece = Math.max(1, threadsPerPiece);
+        this.perTitle = perTitle;
+        this.perTitleMinStep = Math.max(1.0, perTitleMinStep);
     }
 
-    @Async("videoProcessingExecutor")
-    public void transcodeToHLS(String videoId, Path inputFile) {
+    private static boolean isStored(String input) {
+        return input.startsWith(STORED_INPUT_PREFIX);
+    }
+
+    /** Whether a job's input is still there to transcode (local file, or object in MinIO). */
+    public boolean inputExists(String input) {
+        return isStored(input)
+                ? storageService.stat(input.substring(STORED_INPUT_PREFIX.length())) != null
+                : Files.exists(Paths.get(input));
+    }
+
+    /**
+     * Runs the full HLS pipeline for one upload on a queue worker thread
+     * ({@link TranscodeWorkerPool}). Throws on failure, leaving the upload file
+     * in place, so the queue can retry or call {@link #failVideo}.
+     *
+     * {@code input} is a local path, or {@link #STORED_INPUT_PREFIX} + key for an
+     * original uploaded straight to MinIO: FFmpeg then reads it over a presigned
+     * GET (ranged, so seeks work) and nothing touches the local disk.
+     *
+     * A long source is split into pieces that workers on every node encode in
+     * parallel ({@link #transcodeSplit}); {@code jobId} keys them.
+     */
+    public void transcodeToHLS(Long jobId, String videoId, String input) throws Exception {
         long startMs = System.currentTimeMillis();
         metrics.incrementActiveTranscodings();
+        HlsSegmentUploader.Session segments = null;
         try {
             log.info("[Transcoding] ▶ Starting video={}", videoId);
             processingStages.put(videoId, "Starting");
-            videoService.updateVideoStatus(videoId, VideoStatus.PROCESSING);
+            // A retry after a progressive publish keeps the video playable while it re-runs.
+            boolean playable = videoService.getVideo(videoId)
+                    .map(v -> v.getStatus() == VideoStatus.READY).orElse(false);
+            if (!playable) videoService.updateVideoStatus(videoId, VideoStatus.PROCESSING);
             videoService.updateProcessingProgress(videoId, 0);
 
             Path outputDir = hlsDir.resolve(videoId);
             Files.createDirectories(outputDir);
+            // Segments stream to MinIO as FFmpeg closes them; playlists follow once drained.
+            segments = segmentUploader.start(videoId, outputDir, "hls/" + videoId);
+            segmentSessions.put(videoId, segments);
+
+            boolean stored = isStored(input);
+            String originalKey = stored ? input.substring(STORED_INPUT_PREFIX.length()) : null;
+            Path inputFile = stored ? null : Paths.get(input);
+            String source;
+            long sourceSize;
+            if (stored) {
+                StorageService.ObjectMeta original = storageService.stat(originalKey);
+                if (original == null) throw new IllegalStateException("Stored original is missing: " + originalKey);
+                source = storageService.presignGet(originalKey, STORED_INPUT_URL_SECONDS);
+                sourceSize = original.size();
+            } else {
+                source = inputFile.toAbsolutePath().toString();
+                sourceSize = Files.size(inputFile);
+            }
 
             // Stage 1: thumbnail (0 → 5%)
             processingStages.put(videoId, "Generating thumbnail");
-            generateThumbnail(videoId, inputFile);
+            generateThumbnail(videoId, source);
             videoService.updateProcessingProgress(videoId, 5);
 
-            // Stage 2: probe (5%)
-            processingStages.put(videoId, "Analysing video");
-            VideoInfo info = getVideoInfo(inputFile);
-            log.info("[Transcoding] video={} size={}x{} duration={}s",
-                    videoId, info.width, info.height, info.durationSeconds);
+            // Stage 2: probe (5%) — normally done at ingest, while the upload was still arriving.
+            Video probed = videoService.getVideo(videoId).orElse(null);
+            VideoInfo info = probed != null ? VideoInfo.of(probed) : null;
+            List<QualityProfile> profiles = probed != null ? plannedProfiles(probed.getPlannedQualities()) : List.of();
+            if (info == null || profiles.isEmpty()) {
+                processingStages.put(videoId, "Analysing video");
+                MediaProbe.MediaInfo media = mediaProbe.probe(source)
+                        .filter(MediaProbe.MediaInfo::hasVideo)
+                        .orElseThrow(() -> new IOException("ffprobe found no readable video stream in the source"));
+                info = VideoInfo.of(media);
+                profiles = buildQualityProfiles(info);
+                videoService.updateSourceInfo(videoId, media, profiles.stream().map(QualityProfile::label).toList());
+            }
+            log.info("[Transcoding] video={} size={}x{} duration={}s ladder={}", videoId, info.width,
+                    info.height, info.durationSeconds, profiles.stream().map(QualityProfile::label).toList());
             videoService.updateVideoMetadata(videoId, info.width, info.height,
-                    info.durationSeconds, Files.size(inputFile));
+                    info.durationSeconds, sourceSize);
+
+            // Stage 3: renditions (5 → 95%)
+            // Encoder and preset per rung, from the settings at the time the transcode starts.
+            boolean hasAudio = info.hasAudio;
+            profiles = profiles.stream().map(p -> p.encodedWith(encoders.forRung(p.label, fmp4), hasAudio)).toList();
+            // A rung the source already matches is segmented as-is, at the source bitrate.
+            QualityProfile copy = streamCopyRung(videoId, source, info, profiles);
+            if (copy != null) {
+                profiles = new ArrayList<>(profiles);
+                profiles.replaceAll(p -> p.label.equals(copy.label) ? copy : p);
+            }
+            // Per-title: rungs, CRF and maxrate from a quick sample encode of the source.
+            if (perTitle) {
+                processingStages.put(videoId, "Measuring complexity");
+                profiles = perTitle(videoId, source, info, profiles, copy);
+            }
 
-            // Stage 3: per-quality transcoding (5 → 95%), qualities run in parallel
-            List<QualityProfile> profiles = buildQualityProfiles(info);
+            // Trick-play sheets ride along with the first run that decodes the whole source.
+            if (spriteSheets.enabled() && info.durationSeconds > 0) {
+                Path imagesDir = outputDir.resolve("images");
+                pendingSprites.put(videoId, new SpriteJob(imagesDir,
+                        spriteSheets.outputArgs(imagesDir, "sprite", info.width, info.height)));
+            }
 
-            // Shared overall progress + per-quality progress for UI feedback
-            AtomicInteger sharedProgress = new AtomicInteger(5);
-            ConcurrentHashMap<String, Integer> qp = new ConcurrentHashMap<>();
-            profiles.forEach(p -> qp.put(p.label, 0));
-            qualityProgressMap.put(videoId, qp);
+            // Per-quality progress for the UI; the overall figure is written by flushProgress.
+            TranscodeProgress progress = new TranscodeProgress(profiles.stream().map(QualityProfile::label).toList());
+            transcodeProgress.put(videoId, progress);
 
             processingStages.put(videoId, "Transcoding " + profiles.stream()
                 .map(p -> p.label).reduce((a, b) -> a + "+" + b).orElse(""));
 
-            // Cap concurrent FFmpeg jobs so decoding a 4K source N times in parallel
-            // doesn't blow the container memory limit (OOM → killed renditions /
-            // restart). At most 2 run at once; the rest queue. Each gets a fair
-            // thread share of the box.
-            final int maxParallel = Math.max(1, Math.min(2, profiles.size()));
-            ExecutorService pool = Executors.newFixedThreadPool(maxParallel);
-            boolean[] results = new boolean[profiles.size()];
-            try {
-                List<CompletableFuture<Map.Entry<Integer, Boolean>>> futures = new ArrayList<>();
-                for (int i = 0; i < profiles.size(); i++) {
-                    final QualityProfile profile = profiles.get(i);
-                    final int idx = i;
-                    futures.add(CompletableFuture.supplyAsync(() -> {
-                        boolean ok = transcodeQuality(videoId, inputFile, outputDir, profile,
-                                sharedProgress, qp, maxParallel);
-                        return Map.entry(idx, ok);
-                    }, pool));
+            // Progressive mode: encode the lowest rung alone (or take the stream-copied one,
+            // which is ready in seconds), publish it and mark the video READY, then encode
+            // the rest and add each to master.m3u8 as it lands. A split source skips the
+            // lone encode — it would take as long as the whole ladder unsplit.
+            SplitJob splitJob = jobId != null && splits(info) ? new SplitJob(jobId, input) : null;
+            boolean early = progressive && profiles.size() > 1 && (copy != null || splitJob == null);
+            List<QualityProfile> published = new ArrayList<>();
+            List<QualityProfile> ladder = profiles;
+            if (early) {
+                QualityProfile first = copy != null ? copy : profiles.get(0);
+                processingStages.put(videoId, "Transcoding " + first.label + " (first playable)");
+                if (!copyOrEncode(videoId, source, outputDir, first, copy, progress, 1)) {
+                    String reason = failureReasons.remove(videoId + "_" + first.label);
+                    throw new IllegalStateException("First rendition " + first.label + " failed: "
+                            + (reason != null ? reason : "unknown"));
                 }
-                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-                for (CompletableFuture<Map.Entry<Integer, Boolean>> f : futures) {
-                    Map.Entry<Integer, Boolean> r = f.join();
-                    results[r.getKey()] = r.getValue();
-                }
-            } finally {
-                pool.shutdown();
+                publishRendition(videoId, outputDir, first, published, segments);
+                videoService.updateVideoStatus(videoId, VideoStatus.READY);
+                log.info("[Transcoding] video={} playable at {} after {}s", videoId, first.label,
+                        (System.currentTimeMillis() - startMs) / 1000);
+                ladder = profiles.stream().filter(p -> p != first).toList();
+                processingStages.put(videoId, "Playable — transcoding " + ladder.stream()
+                        .map(p -> p.label).reduce((a, b) -> a + "+" + b).orElse(""));
             }
-            qualityProgressMap.remove(videoId);
 
-            StringBuilder masterPlaylist = new StringBuilder();
-            masterPlaylist.append("#EXTM3U\n#EXT-X-VERSION:3\n");
+            boolean[] results;
+            try {
+                results = transcodeLadder(videoId, source, outputDir, ladder, info, copy, splitJob,
+                        progress);
+            } catch (Exception e) {
+                // Once published, the higher rungs are a bonus — keep what is already playable.
+                if (!early || isCancelled(videoId)) throw e;
+                log.warn("[Transcoding] video={} higher renditions failed, staying at {}: {}",
+                        videoId, published.get(0).label, e.getMessage());
+                results = new boolean[ladder.size()];
+            }
+            transcodeProgress.remove(videoId);
+            boolean anyOk = early;
+            for (boolean ok : results) anyOk |= ok;
+            if (anyOk) publishTrickPlay(videoId, outputDir, source, info, early ? published : null);
 
-            int okCount = 0;
+            int okCount = published.size();
             List<String> failedLabels = new ArrayList<>();
-            for (int i = 0; i < profiles.size(); i++) {
+            for (int i = 0; i < ladder.size(); i++) {
+                QualityProfile profile = ladder.get(i);
                 if (!results[i]) {
-                    String reason = failureReasons.remove(videoId + "_" + profiles.get(i).label);
+                    String reason = failureReasons.remove(videoId + "_" + profile.label);
                     log.error("[Transcoding] ✗ quality={} video={} reason={}",
-                            profiles.get(i).label, videoId, reason != null ? reason : "unknown");
-                    failedLabels.add(profiles.get(i).label);
+                            profile.label, videoId, reason != null ? reason : "unknown");
+                    failedLabels.add(profile.label);
                     continue;
                 }
-                QualityProfile profile = profiles.get(i);
-                masterPlaylist.append("#EXT-X-STREAM-INF:BANDWIDTH=")
-                        .append(profile.bandwidth)
-                        .append(",RESOLUTION=")
-                        .append(profile.width).append("x").append(profile.height)
-                        .append("\n").append(profile.label).append("/playlist.m3u8\n");
-                videoService.addQualityToVideo(videoId, profile.label);
+                if (early) {
+                    try {
+                        publishRendition(videoId, outputDir, profile, published, segments);
+                    } catch (Exception e) {
+                        if (isCancelled(videoId)) throw e;
+                        log.warn("[Transcoding] Could not publish {} for video={}: {}",
+                                profile.label, videoId, e.getMessage());
+                        failedLabels.add(profile.label);
+                        continue;
+                    }
+                } else {
+                    published.add(profile);
+                    videoService.addQualityToVideo(videoId, profile.label);
+                }
                 okCount++;
             }
 
@@ -234,30 +419,45 @@ public class TranscodingService {
             // Stage 4: finalise (95 → 100%)
             processingStages.put(videoId, "Finalising");
             videoService.updateProcessingProgress(videoId, 95);
-            Files.writeString(outputDir.resolve("master.m3u8"), masterPlaylist.toString());
 
             // Stage 5: store HLS output to MinIO, then free scratch.
-            processingStages.put(videoId, "Uploading to storage");
-            storageService.uploadDirectory(outputDir, "hls/" + videoId);
-            log.info("[Transcoding] Uploaded HLS for video={} ({} renditions) to MinIO", videoId, okCount);
+            // (Progressive mode has already uploaded every rendition and the master.)
+            if (!early) {
+                processingStages.put(videoId, "Uploading to storage");
+                for (int i = 0; i < published.size(); i++) {
+                    QualityProfile profile = published.get(i);
+                    segments.drain(outputDir.resolve(profile.label));
+                    published.set(i, measured(videoId, profile, outputDir.resolve(profile.label), segments));
+                }
+                // Only playlists are left locally — segments were uploaded (and deleted) as they closed.
+                Files.writeString(outputDir.resolve("master.m3u8"), masterPlaylist(videoId, published));
+                storageService.uploadDirectory(outputDir, "hls/" + videoId);
+                log.info("[Transcoding] Uploaded HLS for video={} ({} renditions) to MinIO", videoId, okCount);
+            }
 
             // Keep the ORIGINAL upload in MinIO (originals/{id}/<filename>) so it can be downloaded.
+            // A direct upload is already there.
             try {
-                String origName = inputFile.getFileName().toString();
-                String origKey = "originals/" + videoId + "/" + origName;
-                storageService.putObject(origKey, inputFile, StorageService.contentTypeFor(origName));
-                videoService.updateOriginalUrl(videoId, "/originals/" + videoId + "/" + origName);
-                log.info("[Transcoding] Stored original upload for video={} as {}", videoId, origKey);
+                if (stored) {
+                    videoService.updateOriginalUrl(videoId, "/" + originalKey);
+                } else {
+                    String origName = inputFile.getFileName().toString();
+                    String origKey = "originals/" + videoId + "/" + origName;
+                    storageService.putObject(origKey, inputFile, StorageService.contentTypeFor(origName));
+                    videoService.updateOriginalUrl(videoId, "/originals/" + videoId + "/" + origName);
+                    log.info("[Transcoding] Stored original upload for video={} as {}", videoId, origKey);
+                }
             } catch (Exception e) {
                 // Non-fatal: HLS already stored. Log but don't fail the video.
                 log.warn("[Transcoding] Could not store original for video={}: {}", videoId, e.getMessage());
             }
 
             // Remove ALL local scratch — nothing is persisted on disk; everything lives in MinIO.
-            try { Files.deleteIfExists(inputFile); }
+            try { if (inputFile != null) Files.deleteIfExists(inputFile); }
             catch (IOException e) { log.warn("[Transcoding] Could not delete original scratch: {}", e.getMessage()); }
             deleteDirectoryRecursive(outputDir);
             deleteDirectoryRecursive(thumbnailDir.resolve(videoId));
+            if (splitJob != null) pieceService.clear(jobId);
 
             videoService.updateProcessingProgress(videoId, 100);
             videoService.updateVideoStatus(videoId, VideoStatus.READY);
@@ -273,17 +473,23 @@ public class TranscodingService {
             processingStages.put(videoId, "Failed: " + reason);
             metrics.recordTranscodingFailure();
             metrics.recordTranscodingDuration(System.currentTimeMillis() - startMs);
-            try {
-                videoService.updateProcessingError(videoId, reason);   // surface WHY to the UI
-                videoService.updateVideoStatus(videoId, VideoStatus.FAILED);
-                Files.deleteIfExists(inputFile);
-            } catch (IOException ignored) {}
+            transcodeProgress.remove(videoId);
+            if (segments != null) segments.close();
+            // Partial renditions are useless to a retry — the next attempt starts clean.
+            deleteDirectoryRecursive(hlsDir.resolve(videoId));
+            throw e;
         } finally {
+            if (segments != null) segments.close();
+            segmentSessions.remove(videoId);
+            pendingSprites.remove(videoId);
+            stitchedSprites.remove(videoId);
+            imageStreams.remove(videoId);
+            reencodedCopies.keySet().removeIf(key -> key.startsWith(videoId + "_"));
             metrics.decrementActiveTranscodings();
         }
     }
 
-    private void generateThumbnail(String videoId, Path inputFile) {
+    private void generateThumbnail(String videoId, String input) {
         Process process = null;
         BufferedReader reader = null;
 
@@ -294,7 +500,7 @@ public class TranscodingService {
 
             ProcessBuilder pb = new ProcessBuilder(
                     "ffmpeg", "-y",
-                    "-i", inputFile.toAbsolutePath().toString(),
+                    "-i", input,
                     "-ss", "00:00:05",
                     "-vframes", "1",
                     "-vf", "scale=640:-1",
@@ -337,127 +543,857 @@ public class TranscodingService {
         }
     }
 
+    /**
+     * Encodes the given rungs: split into pieces for a long source, otherwise
+     * single-pass when enabled, falling back to one FFmpeg per rendition. The
+     * {@code copy} rung, if among them, is stream-copied first.
+     */
+    private boolean[] transcodeLadder(String videoId, String input, Path outputDir,
+                                      List<QualityProfile> profiles, VideoInfo info, QualityProfile copy,
+                                      SplitJob splitJob, TranscodeProgress progress) throws Exception {
+        int copyIndex = copy != null ? profiles.indexOf(copy) : -1;
+        if (copyIndex >= 0) {
+            boolean copied = copyOrEncode(videoId, input, outputDir, copy, copy, progress, 1);
+            List<QualityProfile> encode = new ArrayList<>(profiles);
+            encode.remove(copyIndex);
+            boolean[] encoded = encode.isEmpty() ? new boolean[0]
+                    : transcodeLadder(videoId, input, outputDir, encode, info, null, splitJob, progress);
+            boolean[] results = new boolean[profiles.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = i == copyIndex ? copied : encoded[i < copyIndex ? i : i - 1];
+            }
+            return results;
+        }
+        if (splitJob != null) {
+            return transcodeSplit(splitJob, videoId, input, outputDir, profiles, info, progress);
+        }
+        if (singlePass && profiles.size() > 1) {
+            boolean[] results = transcodeSinglePass(videoId, input, outputDir, profiles, info, progress);
+            if (results != null) return results;
+            if (isCancelled(videoId)) {
+                throw new IllegalStateException("Transcoding cancelled");
+            }
+            log.warn("[Transcoding] single-pass ladder failed for video={} — falling back to one FFmpeg per rendition",
+                    videoId);
+            profiles.forEach(p -> progress.set(p.label, 0));
+        }
+        return transcodePerRendition(videoId, input, outputDir, profiles, progress);
+    }
+
+    private boolean splits(VideoInfo info) {
+        return split && info.durationSeconds >= splitMinSeconds;
+    }
+
+    /**
+     * Split-and-stitch for a long source, so its wall-clock time scales with the
+     * cores available instead of its duration. The source is cut near every
+     * piece-minutes mark at the closest keyframe — encoders put those on scene
+     * changes, so the keyframe each piece has to start with costs nothing extra.
+     * The pieces are queued for {@link TranscodePieceWorker}s on every node that
+     * can read the input; each encodes the whole ladder over its time range, its
+     * timestamps offset to where it starts, and uploads its segments as they
+     * close. This worker waits for them, then writes each rung's playlist from
+     * the pieces' segment lists, in order. A failed piece fails the run; the
+     * retry keeps the pieces that finished.
+     */
+    private boolean[] transcodeSplit(SplitJob job, String videoId, String source, Path outputDir,
+                                     List<QualityProfile> profiles, VideoInfo info,
+                                     TranscodeProgress progress) throws Exception {
+        processingStages.put(videoId, "Finding split points");
+        List<Double> cuts = splitCuts(videoId, source, info.durationSeconds);
+        String ladder = String.join(",", profiles.stream().map(QualityProfile::spec).toList());
+        List<TranscodePiece> pieces = pieceService.plan(job.jobId(), videoId, job.input(), ladder, cuts);
+        processingStages.put(videoId, "Transcoding " + String.join("+", profiles.stream().map(QualityProfile::label)
+                .toList()) + " in " + pieces.size() + " pieces");
+
+        while (true) {
+            if (isCancelled(videoId)) throw new IllegalStateException("Transcoding cancelled");
+            pieces = pieceService.pieces(job.jobId());
+            if (pieces.size() != cuts.size() + 1) {
+                throw new IllegalStateException("Pieces of job " + job.jobId() + " were removed");
+            }
+            int done = 0;
+            for (TranscodePiece piece : pieces) {
+                if (piece.getStatus() == TranscodeJobStatus.FAILED) {
+                    throw new IllegalStateException("Piece " + piece.getPiece() + " failed: " + piece.getLastError());
+                }
+                if (piece.getStatus() == TranscodeJobStatus.DONE) done++;
+            }
+            int pct = done * 100 / pieces.size();
+            profiles.forEach(p -> progress.set(p.label, pct));
+            if (done == pieces.size()) break;
+            Thread.sleep(PIECE_POLL_MS);
+        }
+
+        for (QualityProfile profile : profiles) {
+            Path qualityDir = outputDir.resolve(profile.label);
+            Files.createDirectories(qualityDir);
+            Files.writeString(qualityDir.resolve("playlist.m3u8"), stitchedPlaylist(profile.label, pieces));
+            Bitrate rate = Bitrate.of(pieceSegmentSizes(profile.label, pieces), segmentDuration);
+            if (rate != null) renditionRates.put(videoId + "_" + profile.label, rate);
+        }
+        List<SpriteSheets.Run> sprites = pieceSprites(pieces, info.durationSeconds);
+        if (!sprites.isEmpty() && pendingSprites.remove(videoId) != null) stitchedSprites.put(videoId, sprites);
+        deleteDirectoryRecursive(hlsDir.resolve(videoId + "-pieces"));
+        log.info("[Transcoding] ✓ split video={} stitched {} piece(s)", videoId, pieces.size());
+        boolean[] results = new boolean[profiles.size()];
+        java.util.Arrays.fill(results, true);
+        return results;
+    }
+
+    /**
+     * Cut points (seconds) splitting a {@code duration}-second source into
+     * pieces of about piece-minutes, each moved to the nearest keyframe within
+     * a quarter piece (at most 30 s). Without a keyframe nearby the cut stays
+     * where it is — the pieces are re-encoded, so any frame will do.
+     */
+    private List<Double> splitCuts(String videoId, String source, int duration) throws InterruptedException {
+        int count = Math.max(2, Math.round((float) duration / pieceSeconds));
+        double window = Math.min(30, pieceSeconds / 4.0);
+        List<Double> cuts = new ArrayList<>();
+        double previous = 0;
+        for (int i = 1; i < count; i++) {
+            double target = (double) duration * i / count;
+            double cut = target;
+            try {
+                cut = mediaProbe.keyframeNear(source, target, window).orElse(target);
+            } catch (IOException e) {
+                log.debug("[Transcoding] keyframe scan at {}s failed for video={}: {}", (long) target, videoId,
+                        e.getMessage());
+            }
+            // Keep every piece at least a couple of segments long.
+            if (cut - previous < 2 * segmentDuration || duration - cut < 2 * segmentDuration) continue;
+            cut = Math.round(cut * 1000) / 1000.0;
+            cuts.add(cut);
+            previous = cut;
+        }
+        return cuts;
+    }
+
+    /**
+     * One rung's VOD playlist over every piece's segments, in piece order. In
+     * fMP4 each piece brings its own init segment, declared ahead of its media.
+     */
+    private String stitchedPlaylist(String label, List<TranscodePiece> pieces) {
+        StringBuilder body = new StringBuilder();
+        double longest = 0;
+        for (TranscodePiece piece : pieces) {
+            int found = 0;
+            for (String line : (piece.getSegments() != null ? piece.getSegments() : "").split("\n")) {
+                String[] f = line.split(" ");
+                if (f.length < 3 || !f[0].equals(label)) continue;
+                if (f[1].equals("init")) {
+                    body.append("#EXT-X-MAP:URI=\"").append(f[2]).append("\"\n");
+                    continue;
+                }
+                longest = Math.max(longest, Double.parseDouble(f[1]));
+                body.append("#EXTINF:").append(f[1]).append(",\n").append(f[2]).append('\n');
+                found++;
+            }
+            if (found == 0) {
+                throw new IllegalStateException("Piece " + piece.getPiece() + " has no " + label + " segments");
+            }
+        }
+        return "#EXTM3U\n#EXT-X-VERSION:" + hlsVersion() + "\n#EXT-X-TARGETDURATION:" + (int) Math.ceil(longest)
+                + "\n#EXT-X-MEDIA-SEQUENCE:0\n#EXT-X-PLAYLIST-TYPE:VOD\n#EXT-X-INDEPENDENT-SEGMENTS\n"
+                + body + "#EXT-X-ENDLIST\n";
+    }
+
+    /** (duration, bytes) of one rung's segments across all pieces, for {@link Bitrate#of}. */
+    private static List<double[]> pieceSegmentSizes(String label, List<TranscodePiece> pieces) {
+        List<double[]> sizes = new ArrayList<>();
+        for (TranscodePiece piece : pieces) {
+            for (String line : (piece.getSegments() != null ? piece.getSegments() : "").split("\n")) {
+                String[] f = line.split(" ");
+                if (f.length < 4 || !f[0].equals(label)) continue;
+                try {
+                    sizes.add(new double[]{Double.parseDouble(f[1]), Long.parseLong(f[3])});
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return sizes;
+    }
+
+    /** Each piece's trick-play sheets ("images {sheet} {bytes}" lines), over the piece's time range. */
+    private static List<SpriteSheets.Run> pieceSprites(List<TranscodePiece> pieces, int duration) {
+        List<SpriteSheets.Run> runs = new ArrayList<>();
+        for (TranscodePiece piece : pieces) {
+            List<String> sheets = new ArrayList<>();
+            long bytes = 0;
+            for (String line : (piece.getSegments() != null ? piece.getSegments() : "").split("\n")) {
+                String[] f = line.split(" ");
+                if (f.length < 3 || !f[0].equals("images")) continue;
+                sheets.add(f[1]);
+                try {
+                    bytes += Long.parseLong(f[2]);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            if (sheets.isEmpty()) continue;
+            double length = piece.getLengthSeconds() != null ? piece.getLengthSeconds()
+                    : duration - piece.getStartSeconds();
+            runs.add(new SpriteSheets.Run(piece.getStartSeconds(), length, sheets, bytes));
+        }
+        return runs;
+    }
+
+    /**
+     * Encodes one piece of a split transcode into every rung of its ladder, on a
+     * {@link TranscodePieceWorker} thread — possibly on another node than the
+     * job's. Segments are named after the piece (seg_p003_00000.ts) and go
+     * straight to the video's rendition prefixes in MinIO as FFmpeg closes
+     * them. Its trick-play sheets come out of the same run. Returns the
+     * piece's segment list ("{rung} {duration} {segment} {bytes}" lines, plus
+     * "images {sheet} {bytes}") for the stitch; throws on failure.
+     */
+    public String encodePiece(TranscodePiece piece) throws Exception {
+        String videoId = piece.getVideoId();
+        String tag = pieceTag(piece);
+        VideoInfo info = videoService.getVideo(videoId).map(VideoInfo::of).orElse(null);
+        if (info == null) throw new IllegalStateException("No probed source info for video " + videoId);
+        List<QualityProfile> profiles = new ArrayList<>();
+        for (String spec : piece.getLadder().split(",")) {
+            // "label/crf/maxrate-kbps/encoder:preset", see QualityProfile#spec
+            String[] f = spec.split("/");
+            QualityProfile rung = LADDER.stream().filter(q -> q.label.equals(f[0])).findFirst()
+                    .orElseThrow(() -> new IllegalStateException("Unknown rendition " + f[0]));
+            if (f.length >= 3) rung = rung.tuned(Integer.parseInt(f[1]), Integer.parseInt(f[2]) * 1000);
+            profiles.add(rung.encodedWith(encoders.parse(f.length >= 4 ? f[3] : null), info.hasAudio));
+        }
+
+        String input = piece.getInputPath();
+        String source = isStored(input)
+                ? storageService.presignGet(input.substring(STORED_INPUT_PREFIX.length()), STORED_INPUT_URL_SECONDS)
+                : input;
+        String start = String.format(Locale.ROOT, "%.3f", piece.getStartSeconds());
+        List<String> inputArgs = new ArrayList<>(List.of("-ss", start));
+        if (piece.getLengthSeconds() != null) {
+            inputArgs.addAll(List.of("-t", String.format(Locale.ROOT, "%.3f", piece.getLengthSeconds())));
+        }
+        inputArgs.addAll(List.of("-i", source));
+
+        // Outside {hlsDir}/{videoId}: that is the job's own upload session's tree.
+        Path pieceDir = hlsDir.resolve(videoId + "-pieces").resolve(tag);
+        deleteDirectoryRecursive(pieceDir);
+        List<String> cmd = ladderCommand(inputArgs, List.of("-output_ts_offset", start), pieceDir, profiles,
+                info.hasAudio, threadsPerPiece, "seg_" + tag, "init_" + tag + ".mp4", "piece.m3u8");
+        Path spriteDir = pieceDir.resolve("images");
+        if (spriteSheets.enabled()) {
+            cmd.addAll(spriteSheets.outputArgs(spriteDir, "sprite_" + tag, info.width, info.height));
+        }
+        HlsSegmentUploader.Session segments = segmentUploader.start(videoId, pieceDir, "hls/" + videoId);
+        try {
+            FfmpegResult result = runFfmpeg(videoId + "_" + tag, cmd, ratio -> {});
+            if (!result.ok()) {
+                throw new IOException((result.exitCode() < 0
+                        ? "timeout after " + PROCESS_TIMEOUT_MINUTES + "m"
+                        : "FFmpeg exit=" + result.exitCode()) + " :: " + result.tail());
+            }
+            segments.drain(pieceDir);
+
+            StringBuilder list = new StringBuilder();
+            for (QualityProfile profile : profiles) {
+                String duration = null;
+                for (String line : Files.readAllLines(pieceDir.resolve(profile.label).resolve("piece.m3u8"))) {
+                    if (line.startsWith("#EXT-X-MAP:")) {
+                        int open = line.indexOf('"');
+                        int close = line.indexOf('"', open + 1);
+                        if (open >= 0 && close > open) {
+                            list.append(profile.label).append(" init ").append(line, open + 1, close).append('\n');
+                        }
+                    } else if (line.startsWith("#EXTINF:")) {
+                        int comma = line.indexOf(',');
+                        duration = line.substring(8, comma < 0 ? line.length() : comma).trim();
+                    } else if (duration != null && !line.isBlank() && !line.startsWith("#")) {
+                        long bytes = segments.storedSize(pieceDir.resolve(profile.label).resolve(line.trim()));
+                        list.append(profile.label).append(' ').append(duration).append(' ')
+                            .append(line.trim()).append(' ').append(bytes).append('\n');
+                        duration = null;
+                    }
+                }
+            }
+            for (Path sheet : spriteSheets.sheets(spriteDir, "sprite_" + tag)) {
+                String name = sheet.getFileName().toString();
+                storageService.putObject("hls/" + videoId + "/images/" + name, sheet, StorageService.contentTypeFor(name));
+                list.append("images ").append(name).append(' ').append(Files.size(sheet)).append('\n');
+            }
+            log.info("[Transcoding] ✓ piece {} of video={} ({} MB uploaded)", tag, videoId,
+                    segments.uploadedBytes() / (1024 * 1024));
+            return list.toString();
+        } finally {
+            segments.close();
+            deleteDirectoryRecursive(pieceDir);
+        }
+    }
+
+    /** Kills a piece's FFmpeg on this node (its lease was lost or the node is shutting down). */
+    public void cancelPiece(TranscodePiece piece) {
+        Process p = activeProcesses.remove(piece.getVideoId() + "_" + pieceTag(piece));
+        if (p != null && p.isAlive()) {
+            p.destroyForcibly();
+            log.info("[Transcoding] Killed piece {} of video={}", pieceTag(piece), piece.getVideoId());
+        }
+    }
+
+    private static String pieceTag(TranscodePiece piece) {
+        return String.format("p%03d", piece.getPiece());
+    }
+
+    /**
+     * Waits for one finished rung's segments to reach MinIO, uploads its
+     * playlist, then rewrites and re-uploads master.m3u8 with it
+     * added (served with max-age=0, so players pick up the new rung on their next
+     * master fetch). Local segments are dropped once they are in MinIO.
+     */
+    private void publishRendition(String videoId, Path outputDir, QualityProfile profile,
+                                  List<QualityProfile> published,
+                                  HlsSegmentUploader.Session segments) throws Exception {
+        Path qualityDir = outputDir.resolve(profile.label);
+        segments.drain(qualityDir);
+        storageService.uploadDirectory(qualityDir, "hls/" + videoId + "/" + profile.label);
+        published.add(measured(videoId, profile, qualityDir, segments));
+        Path master = outputDir.resolve("master.m3u8");
+        Files.writeString(master, masterPlaylist(videoId, published));
+        storageService.putObject("hls/" + videoId + "/master.m3u8", master, StorageService.contentTypeFor("master.m3u8"));
+        videoService.addQualityToVideo(videoId, profile.label);
+        deleteDirectoryRecursive(qualityDir);
+        log.info("[Transcoding] Published {} for video={} ({} rendition(s) live)",
+                profile.label, videoId, published.size());
+    }
+
+    /**
+     * Master playlist for the given rungs, lowest bandwidth first. BANDWIDTH is
+     * the measured peak segment bitrate and AVERAGE-BANDWIDTH the mean, where
+     * {@link #measured} could work them out; otherwise the nominal rate.
+     * CODECS names each rung's encoder output, so a player skips rungs it
+     * can't decode. The trick-play image stream follows once it is published.
+     */
+    private String masterPlaylist(String videoId, List<QualityProfile> profiles) {
+        StringBuilder master = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:" + hlsVersion() + "\n");
+        profiles.stream()
+                .sorted(java.util.Comparator.comparingInt(QualityProfile::bandwidth))
+                .forEach(profile -> master.append("#EXT-X-STREAM-INF:BANDWIDTH=")
+                        .append(profile.bandwidth)
+                        .append(profile.averageBandwidth > 0 ? ",AVERAGE-BANDWIDTH=" + profile.averageBandwidth : "")
+                        .append(",RESOLUTION=")
+                        .append(profile.width).append("x").append(profile.height)
+                        .append(profile.codecs != null ? ",CODECS=\"" + profile.codecs + "\"" : "")
+                        .append("\n").append(profile.label).append("/playlist.m3u8\n"));
+        String images = imageStreams.get(videoId);
+        if (images != null) master.append(images);
+        return master.toString();
+    }
+
+    /** Drops a failed rendition's scratch along with any of its segments still waiting to upload. */
+    private void discardRendition(String videoId, Path qualityDir) {
+        HlsSegmentUploader.Session segments = segmentSessions.get(videoId);
+        if (segments != null) segments.discard(qualityDir);
+        deleteDirectoryRecursive(qualityDir);
+    }
+
+    /**
+     * The video's pending trick-play sheets, for a run about to decode the whole
+     * source to add as an extra output — or null if another run has them.
+     */
+    private SpriteJob claimSprites(String videoId) {
+        return pendingSprites.remove(videoId);
+    }
+
+    /** Hands back sheets whose run failed, so whichever run replaces it writes them. */
+    private void returnSprites(String videoId, SpriteJob sprites) {
+        if (sprites == null || isCancelled(videoId)) return;
+        deleteDirectoryRecursive(sprites.dir());
+        try {
+            Files.createDirectories(sprites.dir());
+            pendingSprites.put(videoId, sprites);
+        } catch (IOException e) {
+            log.warn("[Transcoding] Could not reset trick-play sheets for video={}: {}", videoId, e.getMessage());
+        }
+    }
+
+    /**
+     * Uploads the trick-play sheets to hls/{id}/images/ with their WebVTT track
+     * and image playlist, and lists the image stream in master.m3u8 from now on
+     * (rewriting the live one when {@code published} rungs are already out).
+     * The sheets came out of a rendition run or the pieces; when nothing decoded
+     * the whole source — a stream-copied ladder — a keyframe-only pass makes
+     * them here. Non-fatal: without them the player just has no seek previews.
+     */
+    private void publishTrickPlay(String videoId, Path outputDir, String source, VideoInfo info,
+                                  List<QualityProfile> published) {
+        if (!spriteSheets.enabled() || info.durationSeconds <= 0) return;
+        Path dir = outputDir.resolve("images");
+        String prefix = "hls/" + videoId + "/images/";
+        try {
+            List<SpriteSheets.Run> runs = stitchedSprites.remove(videoId);
+            if (runs == null) {
+                SpriteJob pending = claimSprites(videoId);
+                if (pending != null) {
+                    processingStages.put(videoId, "Generating seek previews");
+                    FfmpegResult result = runFfmpeg(videoId + "_sprites", spriteSheets.keyframeCommand(source,
+                            pending.dir(), "sprite", info.width, info.height), ratio -> {});
+                    if (!result.ok()) {
+                        log.warn("[Transcoding] Trick-play sheets failed for video={}: {}", videoId, result.tail());
+                        return;
+                    }
+                }
+                List<String> sheets = new ArrayList<>();
+                long bytes = 0;
+                for (Path sheet : spriteSheets.sheets(dir, "sprite")) {
+                    String name = sheet.getFileName().toString();
+                    storageService.putObject(prefix + name, sheet, StorageService.contentTypeFor(name));
+                    sheets.add(name);
+                    bytes += Files.size(sheet);
+                }
+                if (sheets.isEmpty()) {
+                    log.warn("[Transcoding] No trick-play sheets were written for video={}", videoId);
+                    return;
+                }
+                runs = List.of(new SpriteSheets.Run(0, info.durationSeconds, sheets, bytes));
+            }
+
+            int[] tile = spriteSheets.tileSize(info.width, info.height);
+            Files.createDirectories(dir);
+            Path vtt = dir.resolve(SpriteSheets.VTT_NAME);
+            Path playlist = dir.resolve(SpriteSheets.PLAYLIST_NAME);
+            Files.writeString(vtt, spriteSheets.webVtt(runs, tile));
+            Files.writeString(playlist, spriteSheets.imagePlaylist(runs, tile));
+            storageService.putObject(prefix + SpriteSheets.VTT_NAME, vtt, StorageService.contentTypeFor(SpriteSheets.VTT_NAME));
+            storageService.putObject(prefix + SpriteSheets.PLAYLIST_NAME, playlist,
+                    StorageService.contentTypeFor(SpriteSheets.PLAYLIST_NAME));
+            imageStreams.put(videoId, spriteSheets.streamInf("images/" + SpriteSheets.PLAYLIST_NAME, runs, tile));
+
+            if (published != null && !published.isEmpty()) {
+                Path master = outputDir.resolve("master.m3u8");
+                Files.writeString(master, masterPlaylist(videoId, published));
+                storageService.putObject("hls/" + videoId + "/master.m3u8", master,
+                        StorageService.contentTypeFor("master.m3u8"));
+            }
+            log.info("[Transcoding] Published trick-play track for video={} ({} sheet(s))", videoId,
+                    runs.stream().mapToInt(r -> r.sheets().size()).sum());
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            log.warn("[Transcoding] Could not publish trick-play track for video={}: {}", videoId, e.getMessage());
+        } finally {
+            // Already in MinIO — keep it out of the final directory upload.
+            deleteDirectoryRecursive(dir);
+        }
+    }
+
+    private boolean isCancelled(String videoId) {
+        return "Cancelled".equals(processingStages.get(videoId));
+    }
+
+    /**
+     * One FFmpeg process per rendition, at most 2 at a time. Each process decodes
+     * the full source again, so this is the fallback when the single-pass graph
+     * fails (and the only mode for a one-rung ladder).
+     */
+    private boolean[] transcodePerRendition(String videoId, String input, Path outputDir,
+                                            List<QualityProfile> profiles,
+                                            TranscodeProgress progress) {
+        // Cap concurrent FFmpeg jobs so decoding a 4K source N times in parallel
+        // doesn't blow the container memory limit (OOM → killed renditions /
+        // restart). At most 2 run at once; the rest queue. Each gets a fair
+        // thread share of the box.
+        final int maxParallel = Math.max(1, Math.min(2, profiles.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(maxParallel);
+        boolean[] results = new boolean[profiles.size()];
+        try {
+            List<CompletableFuture<Map.Entry<Integer, Boolean>>> futures = new ArrayList<>();
+            for (int i = 0; i < profiles.size(); i++) {
+                final QualityProfile profile = profiles.get(i);
+                final int idx = i;
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    boolean ok = transcodeQuality(videoId, input, outputDir, profile,
+                            progress, maxParallel);
+                    return Map.entry(idx, ok);
+                }, pool));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            for (CompletableFuture<Map.Entry<Integer, Boolean>> f : futures) {
+                Map.Entry<Integer, Boolean> r = f.join();
+                results[r.getKey()] = r.getValue();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    /**
+     * Encodes the whole ladder in ONE FFmpeg process: the source is decoded once
+     * and fanned out through split → scale into every rendition, written as a
+     * var_stream_map HLS output ({label}/playlist.m3u8 + segments). This saves
+     * N−1 full decodes and their frame buffers, so the renditions no longer need
+     * the 2-at-a-time cap. Renditions advance in lockstep, so every label gets the
+     * same progress. Returns null if the run failed.
+     */
+    private boolean[] transcodeSinglePass(String videoId, String input, Path outputDir,
+                                          List<QualityProfile> profiles, VideoInfo info,
+                                          TranscodeProgress progress) throws IOException {
+        int usableCores = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        List<String> cmd = ladderCommand(List.of("-i", input), List.of(), outputDir, profiles, info.hasAudio,
+                usableCores, "seg", "init.mp4", "playlist.m3u8");
+        SpriteJob sprites = claimSprites(videoId);
+        if (sprites != null) cmd.addAll(sprites.args());
+
+        log.info("[Transcoding] ▶ single-pass {} video={} cores={}",
+                profiles.stream().map(QualityProfile::label).toList(), videoId, usableCores);
+        try {
+            FfmpegResult result = runFfmpeg(videoId + "_ladder", cmd, ratio -> {
+                int pct = (int) (ratio * 100);
+                profiles.forEach(p -> progress.set(p.label, pct));
+            });
+            if (!result.ok()) {
+                log.error("[Transcoding] ✗ single-pass video={} {} :: {}", videoId,
+                        result.exitCode() < 0 ? "timeout after " + PROCESS_TIMEOUT_MINUTES + "m"
+                                              : "FFmpeg exit=" + result.exitCode(),
+                        result.tail());
+                profiles.forEach(p -> discardRendition(videoId, outputDir.resolve(p.label)));
+                returnSprites(videoId, sprites);
+                return null;
+            }
+        } catch (Exception e) {
+            log.error("[Transcoding] ✗ single-pass error video={}: {}", videoId, e.getMessage());
+            profiles.forEach(p -> discardRendition(videoId, outputDir.resolve(p.label)));
+            returnSprites(videoId, sprites);
+            return null;
+        }
+        profiles.forEach(p -> progress.set(p.label, 100));
+        log.info("[Transcoding] ✓ single-pass video={}", videoId);
+        boolean[] results = new boolean[profiles.size()];
+        java.util.Arrays.fill(results, true);
+        return results;
+    }
+
+    /**
+     * FFmpeg command for the single-pass graph: {@code inputArgs} (ending in -i),
+     * split → scale into every rung, each written to {outputDir}/{label}/ as
+     * segments and a {@code playlistName} playlist (see {@link #hlsArgs}).
+     * {@code cores} encoder threads are shared out by pixel count.
+     */
+    private List<String> ladderCommand(List<String> inputArgs, List<String> outputArgs, Path outputDir,
+                                       List<QualityProfile> profiles, boolean hasAudio, int cores,
+                                       String segmentStem, String initName, String playlistName)
+            throws IOException {
+        int n = profiles.size();
+        long totalPixels = profiles.stream().mapToLong(p -> (long) p.width * p.height).sum();
+
+        StringBuilder graph = new StringBuilder("[0:v]split=").append(n);
+        for (int i = 0; i < n; i++) graph.append("[s").append(i).append(']');
+        for (int i = 0; i < n; i++) {
+            graph.append(";[s").append(i).append(']').append(scaleFilter(profiles.get(i)))
+                 .append("[v").append(i).append(']');
+        }
+
+        List<String> cmd = new ArrayList<>(List.of("ffmpeg", "-y"));
+        cmd.addAll(inputArgs);
+        cmd.addAll(List.of(
+                "-max_muxing_queue_size", "1024",
+                "-filter_complex", graph.toString()));
+        List<String> streamMap = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            QualityProfile p = profiles.get(i);
+            Files.createDirectories(outputDir.resolve(p.label));
+            // Encoder threads in proportion to each rung's pixel count — 2160p does most of the work.
+            long threads = Math.max(1, Math.round((double) cores * p.width * p.height / totalPixels));
+            cmd.addAll(List.of("-map", "[v" + i + "]"));
+            if (hasAudio) cmd.addAll(List.of("-map", "0:a:0"));
+            cmd.addAll(List.of("-threads:v:" + i, String.valueOf(threads)));
+            cmd.addAll(videoArgs(":v:" + i, p));
+            if (p.maxrate > 0) {
+                cmd.addAll(List.of("-maxrate:v:" + i, String.valueOf(p.maxrate),
+                                   "-bufsize:v:" + i, String.valueOf(2L * p.maxrate)));
+            }
+            if (hasAudio) cmd.addAll(List.of("-b:a:" + i, p.audioBitrate()));
+            streamMap.add("v:" + i + (hasAudio ? ",a:" + i : "") + ",name:" + p.label);
+        }
+        cmd.addAll(List.of(
+                "-pix_fmt",  "yuv420p",
+                "-g",        String.valueOf(segmentDuration * 30),
+                "-keyint_min", String.valueOf(segmentDuration * 30),
+                "-force_key_frames", "expr:gte(t,n_forced*" + segmentDuration + ")",
+                "-c:a",      "aac",
+                "-ar",       "44100"));
+        cmd.addAll(outputArgs);
+        cmd.addAll(hlsArgs(outputDir.resolve("%v"), segmentStem, initName));
+        cmd.addAll(List.of(
+                "-var_stream_map",       String.join(" ", streamMap),
+                outputDir.resolve("%v").resolve(playlistName).toString()));
+        return cmd;
+    }
+
+    /**
+     * HLS muxer options every rendition command shares: VOD segments of
+     * segment-duration named {@code segmentStem}_NNNNN in {@code dir}. MPEG-TS
+     * by default; with segment-format fmp4, CMAF fragments (.m4s) behind an
+     * init segment named after {@code initName} (FFmpeg adds a variant suffix
+     * in a multi-rendition run) and version 7 playlists.
+     */
+    private List<String> hlsArgs(Path dir, String segmentStem, String initName) {
+        List<String> args = new ArrayList<>(List.of(
+                "-f",        "hls",
+                "-hls_time", String.valueOf(segmentDuration),
+                "-hls_playlist_type",    "vod",
+                "-hls_flags",            "independent_segments+temp_file"));
+        if (fmp4) args.addAll(List.of("-hls_segment_type", "fmp4", "-hls_fmp4_init_filename", initName));
+        args.addAll(List.of("-hls_segment_filename",
+                dir.resolve(segmentStem + "_%05d" + (fmp4 ? ".m4s" : ".ts")).toString()));
+        return args;
+    }
+
+    /** EXT-X-VERSION of the playlists we write: 7 for fMP4 (EXT-X-MAP), 3 for TS. */
+    private int hlsVersion() {
+        return fmp4 ? 7 : 3;
+    }
+
+    /**
+     * The rung the source can be cut into as-is, with its bandwidth set to the
+     * source's, or null. Qualifies when the source is exactly that rung's size,
+     * H.264 (Baseline/Main/High, 8-bit 4:2:0, level known) at up to 60 fps, not
+     * rotated, with AAC or no audio, at most max-bitrate-factor × the rung's
+     * nominal bitrate, and has a keyframe at least every two segment lengths
+     * (segments can only be cut at the source's keyframes). CODECS carries the
+     * source's profile and level — a 1080p60 source needs more than the rung's
+     * nominal 4.0, and a player filtering on CODECS must see that.
+     */
+    private QualityProfile streamCopyRung(String videoId, String source, VideoInfo info,
+                                          List<QualityProfile> profiles) {
+        if (!streamCopy) return null;
+        QualityProfile rung = profiles.stream()
+                .filter(p -> p.width == info.width && p.height == info.height)
+                .findFirst().orElse(null);
+        if (rung == null) return null;
+
+        String reason = null;
+        if (!"h264".equals(info.codec)) reason = "codec " + info.codec;
+        else if (!COPYABLE_H264_PROFILES.contains(info.profile)) reason = "H.264 profile " + info.profile;
+        else if (info.level <= 0) reason = "H.264 level unknown";
+        else if (!"yuv420p".equals(info.pixelFormat)) reason = "pixel format " + info.pixelFormat;
+        else if (info.rotation != 0) reason = "rotated " + info.rotation + "°";
+        else if (info.frameRate <= 0 || info.frameRate > 60) reason = info.frameRate + " fps";
+        else if (info.hasAudio && !"aac".equals(info.audioCodec)) reason = "audio codec " + info.audioCodec;
+        else if (info.bitRate <= 0 || info.bitRate > streamCopyMaxBitrateFactor * rung.bandwidth) {
+            reason = "bitrate " + info.bitRate / 1000 + " kb/s";
+        } else {
+            try {
+                double gap = mediaProbe.maxKeyframeInterval(source, KEYFRAME_SCAN_SECONDS, info.durationSeconds);
+                if (gap < 0 || gap > 2.0 * segmentDuration) {
+                    reason = gap < 0 ? "no keyframes found" : String.format("keyframes %.1fs apart", gap);
+                }
+            } catch (Exception e) {
+                reason = "keyframe scan failed: " + e.getMessage();
+            }
+        }
+        if (reason != null) {
+            log.info("[Transcoding] video={} {} matches the source size but is re-encoded ({})",
+                    videoId, rung.label, reason);
+            return null;
+        }
+        // The source's own rate (plus ~10% for audio and TS overhead) — not the nominal one.
+        int bandwidth = (int) Math.min(Integer.MAX_VALUE, info.bitRate * 11 / 10);
+        log.info("[Transcoding] video={} {} will be stream-copied ({} {}@{} {} fps, {} kb/s)", videoId, rung.label,
+                info.codec, info.profile, info.level, info.frameRate, info.bitRate / 1000);
+        return rung.copied(bandwidth, X264Encoder.avc1(info.profile, info.level)
+                + (info.hasAudio ? "," + AAC_CODECS : ""));
+    }
+
+    /**
+     * Per-title ladder. The lowest and highest rung sizes are sample-encoded at
+     * the reference CRF ({@link ComplexityProbe}); how fast the bitrate grows
+     * between them says how much detail the larger sizes add, and every rung
+     * in between is interpolated on that curve. A rung predicted to need less
+     * than min-step × the bits of the rung kept below it carries little new
+     * detail and is dropped (the lowest rung and a stream-copied one never
+     * are). Each kept rung's CRF moves one step with the content — down for
+     * easy material whose bits are cheap, up for very busy material — and its
+     * maxrate is capped at twice the predicted bitrate at that CRF. The
+     * ladder is returned unchanged if the samples can't be encoded.
+     */
+    private List<QualityProfile> perTitle(String videoId, String source, VideoInfo info,
+                                          List<QualityProfile> profiles, QualityProfile copy)
+            throws InterruptedException {
+        if (info.durationSeconds <= 0 || profiles.isEmpty()) return profiles;
+        QualityProfile low = profiles.get(0);
+        QualityProfile high = profiles.get(profiles.size() - 1);
+        List<String> filters = low == high ? List.of(scaleFilter(low)) : List.of(scaleFilter(low), scaleFilter(high));
+        double[] bps = complexityProbe.bitrates(source, info.durationSeconds, filters).orElse(null);
+        if (bps == null || bps[0] <= 0) return profiles;
+
+        double lowPixels = (double) low.width * low.height;
+        // Bitrate ∝ pixels^exponent: ~0.75 for natural video, near 0 for upscaled or flat content.
+        double exponent = low == high || bps[1] <= 0 ? 0.75
+                : Math.clamp(Math.log(bps[1] / bps[0]) / Math.log(high.width * (double) high.height / lowPixels), 0, 1.2);
+        double fps = info.frameRate > 0 ? info.frameRate : 30;
+        double bitsPerPixel = bps[0] / (lowPixels * fps);
+        int crfStep = bitsPerPixel < 0.02 ? -1 : bitsPerPixel > 0.15 ? 1 : 0;
+
+        List<QualityProfile> kept = new ArrayList<>();
+        double keptBps = 0;
+        for (QualityProfile p : profiles) {
+            double predicted = bps[0] * Math.pow(p.width * (double) p.height / lowPixels, exponent);
+            if (p == copy) {
+                kept.add(p);
+                keptBps = predicted;
+                continue;
+            }
+            if (!kept.isEmpty() && predicted < keptBps * perTitleMinStep) {
+                log.info("[Transcoding] video={} per-title: skipping {} (~{} kb/s, adds little over the rung below)",
+                        videoId, p.label, (long) predicted / 1000);
+                continue;
+            }
+            int crf = p.crf() + crfStep;
+            // x264 needs about half the bits for every +6 CRF.
+            double atCrf = predicted * Math.pow(2, (ComplexityProbe.REFERENCE_CRF - crf) / 6.0);
+            kept.add(p.tuned(crf, (int) Math.min(Integer.MAX_VALUE, 2 * atCrf)));
+            keptBps = predicted;
+        }
+        log.info("[Transcoding] video={} per-title: {} bits/pixel, exponent {} → {}", videoId,
+                String.format(Locale.ROOT, "%.3f", bitsPerPixel), String.format(Locale.ROOT, "%.2f", exponent),
+                kept.stream().map(QualityProfile::spec).toList());
+        return kept;
+    }
+
+    /**
+     * The rung with BANDWIDTH / AVERAGE-BANDWIDTH measured from what was
+     * actually stored — peak and mean bitrate over its segments, from the
+     * playlist's durations and the uploaded sizes (or, for a split transcode,
+     * what its pieces reported). Unchanged when the sizes aren't known. A
+     * stream-copy rung that had to be encoded takes its encoder's CODECS here.
+     */
+    private QualityProfile measured(String videoId, QualityProfile profile, Path qualityDir,
+                                    HlsSegmentUploader.Session segments) {
+        QualityProfile encoded = reencodedCopies.remove(videoId + "_" + profile.label);
+        if (encoded != null) profile = encoded;
+        Bitrate rate = renditionRates.remove(videoId + "_" + profile.label);
+        if (rate == null) {
+            List<double[]> sizes = new ArrayList<>();
+            try {
+                double duration = -1;
+                for (String line : Files.readAllLines(qualityDir.resolve("playlist.m3u8"))) {
+                    if (line.startsWith("#EXTINF:")) {
+                        int comma = line.indexOf(',');
+                        duration = Double.parseDouble(line.substring(8, comma < 0 ? line.length() : comma).trim());
+                    } else if (duration >= 0 && !line.isBlank() && !line.startsWith("#")) {
+                        long bytes = segments.storedSize(qualityDir.resolve(line.trim()));
+                        if (bytes >= 0) sizes.add(new double[]{duration, bytes});
+                        duration = -1;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                log.debug("[Transcoding] Could not measure {} for video={}: {}", profile.label, videoId, e.getMessage());
+            }
+            rate = Bitrate.of(sizes, segmentDuration);
+        }
+        return rate != null ? profile.measured(rate.peak(), rate.average()) : profile;
+    }
+
+    /** Stream-copies {@code profile} if it is the {@code copy} rung, falling back to encoding it. */
+    private boolean copyOrEncode(String videoId, String input, Path outputDir, QualityProfile profile,
+                                 QualityProfile copy, TranscodeProgress progress, int maxParallel) {
+        if (profile.equals(copy)) {
+            if (remuxQuality(videoId, input, outputDir, profile, progress)) return true;
+            if (isCancelled(videoId)) return false;
+            log.warn("[Transcoding] stream copy of {} failed for video={} — encoding it instead: {}",
+                    profile.label, videoId, failureReasons.remove(videoId + "_" + profile.label));
+            progress.set(profile.label, 0);
+            reencodedCopies.put(videoId + "_" + profile.label, profile.reencoded());
+        }
+        return transcodeQuality(videoId, input, outputDir, profile, progress, maxParallel);
+    }
+
+    /** Cuts the source into HLS segments without re-encoding — I/O bound, seconds per GB. */
+    private boolean remuxQuality(String videoId, String input, Path outputDir, QualityProfile profile,
+                                 TranscodeProgress progress) {
+        Path qualityDir = outputDir.resolve(profile.label);
+        log.info("[Transcoding] ▶ {} video={} stream copy", profile.label, videoId);
+        List<String> cmd = new ArrayList<>(List.of(
+                "ffmpeg", "-y",
+                "-i", input,
+                "-map", "0:v:0",
+                "-map", "0:a:0?",
+                "-c", "copy",
+                "-max_muxing_queue_size", "1024"));
+        cmd.addAll(hlsArgs(qualityDir, "seg", "init.mp4"));
+        cmd.add(qualityDir.resolve("playlist.m3u8").toString());
+        return runRendition(videoId, profile, qualityDir, cmd, progress);
+    }
+
     /**
      * Transcodes the input to the given quality profile.
      * Overall DB progress is the average of all parallel quality percentages mapped to 5-95%.
      * This avoids the stuck-progress bug that sequential ranges cause when run in parallel.
      */
-    private boolean transcodeQuality(String videoId, Path input, Path outputDir,
+    private boolean transcodeQuality(String videoId, String input, Path outputDir,
                                      QualityProfile profile,
-                                     AtomicInteger sharedProgress,
-                                     ConcurrentHashMap<String, Integer> qualityProgress,
+                                     TranscodeProgress progress,
                                      int maxParallel) {
-        Process process = null;
-        BufferedReader reader = null;
-
         // Per-quality thread count. At most `maxParallel` jobs run at once, so divide
         // usable cores by that (not the total quality count) — leaves a core for the
         // API/DB and avoids both CPU oversubscription and 1-thread-slow 4K encodes.
         int availCores  = Runtime.getRuntime().availableProcessors();
         int usableCores = Math.max(1, availCores - 1);
         int threads     = Math.max(1, usableCores / Math.max(1, maxParallel));
+        Path qualityDir = outputDir.resolve(profile.label);
+
+        log.info("[Transcoding] ▶ {} video={} threads={}", profile.label, videoId, threads);
+
+        List<String> cmd = new ArrayList<>(List.of(
+                "ffmpeg", "-y",
+                "-i", input,
+                "-threads",             String.valueOf(threads),
+                "-max_muxing_queue_size", "1024",
+                "-vf",       scaleFilter(profile)));
+        cmd.addAll(videoArgs(":v", profile));
+        cmd.addAll(List.of(
+                "-pix_fmt",  "yuv420p",
+                "-g",        String.valueOf(segmentDuration * 30),
+                "-keyint_min", String.valueOf(segmentDuration * 30),
+                "-force_key_frames", "expr:gte(t,n_forced*" + segmentDuration + ")",
+                "-c:a",      "aac",
+                "-b:a",      profile.audioBitrate(),
+                "-ar",       "44100"));
+        if (profile.maxrate > 0) {
+            cmd.addAll(List.of("-maxrate", String.valueOf(profile.maxrate),
+                               "-bufsize", String.valueOf(2L * profile.maxrate)));
+        }
+        cmd.addAll(hlsArgs(qualityDir, "seg", "init.mp4"));
+        cmd.add(qualityDir.resolve("playlist.m3u8").toString());
+        SpriteJob sprites = claimSprites(videoId);
+        if (sprites != null) cmd.addAll(sprites.args());
+        boolean ok = runRendition(videoId, profile, qualityDir, cmd, progress);
+        if (!ok) returnSprites(videoId, sprites);
+        return ok;
+    }
 
+    /** Runs one rendition's FFmpeg, reporting progress; on failure records why and drops its scratch. */
+    private boolean runRendition(String videoId, QualityProfile profile, Path qualityDir, List<String> cmd,
+                                 TranscodeProgress progress) {
         try {
-            Path qualityDir = outputDir.resolve(profile.label);
             Files.createDirectories(qualityDir);
 
-            log.info("[Transcoding] ▶ {} video={} threads={}", profile.label, videoId, threads);
-
-            ProcessBuilder pb = new ProcessBuilder(
-                    "ffmpeg", "-y",
-                    "-i", input.toAbsolutePath().toString(),
-                    "-threads",             String.valueOf(threads),
-                    "-max_muxing_queue_size", "1024",
-                    "-vf", "scale=" + profile.width + ":" + profile.height +
-                           ":force_original_aspect_ratio=decrease,pad=" +
-                           profile.width + ":" + profile.height + ":(ow-iw)/2:(oh-ih)/2",
-                    "-c:v",      "libx264",
-                    "-preset",   "fast",
-                    "-crf",      String.valueOf(profile.crf()),
-                    "-profile:v", profile.h264Profile(),
-                    "-level",    profile.h264Level(),
-                    "-pix_fmt",  "yuv420p",
-                    "-g",        String.valueOf(segmentDuration * 30),
-                    "-keyint_min", String.valueOf(segmentDuration * 30),
-                    "-force_key_frames", "expr:gte(t,n_forced*" + segmentDuration + ")",
-                    "-c:a",      "aac",
-                    "-b:a",      profile.audioBitrate(),
-                    "-ar",       "44100",
-                    "-movflags", "+faststart",
-                    "-hls_time", String.valueOf(segmentDuration),
-                    "-hls_playlist_type",    "vod",
-                    "-hls_flags",            "independent_segments",
-                    "-hls_segment_filename", qualityDir.resolve("seg_%05d.ts").toString(),
-                    qualityDir.resolve("playlist.m3u8").toString()
-            );
-            // Run FFmpeg at the lowest CPU priority on Unix so request handling
-            // (API/DB) always wins the CPU — keeps response times low during uploads.
-            if (!System.getProperty("os.name", "").toLowerCase().contains("win")) {
-                List<String> niced = new ArrayList<>(pb.command());
-                niced.add(0, "19"); niced.add(0, "-n"); niced.add(0, "nice");
-                pb.command(niced);
-            }
-            pb.environment().put("MALLOC_ARENA_MAX", "2");
-            pb.redirectErrorStream(true);
-
-            process = pb.start();
-            activeProcesses.put(videoId + "_" + profile.label, process);
-
-            reader = new BufferedReader(new InputStreamReader(process.getInputStream()), 16384);
-            double totalDuration = 0;
-
-            // Keep the last few FFmpeg lines so a failure reports WHY (not a generic error).
-            java.util.ArrayDeque<String> tail = new java.util.ArrayDeque<>();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (tail.size() >= 12) tail.pollFirst();
-                tail.addLast(line);
-                if (totalDuration == 0 && line.contains("Duration:")) {
-                    totalDuration = parseFfmpegTime(DURATION_PATTERN, line);
-                }
-                if (totalDuration > 0 && line.contains("time=")) {
-                    double currentTime = parseFfmpegTime(TIME_PATTERN, line);
-                    if (currentTime >= 0) {
-                        double ratio = Math.min(currentTime / totalDuration, 1.0);
-                        int qualityPct = (int) (ratio * 100);
-                        // Update per-quality progress for UI
-                        qualityProgress.put(profile.label, qualityPct);
-                        // Overall progress = average of all quality percentages mapped to 5–95%
-                        int sum = qualityProgress.values().stream().mapToInt(Integer::intValue).sum();
-                        int avgPct = qualityProgress.isEmpty() ? 0 : sum / qualityProgress.size();
-                        int overallPct = 5 + avgPct * 90 / 100;
-                        int prev = sharedProgress.get();
-                        if (overallPct >= prev + 5 && sharedProgress.compareAndSet(prev, overallPct)) {
-                            videoService.updateProcessingProgress(videoId, overallPct);
-                            log.info("[Transcoding] {} video={} {}% (overall {}%)",
-                                    profile.label, videoId, qualityPct, overallPct);
-                        }
-                    }
-                }
-            }
-
-            boolean completed = process.waitFor(PROCESS_TIMEOUT_MINUTES, TimeUnit.MINUTES);
-            activeProcesses.remove(videoId + "_" + profile.label);
+            FfmpegResult result = runFfmpeg(videoId + "_" + profile.label, cmd,
+                    ratio -> progress.set(profile.label, (int) (ratio * 100)));
 
-            String ffTail = String.join(" | ", tail);
-            if (!completed) {
+            if (result.exitCode() < 0) {
                 String reason = "timeout after " + PROCESS_TIMEOUT_MINUTES + "m";
                 failureReasons.put(videoId + "_" + profile.label, reason);
-                log.error("[Transcoding] ✗ {} quality={} video={} :: {}", reason, profile.label, videoId, ffTail);
-                process.destroyForcibly();
-                deleteDirectoryRecursive(qualityDir);
+                log.error("[Transcoding] ✗ {} quality={} video={} :: {}", reason, profile.label, videoId, result.tail());
+                discardRendition(videoId, qualityDir);
                 return false;
             }
-            if (process.exitValue() != 0) {
-                String reason = "FFmpeg exit=" + process.exitValue() + " :: " + ffTail;
+            if (!result.ok()) {
+                String reason = "FFmpeg exit=" + result.exitCode() + " :: " + result.tail();
                 failureReasons.put(videoId + "_" + profile.label, reason);
                 log.error("[Transcoding] ✗ FFmpeg exit={} quality={} video={} :: {}",
-                        process.exitValue(), profile.label, videoId, ffTail);
-                deleteDirectoryRecursive(qualityDir);
+                        result.exitCode(), profile.label, videoId, result.tail());
+                discardRendition(videoId, qualityDir);
                 return false;
             }
 
-            qualityProgress.put(profile.label, 100);
+            progress.set(profile.label, 100);
             log.info("[Transcoding] ✓ {} video={}", profile.label, videoId);
             return true;
 
@@ -465,105 +1401,185 @@ public class TranscodingService {
             String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
             failureReasons.put(videoId + "_" + profile.label, reason);
             log.error("[Transcoding] ✗ error quality={} video={}: {}", profile.label, videoId, reason);
-            if (process != null && process.isAlive()) process.destroyForcibly();
+            discardRendition(videoId, qualityDir);
             return false;
-        } finally {
-            closeQuietly(reader);
         }
     }
 
-    /** Parses HH:MM:SS.ms from an FFmpeg output line using the given pattern. Returns -1 on failure. */
-    private static double parseFfmpegTime(Pattern pattern, String line) {
-        try {
-            Matcher m = pattern.matcher(line);
-            if (m.find()) {
-                double h   = Double.parseDouble(m.group(1));
-                double min = Double.parseDouble(m.group(2));
-                double sec = Double.parseDouble(m.group(3));
-                return h * 3600 + min * 60 + sec;
-            }
-        } catch (Exception ignored) {}
-        return -1;
+    /** The rung's encoder options for output stream {@code stream} (see {@link VideoEncoder#args}). */
+    private List<String> videoArgs(String stream, QualityProfile p) {
+        VideoEncoders.Choice choice = p.encoder != null ? p.encoder : encoders.parse(VideoEncoders.DEFAULT);
+        return choice.encoder().args(stream, p.rung(), choice.preset());
     }
 
-    private VideoInfo getVideoInfo(Path input) throws IOException, InterruptedException {
-        Process process = null;
-        BufferedReader reader = null;
-
-        try {
-            ProcessBuilder pb = new ProcessBuilder(
-                    "ffprobe",
-                    "-v", "error",
-                    "-select_streams", "v:0",
-                    "-show_entries", "stream=width,height,duration",
-                    "-of", "csv=p=0",
-                    input.toAbsolutePath().toString()
-            );
+    /** Scale into the rung's box, letterboxing to keep the source aspect ratio. */
+    private static String scaleFilter(QualityProfile p) {
+        return "scale=" + p.width + ":" + p.height + ":force_original_aspect_ratio=decrease,pad="
+                + p.width + ":" + p.height + ":(ow-iw)/2:(oh-ih)/2";
+    }
 
-            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
-            process = pb.start();
+    /**
+     * Writes each running transcode's overall progress to the database, one
+     * UPDATE per video that moved since the last flush. FFmpeg ticks several
+     * times a second per rendition; only this reaches Postgres.
+     */
+    @Scheduled(fixedDelayString = "${modtube.transcoding.progress-flush-ms:3000}", initialDelay = 10_000)
+    public void flushProgress() {
+        transcodeProgress.forEach((videoId, progress) -> {
+            int pct = progress.unflushed();
+            if (pct < 0) return;
+            try {
+                videoService.raiseProcessingProgress(videoId, pct);
+                log.debug("[Transcoding] video={} {}% {}", videoId, pct, progress.snapshot());
+            } catch (Exception e) {
+                log.warn("[Transcoding] Could not write progress of video={}: {}", videoId, e.getMessage());
+            }
+        });
+    }
 
-            reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line = reader.readLine();
+    /** Outcome of one FFmpeg run: exit code (-1 on timeout) and its last output lines. */
+    private record FfmpegResult(int exitCode, String tail) {
+        boolean ok() { return exitCode == 0; }
+    }
 
-            boolean completed = process.waitFor(30, TimeUnit.SECONDS);
-            if (!completed) {
-                process.destroyForcibly();
-                log.warn("FFprobe timeout, using default values");
-            }
+    /**
+     * Runs FFmpeg at the lowest CPU priority, registered under {@code processKey}
+     * so {@link #cancelTranscoding} can kill it, feeding the progress ratio (0..1)
+     * to {@code onProgress}. Progress comes as -progress key=value blocks on
+     * stdout and the log on stderr, each drained by a virtual thread, while this
+     * thread only waits for the process — so the timeout holds even when FFmpeg
+     * hangs with its pipes open.
+     */
+    private FfmpegResult runFfmpeg(String processKey, List<String> command, DoubleConsumer onProgress)
+            throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(command);
+        args.addAll(1, List.of("-progress", "pipe:1", "-nostats"));
+        ProcessBuilder pb = new ProcessBuilder(args);
+        // Run FFmpeg at the lowest CPU priority on Unix so request handling
+        // (API/DB) always wins the CPU — keeps response times low during uploads.
+        if (!System.getProperty("os.name", "").toLowerCase().contains("win")) {
+            List<String> niced = new ArrayList<>(pb.command());
+            niced.add(0, "19"); niced.add(0, "-n"); niced.add(0, "nice");
+            pb.command(niced);
+        }
+        pb.environment().put("MALLOC_ARENA_MAX", "2");
 
-            // Default values if parsing fails
-            int width = 1920;
-            int height = 1080;
-            int duration = 0;
+        Process process = pb.start();
+        activeProcesses.put(processKey, process);
+        AtomicLong durationUs = new AtomicLong();
+        // Keep the last few FFmpeg lines so a failure reports WHY (not a generic error).
+        java.util.ArrayDeque<String> tail = new java.util.ArrayDeque<>();
+        try {
+            Thread logReader = Thread.ofVirtual().name("ffmpeg-log-" + processKey)
+                    .start(() -> readLog(process.getErrorStream(), durationUs, tail));
+            Thread progressReader = Thread.ofVirtual().name("ffmpeg-progress-" + processKey)
+                    .start(() -> readProgress(process.getInputStream(), durationUs, onProgress));
 
-            if (line != null && !line.trim().isEmpty()) {
-                try {
-                    String[] parts = line.split(",");
+            boolean completed = process.waitFor(PROCESS_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            if (!completed) process.destroyForcibly();
+            // The pipes close with the process; give the readers the last lines.
+            logReader.join(OUTPUT_DRAIN_MS);
+            progressReader.join(OUTPUT_DRAIN_MS);
+            String lines;
+            synchronized (tail) {
+                lines = String.join(" | ", tail);
+            }
+            return new FfmpegResult(completed ? process.exitValue() : -1, lines);
+        } finally {
+            activeProcesses.remove(processKey);
+            if (process.isAlive()) process.destroyForcibly();
+        }
+    }
 
-                    // Parse width
-                    if (parts.length >= 1 && !parts[0].trim().equalsIgnoreCase("N/A")) {
-                        try {
-                            width = Integer.parseInt(parts[0].trim());
-                        } catch (NumberFormatException e) {
-                            log.warn("[FFprobe] Failed to parse width: {}", parts[0]);
-                        }
-                    }
+    /** Reads FFmpeg's log: the input's duration, and the last lines for a failure reason. */
+    private static void readLog(InputStream in, AtomicLong durationUs, java.util.ArrayDeque<String> tail) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in), 16384)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                synchronized (tail) {
+                    if (tail.size() >= 12) tail.pollFirst();
+                    tail.addLast(line);
+                }
+                int at = line.indexOf("Duration: ");
+                if (at >= 0 && durationUs.get() == 0) durationUs.set(clockMicros(line, at + 10));
+            }
+        } catch (IOException ignored) {
+            // The process was killed; the caller reports why.
+        }
+    }
 
-                    // Parse height
-                    if (parts.length >= 2 && !parts[1].trim().equalsIgnoreCase("N/A")) {
+    /**
+     * Reads FFmpeg's -progress output — blocks of key=value lines, each closed
+     * by "progress=continue" (or "=end") — and reports out_time against the
+     * input's duration once per block.
+     */
+    private static void readProgress(InputStream in, AtomicLong durationUs, DoubleConsumer onProgress) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in), 4096)) {
+            long outUs = -1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq < 0) continue;
+                switch (line.substring(0, eq)) {
+                    // Both are microseconds; out_time_ms is the older name.
+                    case "out_time_us", "out_time_ms" -> {
                         try {
-                            height = Integer.parseInt(parts[1].trim());
-                        } catch (NumberFormatException e) {
-                            log.warn("[FFprobe] Failed to parse height: {}", parts[1]);
+                            outUs = Long.parseLong(line.substring(eq + 1).trim());
+                        } catch (NumberFormatException ignored) {
+                            // "N/A" until the first frame is written
                         }
                     }
-
-                    // Parse duration
-                    if (parts.length >= 3 && !parts[2].trim().equalsIgnoreCase("N/A")) {
-                        try {
-                            duration = (int) Double.parseDouble(parts[2].trim());
-                        } catch (NumberFormatException e) {
-                            log.warn("[FFprobe] Failed to parse duration: {}", parts[2]);
+                    case "progress" -> {
+                        long total = durationUs.get();
+                        if (total > 0 && outUs >= 0) {
+                            try {
+                                onProgress.accept(Math.min((double) outUs / total, 1.0));
+                            } catch (RuntimeException e) {
+                                // Keep draining — a full pipe would stall FFmpeg.
+                                log.warn("[Transcoding] progress callback failed: {}", e.getMessage());
+                            }
                         }
                     }
-
-                    log.info("[FFprobe] Successfully parsed: width={}, height={}, duration={}", width, height, duration);
-                } catch (Exception e) {
-                    log.error("[FFprobe] Error parsing video info: {}", e.getMessage());
+                    default -> { }
                 }
-            } else {
-                log.warn("[FFprobe] No output received, using default values");
             }
+        } catch (IOException ignored) {
+            // The process was killed; the caller reports why.
+        }
+    }
 
-            return new VideoInfo(width, height, duration);
+    /** Microseconds in the "HH:MM:SS.xx" clock at {@code from} in an FFmpeg line; 0 for "N/A" or junk. */
+    private static long clockMicros(String line, int from) {
+        int end = line.indexOf(',', from);
+        String[] hms = line.substring(from, end < 0 ? line.length() : end).trim().split(":");
+        if (hms.length != 3) return 0;
+        try {
+            double seconds = Long.parseLong(hms[0]) * 3600 + Long.parseLong(hms[1]) * 60 + Double.parseDouble(hms[2]);
+            return Math.round(seconds * 1_000_000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 
-        } finally {
-            closeQuietly(reader);
-            if (process != null && process.isAlive()) {
-                process.destroyForcibly();
-            }
+    /**
+     * Rendition labels for a source of this (displayed) size under the current
+     * quality settings — planned at ingest so the transcode can start without a probe.
+     */
+    public List<String> planLadder(int width, int height) {
+        return buildQualityProfiles(new VideoInfo(width, height)).stream()
+                .map(QualityProfile::label).toList();
+    }
+
+    /** The ladder planned at ingest, or empty if none was (or it names a rung no longer allowed). */
+    private List<QualityProfile> plannedProfiles(String planned) {
+        if (planned == null || planned.isBlank()) return List.of();
+        List<QualityProfile> profiles = new ArrayList<>();
+        for (String label : planned.split(",")) {
+            QualityProfile p = LADDER.stream().filter(q -> q.label.equals(label.trim())).findFirst().orElse(null);
+            if (p == null || !allowedQualities.contains(p.label)) return List.of();
+            profiles.add(p);
         }
+        return profiles;
     }
 
     private List<QualityProfile> buildQualityProfiles(VideoInfo info) {
@@ -597,17 +1613,16 @@ public class TranscodingService {
 
         // A rendition is built only if: chosen by admin, enabled in yaml, and the
         // source is at least that tall (never upscale).
+        // The lowest rung is built from any source size.
         List<QualityProfile> profiles = new ArrayList<>();
-        if (want(chosen, "480p",  info, 0))    profiles.add(new QualityProfile("480p", 854, 480, 1_500_000));
-        if (want(chosen, "720p",  info, 720))  profiles.add(new QualityProfile("720p", 1280, 720, 3_000_000));
-        if (want(chosen, "1080p", info, 1080)) profiles.add(new QualityProfile("1080p", 1920, 1080, 6_000_000));
-        if (want(chosen, "1440p", info, 1440)) profiles.add(new QualityProfile("1440p", 2560, 1440, 12_000_000));
-        if (want(chosen, "2160p", info, 2160)) profiles.add(new QualityProfile("2160p", 3840, 2160, 25_000_000));
+        for (QualityProfile p : LADDER) {
+            if (want(chosen, p.label, info, p == LADDER.get(0) ? 0 : p.height)) profiles.add(p);
+        }
 
         // Safety net: if nothing matched (e.g. tiny source vs high-only selection),
         // always produce at least 480p so the video is playable.
         if (profiles.isEmpty()) {
-            profiles.add(new QualityProfile("480p", 854, 480, 1_500_000));
+            profiles.add(LADDER.get(0));
         }
         log.info("[Transcoding] qualities selected={} for source {}x{}",
                 profiles.stream().map(QualityProfile::label).toList(), info.width, info.height);
@@ -644,12 +1659,127 @@ public class TranscodingService {
         }
     }
 
-    private record VideoInfo(int width, int height, int durationSeconds) {
+    /** Measured bitrates of a rendition, bits/s. */
+    private record Bitrate(int peak, int average) {
+        /**
+         * From (duration, bytes) per segment, or null if there are none. Segments
+         * under half the target duration (a rendition's tail) don't count toward
+         * the peak — their rate is noise.
+         */
+        static Bitrate of(List<double[]> segments, int segmentDuration) {
+            double seconds = 0, bytes = 0, peak = 0;
+            for (double[] seg : segments) {
+                seconds += seg[0];
+                bytes += seg[1];
+                if (seg[0] >= segmentDuration / 2.0) peak = Math.max(peak, seg[1] * 8 / seg[0]);
+            }
+            if (seconds <= 0) return null;
+            int average = (int) Math.min(Integer.MAX_VALUE, bytes * 8 / seconds);
+            return new Bitrate(peak > 0 ? (int) Math.min(Integer.MAX_VALUE, peak) : average, average);
+        }
+    }
+
+    /** Trick-play sheets waiting for a run: where they go and the output args that write them. */
+    private record SpriteJob(Path dir, List<String> args) {}
+
+    /** The queue job a transcode runs for, with its input as queued — what its pieces are keyed by. */
+    private record SplitJob(Long jobId, String input) {}
+
+    private record VideoInfo(int width, int height, int durationSeconds, boolean hasAudio,
+                             String codec, String profile, int level, String pixelFormat, double frameRate,
+                             long bitRate, int rotation, String audioCodec) {
+        VideoInfo(int width, int height) {
+            this(width, height, 0, true, null, null, 0, null, 0, 0, 0, null);
+        }
+
+        static VideoInfo of(MediaProbe.MediaInfo m) {
+            return new VideoInfo(m.width(), m.height(), m.durationSeconds(), m.hasAudio(),
+                    m.videoCodec(), m.profile(), m.level(), m.pixelFormat(), m.frameRate(),
+                    m.bitRate(), m.rotation(), m.audioCodec());
+        }
+
+        /** From what ingest recorded, or null if the source was never probed. */
+        static VideoInfo of(Video v) {
+            if (v.getCodec() == null || v.getWidth() == null || v.getHeight() == null
+                    || v.getWidth() <= 0 || v.getHeight() <= 0) return null;
+            return new VideoInfo(v.getWidth(), v.getHeight(),
+                    v.getDurationSeconds() != null ? v.getDurationSeconds() : 0, v.getAudioCodec() != null,
+                    v.getCodec(), v.getVideoProfile(), v.getVideoLevel() != null ? v.getVideoLevel() : 0,
+                    v.getPixelFormat(),
+                    v.getFrameRate() != null ? v.getFrameRate() : 0,
+                    v.getBitRate() != null ? v.getBitRate() : 0,
+                    v.getRotation() != null ? v.getRotation() : 0, v.getAudioCodec());
+        }
     }
 
-    private record QualityProfile(String label, int width, int height, int bandwidth) {
+    /** Every rung, lowest first. */
+    private static final List<QualityProfile> LADDER = List.of(
+            new QualityProfile("480p", 854, 480, 1_500_000),
+            new QualityProfile("720p", 1280, 720, 3_000_000),
+            new QualityProfile("1080p", 1920, 1080, 6_000_000),
+            new QualityProfile("1440p", 2560, 1440, 12_000_000),
+            new QualityProfile("2160p", 3840, 2160, 25_000_000));
+
+    /** RFC 6381 codec string of the AAC-LC audio every rendition carries. */
+    private static final String AAC_CODECS = "mp4a.40.2";
+
+    /**
+     * A rung. {@code bandwidth} is nominal until {@link #measured}; {@code crf}
+     * and {@code maxrate} (bits/s) are 0 unless per-title analysis set them;
+     * {@code encoder} and {@code codecs} (CODECS in master.m3u8) are set once
+     * the transcode has picked its encoders.
+     */
+    private record QualityProfile(String label, int width, int height, int bandwidth,
+                                  int averageBandwidth, int tunedCrf, int maxrate,
+                                  VideoEncoders.Choice encoder, String codecs) {
+        QualityProfile(String label, int width, int height, int bandwidth) {
+            this(label, width, height, bandwidth, 0, 0, 0, null, null);
+        }
+
+        QualityProfile tuned(int crf, int maxrate) {
+            return new QualityProfile(label, width, height, bandwidth, averageBandwidth, crf, maxrate, encoder, codecs);
+        }
+
+        QualityProfile measured(int peak, int average) {
+            return new QualityProfile(label, width, height, peak, average, tunedCrf, maxrate, encoder, codecs);
+        }
+
+        QualityProfile encodedWith(VideoEncoders.Choice choice, boolean hasAudio) {
+            String video = choice.encoder().codecs(rung());
+            return new QualityProfile(label, width, height, bandwidth, averageBandwidth, tunedCrf, maxrate,
+                    choice, hasAudio ? video + "," + AAC_CODECS : video);
+        }
+
+        /** The stream-copied rung: the source's bitrate and codecs. */
+        QualityProfile copied(int bandwidth, String codecs) {
+            return new QualityProfile(label, width, height, bandwidth, 0, 0, 0, encoder, codecs);
+        }
+
+        /**
+         * A stream-copied rung encoded after all: the nominal bandwidth back and
+         * its encoder's CODECS (audio kept iff the copy had an audio codec).
+         */
+        QualityProfile reencoded() {
+            int nominal = LADDER.stream().filter(q -> q.label.equals(label)).findFirst()
+                    .map(QualityProfile::bandwidth).orElse(bandwidth);
+            String video = encoder != null ? encoder.encoder().codecs(rung()) : X264Encoder.avc1(h264Profile(), h264Level());
+            boolean audio = codecs != null && codecs.endsWith("," + AAC_CODECS);
+            return new QualityProfile(label, width, height, nominal, 0, 0, 0, encoder,
+                    audio ? video + "," + AAC_CODECS : video);
+        }
+
+        VideoEncoder.Rung rung() {
+            return new VideoEncoder.Rung(width, height, crf(), h264Profile(), h264Level());
+        }
+
+        /** "label/crf/maxrate-kbps/encoder:preset" — how a split job hands a tuned rung to its pieces. */
+        String spec() {
+            return label + "/" + crf() + "/" + maxrate / 1000 + "/" + (encoder != null ? encoder.spec() : VideoEncoders.DEFAULT);
+        }
+
         /** CRF tuned per resolution: lower res tolerates higher CRF */
         int crf() {
+            if (tunedCrf > 0) return tunedCrf;
             return switch (label) {
                 case "480p"  -> 23;
                 case "720p"  -> 21;
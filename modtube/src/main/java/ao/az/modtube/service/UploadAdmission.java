@@ -0,0 +1,147 @@
+package ao.az.modtube.service;
+
+import ao.az.modtube.domain.TranscodeJobStatus;
+import ao.az.modtube.exception.InsufficientStorageException;
+import ao.az.modtube.exception.ServiceBusyException;
+import ao.az.modtube.metrics.ModTubeMetrics;
+import ao.az.modtube.repository.TranscodeJobRepository;
+import ao.az.modtube.repository.UploadSessionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Admission control for new uploads, against a ledger of scratch-disk space
+ * that is already promised.
+ *
+ * Free space alone lies: a chunked upload's file is preallocated sparse, so a
+ * 20 GB upload that has sent 1 GB occupies 1 GB but will take 20; and every
+ * queued or running transcode of a local file will write HLS segments next to
+ * it. The ledger counts both as reserved:
+ *
+ *   available = usable − unwritten bytes of active chunked uploads
+ *             − hls-scratch-ratio × sources of queued/running jobs
+ *             − min-disk-free
+ *
+ * It is derived from upload_sessions and transcode_jobs on every check (two
+ * aggregates), so it has no bookkeeping of its own and survives restarts.
+ *
+ * An upload that doesn't fit, but would once enough of the transcode queue has
+ * drained, gets 503 with a Retry-After estimated from recent job run times;
+ * one that wouldn't fit even on a drained queue gets 507. Independently, when
+ * max-queued-jobs transcodes are already waiting, new uploads are deferred the
+ * same way rather than piling onto the backlog. Direct-to-MinIO uploads use no
+ * local disk and only go through the queue check.
+ */
+@Slf4j
+@Service
+public class UploadAdmission {
+
+    /** Run time assumed for a transcode before any has finished. */
+    private static final double DEFAULT_RUN_SECONDS = 600;
+    private static final long MIN_RETRY_SECONDS = 30;
+    private static final long MAX_RETRY_SECONDS = 3600;
+
+    private final UploadSessionRepository sessionRepository;
+    private final TranscodeJobRepository jobRepository;
+    private final ModTubeMetrics metrics;
+    private final Path uploadDir;
+    private final long minDiskFree;
+    private final double hlsScratchRatio;
+    private final int maxQueuedJobs;
+    private final int workers;
+
+    public UploadAdmission(UploadSessionRepository sessionRepository,
+                           TranscodeJobRepository jobRepository,
+                           ModTubeMetrics metrics,
+                           @Value("${modtube.storage.upload-dir}") String uploadDirPath,
+                           @Value("${modtube.storage.min-disk-free}") long minDiskFree,
+                           @Value("${modtube.storage.admission.hls-scratch-ratio:0.5}") double hlsScratchRatio,
+                           @Value("${modtube.storage.admission.max-queued-jobs:50}") int maxQueuedJobs,
+                           @Value("${modtube.transcoding.queue.workers:2}") int workers) {
+        this.sessionRepository = sessionRepository;
+        this.jobRepository = jobRepository;
+        this.metrics = metrics;
+        this.uploadDir = Paths.get(uploadDirPath);
+        this.minDiskFree = minDiskFree;
+        this.hlsScratchRatio = Math.max(0, hlsScratchRatio);
+        this.maxQueuedJobs = maxQueuedJobs;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Admits an upload of {@code totalSize} bytes or throws: ServiceBusyException
+     * (503 + Retry-After) when it should come back later, InsufficientStorageException
+     * (507) when it can't fit at all. Callers open the session under the same
+     * lock, so two concurrent checks can't both spend the same free space.
+     */
+    public void admit(long totalSize, boolean direct) throws IOException {
+        long queued = jobRepository.countByStatus(TranscodeJobStatus.QUEUED);
+        if (maxQueuedJobs > 0 && queued >= maxQueuedJobs) {
+            long wait = estimateWait(queued - maxQueuedJobs + 1);
+            metrics.recordUploadAdmission("deferred");
+            log.info("[Admission] {} transcodes queued (max {}) — deferring upload for {}s", queued, maxQueuedJobs, wait);
+            throw new ServiceBusyException("Transcoding backlog is full — retry in about "
+                    + formatWait(wait), wait);
+        }
+        if (direct) {
+            metrics.recordUploadAdmission("admitted");
+            return;
+        }
+
+        long usable = Files.getFileStore(uploadDir).getUsableSpace();
+        long uploads = sessionRepository.reservedUploadBytes();
+        List<Long> jobSources = jobRepository.pendingLocalInputSizes();
+        long scratch = (long) (hlsScratchRatio * jobSources.stream().mapToLong(Long::longValue).sum());
+        metrics.setDiskReserved(uploads, scratch);
+
+        long shortfall = totalSize - (usable - uploads - scratch - minDiskFree);
+        if (shortfall <= 0) {
+            metrics.recordUploadAdmission("admitted");
+            return;
+        }
+
+        // Each finished job frees its source and its scratch — how many must finish first?
+        long freed = 0;
+        int jobsNeeded = 0;
+        for (long source : jobSources) {
+            freed += source + (long) (hlsScratchRatio * source);
+            jobsNeeded++;
+            if (freed >= shortfall) break;
+        }
+        if (freed < shortfall) {
+            metrics.recordUploadAdmission("rejected");
+            log.warn("[Admission] {} MB upload can't fit: {} MB usable, {} MB reserved by uploads, {} MB by transcodes",
+                    mb(totalSize), mb(usable), mb(uploads), mb(scratch));
+            throw new InsufficientStorageException("Not enough disk space");
+        }
+        long wait = estimateWait(jobsNeeded);
+        metrics.recordUploadAdmission("deferred");
+        log.info("[Admission] {} MB upload waits for {} transcode(s) to free {} MB — retry in {}s",
+                mb(totalSize), jobsNeeded, mb(shortfall), wait);
+        throw new ServiceBusyException("Server disk is busy with other uploads — retry in about "
+                + formatWait(wait), wait);
+    }
+
+    /** Seconds until {@code jobs} more transcodes have finished, at the recent average run time. */
+    private long estimateWait(long jobs) {
+        Double avg = jobRepository.recentAverageRunSeconds();
+        double perJob = avg != null && avg > 0 ? avg : DEFAULT_RUN_SECONDS;
+        long rounds = (jobs + workers - 1) / workers;
+        return Math.clamp((long) Math.ceil(perJob * rounds), MIN_RETRY_SECONDS, MAX_RETRY_SECONDS);
+    }
+
+    private static String formatWait(long seconds) {
+        return seconds < 120 ? seconds + " seconds" : (seconds + 59) / 60 + " minutes";
+    }
+
+    private static long mb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
@@ -1,323 +1,355 @@
 package ao.az.modtube.service;
 
-import ao.az.modtube.config.security.ModTubeUserDetails;
+import ao.az.modtube.domain.UploadSession;
+import ao.az.modtube.domain.UploadSessionStatus;
 import ao.az.modtube.domain.Video;
-import ao.az.modtube.dto.VideoDto.*;
-import ao.az.modtube.exception.BadRequestException;
-import ao.az.modtube.exception.InsufficientStorageException;
-import ao.az.modtube.metrics.ModTubeMetrics;
+import ao.az.modtube.domain.VideoStatus;
+import ao.az.modtube.repository.UploadSessionRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
-import jakarta.annotation.PostConstruct;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Optional;
 
 /**
- * Upload service - handles chunked video uploads
+ * Resumable chunked uploads.
+ *
+ * Each upload has a session row (upload_sessions) that outlives the process, and
+ * its chunks are assembled in place by {@link ChunkAssembler}, whose bitmap
+ * survives a restart too. A client that lost its connection — or the whole
+ * browser — asks {@link #status} which chunk ranges are already stored and
+ * sends only the rest. Every stored chunk pushes the session's expiry forward;
+ * the janitor expires sessions nobody has touched for ttl-hours and reclaims
+ * their scratch space.
+ *
+ * Direct mode (modtube.storage.direct-upload) takes the app out of the byte
+ * path for large files: the session wraps an S3 multipart upload of
+ * originals/{id}/, the client PUTs each chunk to a presigned part URL served
+ * through the nginx proxy path, and the parts MinIO holds are the resume state.
  */
 @Slf4j
 @Service
 public class UploadService {
 
+    private static final int JANITOR_BATCH = 100;
+    /** S3 limits: parts of at least 5 MB (except the last), at most 10,000 of them. */
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final int MAX_PARTS = 10_000;
+    private static final int MAX_URLS_PER_REQUEST = 100;
+
+    private final UploadSessionRepository sessionRepository;
+    private final ChunkAssembler chunkAssembler;
     private final VideoService videoService;
-    private final TranscodingService transcodingService;
-    private final ModTubeMetrics metrics;
-
-    private final Path uploadDir;
-    private final Path tempDir;
-    private final long maxFileSize;
-    private final long minDiskFree;
-    private final List<String> allowedExtensions;
-
-    private static final int BUFFER_SIZE = 8 * 1024;
-
-    private final ConcurrentHashMap<String, UploadSession> activeSessions = new ConcurrentHashMap<>();
-
-    private volatile long cachedFreeSpace = Long.MAX_VALUE;
-    private volatile long cacheTimestamp = 0;
-    private static final long CACHE_TTL_MS = 1000;
-
-    public UploadService(
-            VideoService videoService,
-            TranscodingService transcodingService,
-            ModTubeMetrics metrics,
-            @Value("${modtube.storage.upload-dir}") String uploadDirPath,
-            @Value("${modtube.storage.temp-dir}") String tempDirPath,
-            @Value("${modtube.storage.max-file-size}") long maxFileSize,
-            @Value("${modtube.storage.min-disk-free}") long minDiskFree,
-            @Value("${modtube.storage.allowed-extensions}") List<String> allowedExtensions
-    ) {
+    private final StorageService storageService;
+    private final ApplicationEventPublisher events;
+    private final long ttlSeconds;
+    private final boolean directEnabled;
+    private final long directMinSize;
+    private final String directProxyPath;
+    private final int directUrlExpirySeconds;
+
+    /** What a client needs to resume: the layout and which chunks the server already has. */
+    public record ChunkStatus(String videoId, String filename, long totalSize, int chunkSize, int totalChunks,
+                              int storedChunks, List<int[]> storedRanges, int firstMissing,
+                              LocalDateTime expiresAt) {}
+
+    /** A chunked upload in progress whose first chunk is stored. */
+    public record PartialUpload(Path file, boolean tailStored, int totalChunks) {}
+
+    /** Published when a session ends without completing (cancelled or expired). */
+    public record UploadAbandonedEvent(String videoId) {}
+
+    public UploadService(UploadSessionRepository sessionRepository,
+                         ChunkAssembler chunkAssembler,
+                         VideoService videoService,
+                         StorageService storageService,
+                         ApplicationEventPublisher events,
+                         @Value("${modtube.storage.upload-session.ttl-hours:24}") long ttlHours,
+                         @Value("${modtube.storage.direct-upload.enabled:false}") boolean directEnabled,
+                         @Value("${modtube.storage.direct-upload.min-size-mb:256}") long directMinSizeMb,
+                         @Value("${modtube.storage.direct-upload.proxy-path:/s3}") String directProxyPath,
+                         @Value("${modtube.storage.direct-upload.url-expiry-minutes:60}") int urlExpiryMinutes) {
+        this.sessionRepository = sessionRepository;
+        this.chunkAssembler = chunkAssembler;
         this.videoService = videoService;
-        this.transcodingService = transcodingService;
-        this.metrics = metrics;
-        this.uploadDir = Paths.get(uploadDirPath);
-        this.tempDir = Paths.get(tempDirPath);
-        this.maxFileSize = maxFileSize;
-        this.minDiskFree = minDiskFree;
-        this.allowedExtensions = allowedExtensions;
-    }
-
-    @PostConstruct
-    public void init() throws IOException {
-        Files.createDirectories(uploadDir);
-        Files.createDirectories(tempDir);
-        log.info("Upload service initialized: upload={}, temp={}", uploadDir, tempDir);
+        this.storageService = storageService;
+        this.events = events;
+        this.ttlSeconds = Math.max(1, ttlHours) * 3600;
+        this.directEnabled = directEnabled;
+        this.directMinSize = directMinSizeMb * 1024 * 1024;
+        this.directProxyPath = directProxyPath;
+        this.directUrlExpirySeconds = Math.max(1, urlExpiryMinutes) * 60;
+        if (directEnabled) {
+            log.info("[Upload] Direct-to-MinIO uploads enabled for files of {} MB and more, via {}",
+                    directMinSizeMb, directProxyPath);
+        }
     }
 
-    public InitUploadResponse initUpload(InitUploadRequest request, ModTubeUserDetails user) 
+    /** Preallocates the target file and records the session. */
+    public UploadSession open(Video video, String extension, long totalSize, int chunkSize, int totalChunks)
             throws IOException {
-        metrics.recordUploadAttempt();
-
-        String extension = getFileExtension(request.getFilename());
-        if (!allowedExtensions.contains(extension.toLowerCase())) {
-            throw new BadRequestException("File type not allowed. Allowed: " + allowedExtensions);
-        }
+        chunkAssembler.create(video.getId(), extension, totalSize, chunkSize, totalChunks);
+        UploadSession session = new UploadSession();
+        session.setVideoId(video.getId());
+        session.setUploaderId(video.getUploaderId());
+        session.setFilename(video.getFilename());
+        session.setTotalSize(totalSize);
+        session.setChunkSize(chunkSize);
+        session.setTotalChunks(totalChunks);
+        session.setExpiresAt(LocalDateTime.now().plusSeconds(ttlSeconds));
+        return sessionRepository.save(session);
+    }
 
-        if (request.getTotalSize() > maxFileSize) {
-            throw new BadRequestException(String.format(
-                    "File too large. Maximum size: %d GB",
-                    maxFileSize / (1024 * 1024 * 1024)
-            ));
-        }
+    /** Whether an upload of this size bypasses the app and goes straight to MinIO. */
+    public boolean isDirect(long totalSize) {
+        return directEnabled && totalSize >= directMinSize;
+    }
 
-        long freeSpace = getFreeSpace();
-        if (freeSpace < request.getTotalSize() + minDiskFree) {
-            throw new InsufficientStorageException(String.format(
-                    "Not enough disk space. Free: %d GB, Required: %d GB",
-                    freeSpace / (1024 * 1024 * 1024),
-                    (request.getTotalSize() + minDiskFree) / (1024 * 1024 * 1024)
-            ));
-        }
+    /** The client's chunk size, raised as far as S3's part-size and part-count limits require. */
+    public int directPartSize(long totalSize, int requested) {
+        long size = Math.max(Math.max(requested, MIN_PART_SIZE), (totalSize + MAX_PARTS - 1) / MAX_PARTS);
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
 
-        Video video = videoService.createVideo(
-                request.getTitle() != null ? request.getTitle() : request.getFilename(),
-                request.getFilename(),
-                request.getDescription()
-        );
-
-        String uploadId = video.getId() + "_" + System.currentTimeMillis();
-        UploadSession session = new UploadSession(
-                uploadId,
-                video.getId(),
-                request.getFilename(),
-                request.getTotalSize(),
-                request.getTotalChunks()
-        );
-        activeSessions.put(uploadId, session);
-
-        Path tempFile = tempDir.resolve(video.getId() + "." + extension);
-        session.setTempFilePath(tempFile);
-
-        log.info("[Upload] Initialized: videoId={}, uploadId={}, size={} MB, chunks={}",
-                video.getId(), uploadId, request.getTotalSize() / (1024 * 1024), request.getTotalChunks());
-
-        return InitUploadResponse.builder()
-                .status("initialized")
-                .videoId(video.getId())
-                .uploadId(uploadId)
-                .message("Upload initialized. Ready to receive chunks.")
-                .build();
+    /** Starts the multipart upload of originals/{id}/original.{ext} and records the session. */
+    public UploadSession openDirect(Video video, String extension, long totalSize, int partSize) throws Exception {
+        String key = "originals/" + video.getId() + "/original." + extension;
+        String uploadId = storageService.createMultipartUpload(key, StorageService.contentTypeFor(key));
+        UploadSession session = new UploadSession();
+        session.setVideoId(video.getId());
+        session.setUploaderId(video.getUploaderId());
+        session.setFilename(video.getFilename());
+        session.setTotalSize(totalSize);
+        session.setChunkSize(partSize);
+        session.setTotalChunks((int) ((totalSize + partSize - 1) / partSize));
+        session.setObjectKey(key);
+        session.setS3UploadId(uploadId);
+        session.setExpiresAt(LocalDateTime.now().plusSeconds(ttlSeconds));
+        return sessionRepository.save(session);
     }
 
-    public ChunkUploadResponse uploadChunk(
-            MultipartFile chunk,
-            int chunkIndex,
-            int totalChunks,
-            String filename,
-            String uploadId
-    ) throws IOException {
-        UploadSession session = activeSessions.get(uploadId);
-        if (session == null) {
-            throw new BadRequestException("Upload session not found or expired: " + uploadId);
+    /**
+     * Presigned, proxied PUT URLs for chunks {@code from} .. {@code from+count-1}
+     * (0-based, like chunk indexes). Handing out URLs counts as activity and
+     * extends the session. Empty if the session is not an active direct one.
+     */
+    public Optional<List<String>> partUrls(String videoId, int from, int count) throws Exception {
+        UploadSession s = activeDirect(videoId).orElse(null);
+        if (s == null) return Optional.empty();
+        if (from < 0 || from >= s.getTotalChunks()) {
+            throw new IllegalArgumentException("Chunk " + from + " is outside 0.." + (s.getTotalChunks() - 1));
         }
-
-        if (chunkIndex < 0 || chunkIndex >= totalChunks) {
-            throw new BadRequestException("Invalid chunk index: " + chunkIndex);
+        int to = Math.min(s.getTotalChunks(), from + Math.max(1, Math.min(count, MAX_URLS_PER_REQUEST)));
+        List<String> urls = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            String signed = storageService.presignPart(s.getObjectKey(), s.getS3UploadId(), i + 1,
+                    directUrlExpirySeconds);
+            urls.add(StorageService.proxiedUrl(signed, directProxyPath));
         }
+        sessionRepository.touch(videoId, s.getChunksStored(), ttlSeconds);
+        return Optional.of(urls);
+    }
 
-        if (getFreeSpace() < minDiskFree) {
-            cleanupSession(session);
-            throw new InsufficientStorageException("Disk space critically low");
+    /**
+     * Completes a direct upload once MinIO holds every part, and returns the
+     * object key of the original. Throws IllegalStateException naming the
+     * first missing chunk otherwise.
+     */
+    public String completeDirect(String videoId) throws Exception {
+        UploadSession s = activeDirect(videoId)
+                .orElseThrow(() -> new IllegalStateException("No direct upload in progress"));
+        List<StorageService.UploadedPart> parts = storageService.listParts(s.getObjectKey(), s.getS3UploadId());
+        BitSet stored = partBitmap(parts, s.getTotalChunks());
+        int missing = stored.nextClearBit(0);
+        if (missing < s.getTotalChunks()) {
+            throw new IllegalStateException("Upload incomplete — chunk " + missing + " is missing");
         }
-
-        Path tempFile = session.getTempFilePath();
-        StandardOpenOption[] options = (chunkIndex == 0)
-                ? new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE}
-                : new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE};
-
-        try (OutputStream out = Files.newOutputStream(tempFile, options);
-             InputStream in = chunk.getInputStream()) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
+        long bytes = parts.stream().mapToLong(StorageService.UploadedPart::size).sum();
+        if (bytes != s.getTotalSize()) {
+            throw new IllegalStateException("Upload has " + bytes + " bytes, expected " + s.getTotalSize());
         }
+        storageService.completeMultipartUpload(s.getObjectKey(), s.getS3UploadId(), parts);
+        sessionRepository.finish(videoId, UploadSessionStatus.COMPLETED.name());
+        return s.getObjectKey();
+    }
 
-        session.markChunkComplete(chunkIndex);
-        double progress = (double) (chunkIndex + 1) / totalChunks * 100;
-
-        log.debug("[Upload] Chunk {}/{} received for {}", chunkIndex + 1, totalChunks, session.getVideoId());
-
-        return ChunkUploadResponse.builder()
-                .status("chunk_received")
-                .chunkIndex(chunkIndex)
-                .progress(String.format("%.1f%%", progress))
-                .message(String.format("Chunk %d of %d received", chunkIndex + 1, totalChunks))
-                .build();
+    private Optional<UploadSession> activeDirect(String videoId) {
+        return sessionRepository.findByVideoId(videoId)
+                .filter(s -> s.isDirect() && s.getStatus() == UploadSessionStatus.ACTIVE)
+                .filter(s -> s.getExpiresAt().isAfter(LocalDateTime.now()));
     }
 
-    public CompleteUploadResponse completeUpload(CompleteUploadRequest request) throws IOException {
-        UploadSession session = null;
-        for (UploadSession s : activeSessions.values()) {
-            if (s.getVideoId().equals(request.getVideoId())) {
-                session = s;
-                break;
-            }
+    private static BitSet partBitmap(List<StorageService.UploadedPart> parts, int totalChunks) {
+        BitSet stored = new BitSet(totalChunks);
+        for (StorageService.UploadedPart p : parts) {
+            if (p.partNumber() >= 1 && p.partNumber() <= totalChunks) stored.set(p.partNumber() - 1);
         }
+        return stored;
+    }
 
-        if (session == null) {
-            throw new BadRequestException("Upload session not found for video: " + request.getVideoId());
-        }
+    public Optional<UploadSession> getSession(String videoId) {
+        return sessionRepository.findByVideoId(videoId);
+    }
 
-        Path tempFile = session.getTempFilePath();
+    /** The user's unfinished uploads, newest first — a client matches its file against these to resume. */
+    public List<UploadSession> activeSessions(Long uploaderId) {
+        return sessionRepository.findByUploaderIdAndStatusOrderByCreatedAtDesc(uploaderId, UploadSessionStatus.ACTIVE);
+    }
 
-        if (!Files.exists(tempFile)) {
-            cleanupSession(session);
-            throw new BadRequestException("Upload file not found");
-        }
+    /**
+     * Stores one chunk and extends the session. Returns false if the session is
+     * gone or expired — the client must start over. {@code sha256} (optional) is
+     * the client's checksum of the chunk; a mismatch throws IllegalArgumentException.
+     */
+    public boolean storeChunk(String videoId, int chunkIndex, InputStream in, long length, byte[] sha256)
+            throws IOException {
+        if (!sessionRepository.isActive(videoId)) return false;
+        write(videoId, chunkIndex, Channels.newChannel(in), length, sha256);
+        return true;
+    }
 
-        long actualSize = Files.size(tempFile);
-        if (session.getTotalSize() > 0 && Math.abs(actualSize - session.getTotalSize()) > 1024) {
-            log.warn("[Upload] Size mismatch: expected={}, actual={}", session.getTotalSize(), actualSize);
+    /**
+     * Raw-body variant: the chunk is named by its byte range (Content-Range
+     * "bytes start-end/total"), which must cover exactly one chunk of the layout.
+     * Returns the chunk index, or -1 if the session is gone or expired.
+     */
+    public int storeRange(String videoId, long start, long end, long total, ReadableByteChannel src,
+                          byte[] sha256) throws IOException {
+        if (!sessionRepository.isActive(videoId)) return -1;
+        ChunkAssembler.Layout layout = chunkAssembler.layout(videoId);
+        if (total != layout.totalSize() || start % layout.chunkSize() != 0) {
+            throw new IllegalArgumentException("Content-Range must start on a " + layout.chunkSize()
+                    + "-byte chunk boundary of a " + layout.totalSize() + "-byte upload");
         }
+        int chunkIndex = (int) (start / layout.chunkSize());
+        write(videoId, chunkIndex, src, end - start + 1, sha256);
+        return chunkIndex;
+    }
 
-        Path videoDir = uploadDir.resolve(session.getVideoId());
-        Files.createDirectories(videoDir);
-        
-        String extension = getFileExtension(session.getFilename());
-        Path finalFile = videoDir.resolve("original." + extension);
-        Files.move(tempFile, finalFile, StandardCopyOption.REPLACE_EXISTING);
-
-        activeSessions.remove(session.getUploadId());
-
-        transcodingService.transcodeToHLS(session.getVideoId(), finalFile);
-
-        metrics.recordUploadSuccess();
-        log.info("[Upload] Complete: videoId={}, size={} MB", 
-                session.getVideoId(), actualSize / (1024 * 1024));
+    private void write(String videoId, int chunkIndex, ReadableByteChannel src, long length, byte[] sha256)
+            throws IOException {
+        chunkAssembler.writeChunk(videoId, chunkIndex, src, length, sha256);
+        sessionRepository.touch(videoId, chunkAssembler.storedCount(videoId), ttlSeconds);
+    }
 
-        return CompleteUploadResponse.builder()
-                .status("processing_started")
-                .videoId(session.getVideoId())
-                .hlsUrl("/hls/" + session.getVideoId() + "/master.m3u8")
-                .message("Upload complete. Transcoding started.")
-                .build();
+    /** Empty if there is no active session (never started, finished, cancelled or expired). */
+    public Optional<ChunkStatus> status(String videoId) throws IOException {
+        Optional<UploadSession> session = sessionRepository.findByVideoId(videoId)
+                .filter(s -> s.getStatus() == UploadSessionStatus.ACTIVE);
+        if (session.isEmpty()) return Optional.empty();
+        UploadSession s = session.get();
+        if (s.isDirect()) return Optional.of(directStatus(s));
+        return Optional.of(new ChunkStatus(videoId, s.getFilename(), s.getTotalSize(), s.getChunkSize(),
+                s.getTotalChunks(), chunkAssembler.storedCount(videoId), chunkAssembler.storedRanges(videoId),
+                chunkAssembler.firstMissing(videoId), s.getExpiresAt()));
     }
 
-    public void cancelUpload(String uploadId) throws IOException {
-        UploadSession session = activeSessions.get(uploadId);
-        if (session != null) {
-            cleanupSession(session);
-            log.info("[Upload] Cancelled: {}", uploadId);
+    /** A direct upload's progress is whatever parts MinIO already has. */
+    private ChunkStatus directStatus(UploadSession s) throws IOException {
+        List<StorageService.UploadedPart> parts;
+        try {
+            parts = storageService.listParts(s.getObjectKey(), s.getS3UploadId());
+        } catch (Exception e) {
+            throw new IOException("Could not list parts of " + s.getObjectKey() + ": " + e.getMessage(), e);
+        }
+        BitSet stored = partBitmap(parts, s.getTotalChunks());
+        List<int[]> ranges = new ArrayList<>();
+        for (int from = stored.nextSetBit(0); from >= 0; ) {
+            int to = stored.nextClearBit(from) - 1;
+            ranges.add(new int[]{from, to});
+            from = stored.nextSetBit(to + 1);
         }
+        int first = stored.nextClearBit(0);
+        return new ChunkStatus(s.getVideoId(), s.getFilename(), s.getTotalSize(), s.getChunkSize(),
+                s.getTotalChunks(), stored.cardinality(), ranges,
+                first < s.getTotalChunks() ? first : -1, s.getExpiresAt());
     }
 
-    public void uploadThumbnail(String videoId, MultipartFile file, ModTubeUserDetails user) 
-            throws IOException {
-        var video = videoService.getVideo(videoId)
-                .orElseThrow(() -> new BadRequestException("Video not found: " + videoId));
-
-        if (!video.getUploaderId().equals(user.getUserId()) && !user.isAdmin()) {
-            throw new BadRequestException("You can only upload thumbnails for your own videos");
-        }
+    /**
+     * The partial file of a chunked upload if chunk 0 has arrived (so its header
+     * can be probed), with whether the last chunk is there too. Empty otherwise.
+     */
+    public Optional<PartialUpload> partial(String videoId) throws IOException {
+        ChunkAssembler.Layout layout = chunkAssembler.layout(videoId);
+        if (!chunkAssembler.isStored(videoId, 0)) return Optional.empty();
+        return Optional.of(new PartialUpload(chunkAssembler.target(videoId),
+                chunkAssembler.isStored(videoId, layout.totalChunks() - 1), layout.totalChunks()));
+    }
 
-        String contentType = file.getContentType();
-        if (contentType == null || !contentType.startsWith("image/")) {
-            throw new BadRequestException("File must be an image");
-        }
+    public boolean isComplete(String videoId) throws IOException {
+        return chunkAssembler.isComplete(videoId);
+    }
 
-        Path thumbnailDir = Paths.get(video.getThumbnailPath());
-        Files.createDirectories(thumbnailDir);
-        
-        String extension = getFileExtension(file.getOriginalFilename());
-        Path customThumbnail = thumbnailDir.resolve("custom." + extension);
-        
-        try (InputStream in = file.getInputStream()) {
-            Files.copy(in, customThumbnail, StandardCopyOption.REPLACE_EXISTING);
-        }
+    public int firstMissing(String videoId) throws IOException {
+        return chunkAssembler.firstMissing(videoId);
+    }
 
-        log.info("[Thumbnail] Custom uploaded for video: {}", videoId);
+    /** Closes a complete session and returns the assembled file with its SHA-256. */
+    public ChunkAssembler.Assembled complete(String videoId) throws IOException {
+        ChunkAssembler.Assembled assembled = chunkAssembler.finish(videoId);
+        sessionRepository.finish(videoId, UploadSessionStatus.COMPLETED.name());
+        return assembled;
     }
 
-    private void cleanupSession(UploadSession session) {
-        try {
-            if (session.getTempFilePath() != null) {
-                Files.deleteIfExists(session.getTempFilePath());
-            }
-            activeSessions.remove(session.getUploadId());
-        } catch (IOException e) {
-            log.error("[Upload] Cleanup failed: {}", e.getMessage());
-        }
+    public void cancel(String videoId) {
+        boolean wasActive = sessionRepository.finish(videoId, UploadSessionStatus.CANCELLED.name()) > 0;
+        if (wasActive) abortDirect(videoId);
+        chunkAssembler.discard(videoId);
+        events.publishEvent(new UploadAbandonedEvent(videoId));
     }
 
-    private String getFileExtension(String filename) {
-        if (filename == null || !filename.contains(".")) {
-            return "";
-        }
-        return filename.substring(filename.lastIndexOf('.') + 1);
+    /** Frees the parts MinIO holds for a direct upload that will never complete. */
+    private void abortDirect(String videoId) {
+        sessionRepository.findByVideoId(videoId).filter(UploadSession::isDirect)
+                .ifPresent(s -> storageService.abortMultipartUpload(s.getObjectKey(), s.getS3UploadId()));
     }
 
-    private long getFreeSpace() {
-        long now = System.currentTimeMillis();
-        if (now - cacheTimestamp > CACHE_TTL_MS) {
+    /**
+     * Expires sessions past their expiry and deletes their half-uploaded videos,
+     * then drops any scratch assembly that has no live session at all (e.g. left
+     * by a crash between preallocation and the session insert).
+     */
+    @Scheduled(fixedDelayString = "${modtube.storage.upload-session.janitor-ms:600000}", initialDelay = 120_000)
+    public void reclaimAbandoned() {
+        int expired = 0;
+        for (String videoId : sessionRepository.findExpiredVideoIds(JANITOR_BATCH)) {
+            // CAS on ACTIVE: a /complete that just won keeps its upload.
+            if (sessionRepository.finish(videoId, UploadSessionStatus.EXPIRED.name()) == 0) continue;
+            abortDirect(videoId);
+            chunkAssembler.discard(videoId);
+            events.publishEvent(new UploadAbandonedEvent(videoId));
             try {
-                cachedFreeSpace = Files.getFileStore(uploadDir).getUsableSpace();
-                cacheTimestamp = now;
-            } catch (IOException e) {
-                log.error("[Upload] Failed to check disk space: {}", e.getMessage());
+                boolean stillUploading = videoService.getVideo(videoId)
+                        .map(v -> v.getStatus() == VideoStatus.UPLOADING).orElse(false);
+                if (stillUploading) videoService.deleteVideo(videoId);
+            } catch (Exception e) {
+                log.warn("[Upload] Could not delete abandoned video={}: {}", videoId, e.getMessage());
             }
+            expired++;
         }
-        return cachedFreeSpace;
-    }
 
-    private static class UploadSession {
-        private final String uploadId;
-        private final String videoId;
-        private final String filename;
-        private final long totalSize;
-        private final int totalChunks;
-        private final boolean[] completedChunks;
-        private Path tempFilePath;
-
-        public UploadSession(String uploadId, String videoId, String filename, 
-                           long totalSize, int totalChunks) {
-            this.uploadId = uploadId;
-            this.videoId = videoId;
-            this.filename = filename;
-            this.totalSize = totalSize;
-            this.totalChunks = totalChunks;
-            this.completedChunks = new boolean[totalChunks];
+        int orphans = 0;
+        for (String videoId : chunkAssembler.staleAssemblies(Instant.now().minusSeconds(ttlSeconds))) {
+            boolean live = sessionRepository.findByVideoId(videoId)
+                    .map(s -> s.getStatus() == UploadSessionStatus.ACTIVE).orElse(false);
+            if (live) continue;
+            chunkAssembler.discard(videoId);
+            orphans++;
         }
-
-        public String getUploadId() { return uploadId; }
-        public String getVideoId() { return videoId; }
-        public String getFilename() { return filename; }
-        public long getTotalSize() { return totalSize; }
-        public Path getTempFilePath() { return tempFilePath; }
-        public void setTempFilePath(Path path) { this.tempFilePath = path; }
-
-        public void markChunkComplete(int index) {
-            if (index >= 0 && index < totalChunks) {
-                completedChunks[index] = true;
-            }
+        if (expired > 0 || orphans > 0) {
+            log.info("[Upload] Janitor reclaimed {} expired session(s) and {} orphaned assembly(ies)", expired, orphans);
         }
     }
-}
\ No newline at end of file
+}
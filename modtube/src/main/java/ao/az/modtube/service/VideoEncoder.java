@@ -0,0 +1,56 @@
+package ao.az.modtube.service;
+
+import java.util.List;
+
+/**
+ * One video encoder backend FFmpeg can drive — what a ladder rung is encoded
+ * with. {@link VideoEncoders} picks one per rung from the settings; every
+ * rendition command asks it for its codec options and master.m3u8 for its
+ * CODECS string, so adding a backend is one more component.
+ *
+ * Quality is given on the x264 CRF scale (what the static ladder and per-title
+ * analysis work in) and each backend maps it to its own.
+ */
+public interface VideoEncoder {
+
+    /** Name in settings and piece ladder specs: "x264", "x265", "svt-av1". */
+    String name();
+
+    /** Preset used when the setting doesn't name one. */
+    String defaultPreset();
+
+    /** Whether HLS allows this codec in MPEG-TS segments — otherwise it needs fMP4. */
+    boolean supportsTs();
+
+    /**
+     * Output options encoding one video stream at {@code rung}. {@code stream}
+     * is the option suffix picking the stream: ":v" in a one-rendition command,
+     * ":v:N" for output stream N of the single-pass graph.
+     */
+    List<String> args(String stream, Rung rung, String preset);
+
+    /** RFC 6381 codec string of the video stream this produces, for CODECS in master.m3u8. */
+    String codecs(Rung rung);
+
+    /**
+     * What a rung asks of the encoder: output size, CRF on the x264 scale, and
+     * the H.264 profile and level it is published at.
+     */
+    record Rung(int width, int height, int crf, String h264Profile, String h264Level) {}
+
+    /**
+     * Level ("3.0", "4.0", …) for a frame this big, from HEVC's picture size
+     * limits (AV1's are the same or a little higher): 3.0 ≤ 552,960 luma
+     * samples, 3.1 ≤ 983,040, 4.0 ≤ 2,228,224, 5.x ≤ 8,912,896. Within 5.x,
+     * frames over 4 Mpx (2160p) get 5.1 so 60 fps fits.
+     */
+    static String levelFor(int width, int height) {
+        long pixels = (long) width * height;
+        if (pixels <= 552_960) return "3.0";
+        if (pixels <= 983_040) return "3.1";
+        if (pixels <= 2_228_224) return "4.0";
+        if (pixels <= 4_194_304) return "5.0";
+        if (pixels <= 8_912_896) return "5.1";
+        return "6.0";
+    }
+}
@@ -0,0 +1,75 @@
+package ao.az.modtube.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the {@link VideoEncoder} and preset each rung is encoded with, from
+ * two runtime settings:
+ * <ul>
+ *   <li>{@code transcode.encoder} — every rung's default, "x264" if unset;</li>
+ *   <li>{@code transcode.encoders} — per-rung overrides,
+ *       e.g. "1080p=x265,1440p=svt-av1:7,2160p=svt-av1".</li>
+ * </ul>
+ * A choice is "{encoder}" or "{encoder}:{preset}". An unknown encoder, or one
+ * HLS can't carry in MPEG-TS while segment-format is ts, falls back to x264.
+ */
+@Slf4j
+@Component
+public class VideoEncoders {
+
+    public static final String DEFAULT = "x264";
+
+    private final Map<String, VideoEncoder> encoders = new LinkedHashMap<>();
+    private final SystemSettingService settingService;
+
+    public VideoEncoders(List<VideoEncoder> encoders, SystemSettingService settingService) {
+        encoders.forEach(e -> this.encoders.put(e.name(), e));
+        this.settingService = settingService;
+    }
+
+    /** An encoder with the preset to run it at. */
+    public record Choice(VideoEncoder encoder, String preset) {
+        /** "{encoder}:{preset}" — the form {@link #parse} reads back. */
+        public String spec() {
+            return encoder.name() + ":" + preset;
+        }
+    }
+
+    /** The choice for one rung under the current settings. */
+    public Choice forRung(String label, boolean fmp4) {
+        String spec = settingService.get("transcode.encoder", DEFAULT).trim();
+        for (String entry : settingService.get("transcode.encoders", "").split(",")) {
+            int eq = entry.indexOf('=');
+            if (eq > 0 && entry.substring(0, eq).trim().equalsIgnoreCase(label)) {
+                spec = entry.substring(eq + 1).trim();
+            }
+        }
+        Choice choice = parse(spec);
+        if (!fmp4 && !choice.encoder().supportsTs()) {
+            log.warn("[Encoders] {} needs segment-format fmp4 — encoding {} with {}", choice.encoder().name(),
+                    label, DEFAULT);
+            return parse(DEFAULT);
+        }
+        return choice;
+    }
+
+    /** Reads "{encoder}" or "{encoder}:{preset}"; x264 for anything unknown. */
+    public Choice parse(String spec) {
+        String value = spec == null ? "" : spec.trim();
+        int colon = value.indexOf(':');
+        String name = (colon < 0 ? value : value.substring(0, colon)).trim().toLowerCase();
+        VideoEncoder encoder = encoders.get(name);
+        if (encoder == null) {
+            if (!name.isEmpty()) log.warn("[Encoders] Unknown encoder '{}' — using {}", name, DEFAULT);
+            encoder = encoders.get(DEFAULT);
+            colon = -1;
+        }
+        String preset = colon < 0 ? "" : value.substring(colon + 1).trim();
+        return new Choice(encoder, preset.isEmpty() ? encoder.defaultPreset() : preset);
+    }
+}
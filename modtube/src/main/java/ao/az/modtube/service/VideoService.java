@@ -5,6 +5,7 @@ import ao.az.modtube.domain.VideoLike;
 import ao.az.modtube.domain.VideoStatus;
 import ao.az.modtube.exception.BadRequestException;
 import ao.az.modtube.repository.CommentRepository;
+import ao.az.modtube.repository.TranscodeJobRepository;
 import ao.az.modtube.repository.VideoLikeRepository;
 import ao.az.modtube.repository.VideoRepository;
 import lombok.extern.slf4j.Slf4j;
@@ -34,6 +35,7 @@ public class VideoService {
     private final VideoRepository videoRepository;
     private final VideoLikeRepository videoLikeRepository;
     private final CommentRepository commentRepository;
+    private final TranscodeJobRepository transcodeJobRepository;
     private final StorageService storageService;
     private final Path uploadDir;
     private final Path hlsDir;
@@ -41,6 +43,7 @@ public class VideoService {
 
     public VideoService(VideoRepository videoRepository, VideoLikeRepository videoLikeRepository,
                         CommentRepository commentRepository,
+                        TranscodeJobRepository transcodeJobRepository,
                         StorageService storageService,
                         @Value("${modtube.storage.upload-dir}") String uploadDirPath,
                         @Value("${modtube.storage.hls-dir}") String hlsDirPath,
@@ -48,6 +51,7 @@ public class VideoService {
         this.videoRepository = videoRepository;
         this.videoLikeRepository = videoLikeRepository;
         this.commentRepository = commentRepository;
+        this.transcodeJobRepository = transcodeJobRepository;
         this.storageService = storageService;
         this.uploadDir = Paths.get(uploadDirPath);
         this.hlsDir = Paths.get(hlsDirPath);
@@ -229,6 +233,52 @@ public class VideoService {
         });
     }
 
+    @Transactional
+    public void updateContentHash(String id, String sha256) {
+        videoRepository.findById(id).ifPresent(video -> {
+            video.setContentSha256(sha256);
+            videoRepository.save(video);
+        });
+    }
+
+    /**
+     * If a fully transcoded video has the same content hash, points this video
+     * at its media (HLS ladder, default thumbnail, original) and marks it READY —
+     * no transcode needed. Returns the video whose media is now shared.
+     */
+    @Transactional
+    public Optional<Video> linkToTranscodedTwin(String id, String sha256, long fileSize) {
+        Video video = videoRepository.findById(id).orElse(null);
+        if (video == null) return Optional.empty();
+        Optional<Video> twin = videoRepository.findTranscodedByContentSha256(sha256, id);
+        twin.ifPresent(source -> {
+            String mediaId = source.getMediaOwnerId() != null ? source.getMediaOwnerId() : source.getId();
+            video.setMediaOwnerId(mediaId);
+            video.setMasterPlaylistUrl("/hls/" + mediaId + "/master.m3u8");
+            video.setThumbnailUrl("/thumbnails/" + mediaId + "/default.jpg");
+            video.setOriginalUrl(source.getOriginalUrl());
+            video.setAvailableQualities(new ArrayList<>(source.getAvailableQualities()));
+            video.setDurationSeconds(source.getDurationSeconds());
+            video.setWidth(source.getWidth());
+            video.setHeight(source.getHeight());
+            video.setCodec(source.getCodec());
+            video.setFrameRate(source.getFrameRate());
+            video.setVideoProfile(source.getVideoProfile());
+            video.setVideoLevel(source.getVideoLevel());
+            video.setPixelFormat(source.getPixelFormat());
+            video.setBitRate(source.getBitRate());
+            video.setRotation(source.getRotation());
+            video.setAudioCodec(source.getAudioCodec());
+            video.setPlannedQualities(source.getPlannedQualities());
+            video.setFileSize(fileSize);
+            video.setProcessingProgress(100);
+            video.setStatus(VideoStatus.READY);
+            video.setProcessedAtDateTime(LocalDateTime.now());
+            videoRepository.save(video);
+        });
+        return twin;
+    }
+
     /** Persists a human-readable failure reason so the UI shows WHY, not a generic error. */
     @Transactional
     public void updateProcessingError(String id, String reason) {
@@ -239,10 +289,32 @@ public class VideoService {
         });
     }
 
-    @Transactional
+    /** A single UPDATE — no load of the video and its collections. */
     public void updateProcessingProgress(String id, int progress) {
+        videoRepository.updateProcessingProgress(id, Math.min(100, Math.max(0, progress)));
+    }
+
+    /** Like {@link #updateProcessingProgress}, but never lowers it — for periodic progress writes. */
+    public void raiseProcessingProgress(String id, int progress) {
+        videoRepository.raiseProcessingProgress(id, Math.min(100, Math.max(0, progress)));
+    }
+
+    /** Records what the ingest probe found in the source, and the ladder planned from it. */
+    @Transactional
+    public void updateSourceInfo(String id, MediaProbe.MediaInfo info, List<String> plannedQualities) {
         videoRepository.findById(id).ifPresent(video -> {
-            video.setProcessingProgress(Math.min(100, Math.max(0, progress)));
+            video.setCodec(info.videoCodec());
+            video.setVideoProfile(info.profile());
+            video.setVideoLevel(info.level() > 0 ? info.level() : null);
+            video.setPixelFormat(info.pixelFormat());
+            video.setWidth(info.width());
+            video.setHeight(info.height());
+            video.setFrameRate(info.frameRate() > 0 ? info.frameRate() : null);
+            video.setBitRate(info.bitRate() > 0 ? info.bitRate() : null);
+            video.setRotation(info.rotation());
+            video.setDurationSeconds(info.durationSeconds());
+            video.setAudioCodec(info.audioCodec());
+            video.setPlannedQualities(String.join(",", plannedQualities));
             videoRepository.save(video);
         });
     }
@@ -318,10 +390,20 @@ public class VideoService {
         if (videoOpt.isPresent()) {
             Video video = videoOpt.get();
 
-            // Remove media from MinIO (primary store).
-            storageService.deletePrefix("hls/" + id);
-            storageService.deletePrefix("thumbnails/" + id);
-            storageService.deletePrefix("originals/" + id);
+            // Stop any queued/running transcode; a running worker notices on its next heartbeat.
+            transcodeJobRepository.cancelActiveForVideo(id);
+
+            // Remove media from MinIO (primary store) — unless other videos with the same
+            // content still play it (see linkToTranscodedTwin); the last one out deletes it.
+            String mediaId = video.getMediaOwnerId() != null ? video.getMediaOwnerId() : id;
+            if (videoRepository.countMediaUsers(mediaId, id) == 0) {
+                storageService.deletePrefix("hls/" + mediaId);
+                storageService.deletePrefix("thumbnails/" + mediaId);
+                storageService.deletePrefix("originals/" + mediaId);
+            }
+            if (!mediaId.equals(id)) {
+                storageService.deletePrefix("thumbnails/" + id);   // this video's own custom thumbnail
+            }
 
             // Defensively clean any local scratch left behind (e.g. failed transcode).
             if (video.getUploadPath() != null) {
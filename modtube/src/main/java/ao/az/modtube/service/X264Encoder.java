@@ -0,0 +1,56 @@
+package ao.az.modtube.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/** libx264 — the default: plays everywhere, in TS or fMP4. */
+@Component
+public class X264Encoder implements VideoEncoder {
+
+    @Override
+    public String name() {
+        return "x264";
+    }
+
+    @Override
+    public String defaultPreset() {
+        return "fast";
+    }
+
+    @Override
+    public boolean supportsTs() {
+        return true;
+    }
+
+    @Override
+    public List<String> args(String stream, Rung rung, String preset) {
+        return List.of(
+                "-c" + stream,       "libx264",
+                "-preset" + stream,  preset,
+                "-crf" + stream,     String.valueOf(rung.crf()),
+                "-profile" + stream, rung.h264Profile(),
+                "-level" + stream,   rung.h264Level());
+    }
+
+    /** avc1.PPCCLL — profile_idc, constraint flags (x264's baseline is constrained), level_idc. */
+    @Override
+    public String codecs(Rung rung) {
+        return avc1(rung.h264Profile(), rung.h264Level());
+    }
+
+    /** H.264 codec string for a profile name (x264's or ffprobe's) and level ("3.1"). */
+    static String avc1(String profile, String level) {
+        return avc1(profile, Math.round(Float.parseFloat(level) * 10));
+    }
+
+    /** As above, with the level as level_idc (31 for 3.1) — what ffprobe reports. */
+    static String avc1(String profile, int levelIdc) {
+        String pc = switch (profile == null ? "" : profile.toLowerCase()) {
+            case "baseline", "constrained baseline" -> "42E0";
+            case "main" -> "4D40";
+            default -> "6400";
+        };
+        return String.format("avc1.%s%02X", pc, levelIdc);
+    }
+}
@@ -0,0 +1,40 @@
+-- ═══════════════════════════════════════════════════════════════════
+-- V14: Durable transcoding job queue
+-- ───────────────────────────────────────────────────────────────────
+-- Replaces the fire-and-forget @Async executor. Workers claim QUEUED
+-- rows with SELECT … FOR UPDATE SKIP LOCKED, hold a lease that they
+-- heartbeat while FFmpeg runs, and expired leases are re-queued — so a
+-- restart (or a crashed node) resumes work instead of failing videos.
+-- ═══════════════════════════════════════════════════════════════════
+
+CREATE TABLE IF NOT EXISTS transcode_jobs (
+    id            BIGSERIAL PRIMARY KEY,
+    video_id      VARCHAR(64)  NOT NULL,
+    -- Local path of the assembled upload FFmpeg reads from.
+    input_path    TEXT         NOT NULL,
+    -- QUEUED | RUNNING | DONE | FAILED | CANCELLED
+    status        VARCHAR(20)  NOT NULL DEFAULT 'QUEUED',
+    attempts      INT          NOT NULL DEFAULT 0,
+    max_attempts  INT          NOT NULL DEFAULT 3,
+    -- Earliest time the job may be claimed (retry backoff).
+    run_after     TIMESTAMP    NOT NULL DEFAULT NOW(),
+    -- "{host}/{instance}" of the worker holding the lease.
+    owner         VARCHAR(255),
+    lease_until   TIMESTAMP,
+    heartbeat_at  TIMESTAMP,
+    last_error    TEXT,
+    created_at    TIMESTAMP    NOT NULL DEFAULT NOW(),
+    started_at    TIMESTAMP,
+    finished_at   TIMESTAMP
+);
+
+-- Claim query: oldest runnable QUEUED job first.
+CREATE INDEX IF NOT EXISTS idx_transcode_jobs_claim
+    ON transcode_jobs (run_after, id) WHERE status = 'QUEUED';
+
+-- Lease reaper: RUNNING jobs whose lease has expired.
+CREATE INDEX IF NOT EXISTS idx_transcode_jobs_lease
+    ON transcode_jobs (lease_until) WHERE status = 'RUNNING';
+
+CREATE INDEX IF NOT EXISTS idx_transcode_jobs_video_id
+    ON transcode_jobs (video_id);
@@ -0,0 +1,31 @@
+-- ═══════════════════════════════════════════════════════════════════
+-- V15: Resumable upload sessions
+-- ───────────────────────────────────────────────────────────────────
+-- One row per chunked upload. Chunk data and the per-chunk bitmap live
+-- next to each other in the upload's scratch dir (upload.chunks); this
+-- table is what survives a restart for the client to find its session
+-- again, and what the janitor scans to reclaim abandoned scratch space.
+-- ═══════════════════════════════════════════════════════════════════
+
+CREATE TABLE IF NOT EXISTS upload_sessions (
+    id             BIGSERIAL PRIMARY KEY,
+    video_id       VARCHAR(64)  NOT NULL UNIQUE,
+    uploader_id    BIGINT,
+    filename       VARCHAR(500) NOT NULL,
+    total_size     BIGINT       NOT NULL,
+    chunk_size     INT          NOT NULL,
+    total_chunks   INT          NOT NULL,
+    chunks_stored  INT          NOT NULL DEFAULT 0,
+    -- ACTIVE | COMPLETED | EXPIRED | CANCELLED
+    status         VARCHAR(20)  NOT NULL DEFAULT 'ACTIVE',
+    created_at     TIMESTAMP    NOT NULL DEFAULT NOW(),
+    updated_at     TIMESTAMP    NOT NULL DEFAULT NOW(),
+    -- Pushed forward by every stored chunk; the janitor reclaims ACTIVE rows past it.
+    expires_at     TIMESTAMP    NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_upload_sessions_expiry
+    ON upload_sessions (expires_at) WHERE status = 'ACTIVE';
+
+CREATE INDEX IF NOT EXISTS idx_upload_sessions_uploader
+    ON upload_sessions (uploader_id) WHERE status = 'ACTIVE';
@@ -0,0 +1,17 @@
+-- ═══════════════════════════════════════════════════════════════════
+-- V16: content hash of the original upload + shared media for duplicates
+-- ───────────────────────────────────────────────────────────────────
+-- content_sha256 is the SHA-256 of the uploaded file, computed while the
+-- chunks are assembled. An upload whose hash matches a video that is
+-- already transcoded is not transcoded again: media_owner_id points at
+-- the video whose hls/, thumbnails/ and originals/ objects it plays.
+-- ═══════════════════════════════════════════════════════════════════
+
+ALTER TABLE videos ADD COLUMN IF NOT EXISTS content_sha256 VARCHAR(64);
+ALTER TABLE videos ADD COLUMN IF NOT EXISTS media_owner_id VARCHAR(64);
+
+CREATE INDEX IF NOT EXISTS idx_videos_content_sha256
+    ON videos (content_sha256) WHERE content_sha256 IS NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_videos_media_owner_id
+    ON videos (media_owner_id) WHERE media_owner_id IS NOT NULL;
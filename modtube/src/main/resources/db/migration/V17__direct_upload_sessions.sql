@@ -0,0 +1,11 @@
+-- ═══════════════════════════════════════════════════════════════════
+-- V17: Direct-to-MinIO upload sessions
+-- ───────────────────────────────────────────────────────────────────
+-- A direct session has no local scratch: the browser PUTs each chunk
+-- as a part of an S3 multipart upload (presigned URL, proxied by
+-- nginx), and the parts MinIO already holds are the resume state.
+-- Both columns are NULL for chunked uploads through the app.
+-- ═══════════════════════════════════════════════════════════════════
+
+ALTER TABLE upload_sessions ADD COLUMN IF NOT EXISTS object_key   VARCHAR(512);
+ALTER TABLE upload_sessions ADD COLUMN IF NOT EXISTS s3_upload_id VARCHAR(255);
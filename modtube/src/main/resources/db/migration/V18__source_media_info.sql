@@ -0,0 +1,15 @@
+-- ═══════════════════════════════════════════════════════════════════
+-- V18: Source media info from the ingest probe
+-- ───────────────────────────────────────────────────────────────────
+-- ffprobe reads the container header as soon as the first chunk of
+-- an upload lands. What it finds is kept on the video (width/height
+-- are as displayed, i.e. after rotation), along with the rendition
+-- ladder planned from it, so the transcode doesn't probe again.
+-- ═══════════════════════════════════════════════════════════════════
+
+ALTER TABLE videos ADD COLUMN IF NOT EXISTS video_profile     VARCHAR(50);
+ALTER TABLE videos ADD COLUMN IF NOT EXISTS pixel_format      VARCHAR(32);
+ALTER TABLE videos ADD COLUMN IF NOT EXISTS bit_rate          BIGINT;
+ALTER TABLE videos ADD COLUMN IF NOT EXISTS rotation          INTEGER;
+ALTER TABLE videos ADD COLUMN IF NOT EXISTS audio_codec       VARCHAR(50);
+ALTER TABLE videos ADD COLUMN IF NOT EXISTS planned_qualities VARCHAR(100);
@@ -0,0 +1,47 @@
+-- ═══════════════════════════════════════════════════════════════════
+-- V19: Split transcoding — pieces of one transcode job
+-- ───────────────────────────────────────────────────────────────────
+-- A long source is cut at keyframes into pieces of a few minutes. Each
+-- piece is encoded into every rung by whichever worker claims it (same
+-- SKIP LOCKED / lease / heartbeat scheme as transcode_jobs), and the
+-- job's worker stitches the pieces' segment lists into one playlist
+-- per rung. Rows live only while their job runs.
+-- ═══════════════════════════════════════════════════════════════════
+
+CREATE TABLE IF NOT EXISTS transcode_pieces (
+    id             BIGSERIAL PRIMARY KEY,
+    job_id         BIGINT       NOT NULL REFERENCES transcode_jobs (id) ON DELETE CASCADE,
+    video_id       VARCHAR(64)  NOT NULL,
+    piece          INT          NOT NULL,
+    start_seconds  DOUBLE PRECISION NOT NULL,
+    -- NULL for the last piece: to the end of the source.
+    length_seconds DOUBLE PRECISION,
+    -- Same form as transcode_jobs.input_path (local path or "minio:" + key).
+    input_path     TEXT         NOT NULL,
+    -- Comma-separated rungs to encode as "label/crf/maxrate-kbps/encoder",
+    -- e.g. "480p/23/1800/x264:fast,1080p/19/9000/x264:fast" (TEXT since V21).
+    ladder         VARCHAR(100) NOT NULL,
+    -- Only workers on this host may claim it (a local input); NULL = any node.
+    host           VARCHAR(255),
+    -- QUEUED | RUNNING | DONE | FAILED
+    status         VARCHAR(20)  NOT NULL DEFAULT 'QUEUED',
+    attempts       INT          NOT NULL DEFAULT 0,
+    max_attempts   INT          NOT NULL DEFAULT 3,
+    owner          VARCHAR(255),
+    lease_until    TIMESTAMP,
+    last_error     TEXT,
+    -- Once DONE: one "{rung} {duration} {segment} {bytes}" line per segment
+    -- ("{rung} init {file}" first in fMP4 mode), then one
+    -- "images {sheet} {bytes}" line per trick-play sprite sheet.
+    segments       TEXT,
+    created_at     TIMESTAMP    NOT NULL DEFAULT NOW(),
+    started_at     TIMESTAMP,
+    finished_at    TIMESTAMP,
+    UNIQUE (job_id, piece)
+);
+
+CREATE INDEX IF NOT EXISTS idx_transcode_pieces_claim
+    ON transcode_pieces (job_id, piece) WHERE status = 'QUEUED';
+
+CREATE INDEX IF NOT EXISTS idx_transcode_pieces_lease
+    ON transcode_pieces (lease_until) WHERE status = 'RUNNING';
@@ -0,0 +1,9 @@
+-- ═══════════════════════════════════════════════════════════════════
+-- V20: Codec level of the source's video stream
+-- ───────────────────────────────────────────────────────────────────
+-- level_idc as ffprobe reports it (41 = H.264 level 4.1). A rung that
+-- is stream-copied from the source is published with the source's
+-- level in its CODECS attribute, not the ladder's nominal one.
+-- ═══════════════════════════════════════════════════════════════════
+
+ALTER TABLE videos ADD COLUMN IF NOT EXISTS video_level INTEGER;
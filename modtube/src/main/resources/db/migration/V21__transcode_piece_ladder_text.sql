@@ -0,0 +1,9 @@
+-- ═══════════════════════════════════════════════════════════════════
+-- V21: Unbounded transcode_pieces.ladder
+-- ───────────────────────────────────────────────────────────────────
+-- Each rung's spec now carries its encoder choice
+-- ("1440p/18/12000/x264:fast"), so a full 2160p ladder with per-title
+-- maxrates no longer fits in 100 characters.
+-- ═══════════════════════════════════════════════════════════════════
+
+ALTER TABLE transcode_pieces ALTER COLUMN ladder TYPE TEXT;
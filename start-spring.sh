@@ -9,6 +9,7 @@ echo "[spring] PostgreSQL ready. Starting Spring Boot..."
 
 exec /opt/java/bin/java \
     -Xmx512m \
+    -XX:MaxDirectMemorySize=${MAX_DIRECT_MEMORY:-512m} \
     -Djava.security.egd=file:/dev/./urandom \
     -jar /app/modtube.jar \
     --spring.config.location=classpath:/config/application.yml
@@ -2,6 +2,26 @@ import React, { useEffect, useRef, useState } from 'react';
 import Hls from 'hls.js';
 import { Play, Pause, Volume2, VolumeX, Maximize, Minimize, Settings } from 'lucide-react';
 
+// "HH:MM:SS.mmm" or "MM:SS.mmm" → seconds
+const parseVttTime = (t) => t.split(':').reduce((acc, part) => acc * 60 + parseFloat(part), 0);
+
+// Trick-play track written next to master.m3u8: one cue per tile, "sheet.jpg#xywh=x,y,w,h".
+const parseThumbnailVtt = (text, baseUrl) => {
+  const cues = [];
+  const blocks = text.replace(/\r/g, '').split('\n\n');
+  for (const block of blocks) {
+    const lines = block.split('\n').filter(Boolean);
+    const timing = lines.findIndex(l => l.includes('-->'));
+    if (timing < 0 || !lines[timing + 1]) continue;
+    const [start, end] = lines[timing].split('-->').map(s => parseVttTime(s.trim()));
+    const [file, hash] = lines[timing + 1].trim().split('#xywh=');
+    if (!hash) continue;
+    const [x, y, w, h] = hash.split(',').map(Number);
+    cues.push({ start, end, url: new URL(file, baseUrl).href, x, y, w, h });
+  }
+  return cues;
+};
+
 const VideoPlayer = ({ hlsUrl, onTimeUpdate, startTime = 0, autoPlay = false, onEnded }) => {
   const videoRef = useRef(null);
   const hlsRef = useRef(null);
@@ -18,6 +38,8 @@ const VideoPlayer = ({ hlsUrl, onTimeUpdate, startTime = 0, autoPlay = false, on
   const [currentQuality, setCurrentQuality] = useState(-1);
   const [showQualityMenu, setShowQualityMenu] = useState(false);
   const [isSwitchingQuality, setIsSwitchingQuality] = useState(false);
+  const [thumbnails, setThumbnails] = useState([]);
+  const [hoverPreview, setHoverPreview] = useState(null);
   const controlsTimeoutRef = useRef(null);
   const qualitySwitchTimeoutRef = useRef(null);
 
@@ -144,6 +166,21 @@ const VideoPlayer = ({ hlsUrl, onTimeUpdate, startTime = 0, autoPlay = false, on
     }
   }, [hlsUrl, startTime, autoPlay]);
 
+  // Seek previews — optional: older videos have no trick-play track.
+  useEffect(() => {
+    setThumbnails([]);
+    if (!hlsUrl || !/master\.m3u8(\?.*)?$/.test(hlsUrl)) return;
+    const vttUrl = new URL(hlsUrl.replace(/master\.m3u8(\?.*)?$/, 'images/thumbnails.vtt'), window.location.href).href;
+    let cancelled = false;
+    fetch(vttUrl)
+      .then(res => (res.ok ? res.text() : ''))
+      .then(text => {
+        if (!cancelled && text.startsWith('WEBVTT')) setThumbnails(parseThumbnailVtt(text, vttUrl));
+      })
+      .catch(() => {});
+    return () => { cancelled = true; };
+  }, [hlsUrl]);
+
   useEffect(() => {
     const video = videoRef.current;
     if (!video) return;
@@ -243,6 +280,16 @@ const VideoPlayer = ({ hlsUrl, onTimeUpdate, startTime = 0, autoPlay = false, on
     setCurrentTime(seekTime);
   };
 
+  const handleSeekHover = (e) => {
+    if (!thumbnails.length || !duration) return;
+    const rect = e.currentTarget.getBoundingClientRect();
+    const ratio = Math.min(Math.max((e.clientX - rect.left) / rect.width, 0), 1);
+    const time = ratio * duration;
+    const cue = thumbnails.find(c => time >= c.start && time < c.end) || thumbnails[thumbnails.length - 1];
+    const left = Math.min(Math.max(e.clientX - rect.left - cue.w / 2, 0), rect.width - cue.w);
+    setHoverPreview({ cue, time, left });
+  };
+
   const toggleFullscreen = async () => {
     const container = playerContainerRef.current;
     if (!container) return;
@@ -378,6 +425,27 @@ const VideoPlayer = ({ hlsUrl, onTimeUpdate, startTime = 0, autoPlay = false, on
           showControls ? 'opacity-100' : 'opacity-0'
         }`}
       >
+        {/* Seek preview */}
+        {hoverPreview && (
+          <div
+            className="absolute pointer-events-none flex flex-col items-center"
+            style={{ left: `${16 + hoverPreview.left}px`, bottom: '4.5rem' }}
+          >
+            <div
+              className="rounded border border-white/60 shadow-lg"
+              style={{
+                width: `${hoverPreview.cue.w}px`,
+                height: `${hoverPreview.cue.h}px`,
+                backgroundImage: `url("${hoverPreview.cue.url}")`,
+                backgroundPosition: `-${hoverPreview.cue.x}px -${hoverPreview.cue.y}px`,
+              }}
+            />
+            <span className="mt-1 text-white text-xs font-medium bg-black/70 px-1.5 rounded">
+              {formatTime(hoverPreview.time)}
+            </span>
+          </div>
+        )}
+
         {/* Progress bar */}
         <input
           type="range"
@@ -385,6 +453,8 @@ const VideoPlayer = ({ hlsUrl, onTimeUpdate, startTime = 0, autoPlay = false, on
           max={duration || 0}
           value={currentTime}
           onChange={handleSeek}
+          onMouseMove={handleSeekHover}
+          onMouseLeave={() => setHoverPreview(null)}
           className="w-full h-1 mb-4 cursor-pointer accent-primary-600 appearance-none bg-gray-600 rounded-full"
           style={{
             background: `linear-gradient(to right, #f97316 0%, #f97316 ${duration > 0 ? (currentTime / duration) * 100 : 0}%, #4B5563 ${duration > 0 ? (currentTime / duration) * 100 : 0}%, #4B5563 100%)`
@@ -5,6 +5,7 @@ const UploadContext = createContext(null);
 export const useUpload = () => useContext(UploadContext);
 
 const MAX_RETRIES = 3;
+const PART_URL_BATCH = 20; // presigned part URLs fetched per request in direct mode
 
 const MB = 1024 * 1024;
 const GB = 1024 * MB;
@@ -52,6 +53,47 @@ const makeId = () => `up-${Date.now()}-${_nextId++}`;
 
 const isFinished = (u) => u.phase === 'done' || u.phase === 'error';
 
+// Base64 SHA-256 of a chunk for the server to verify, or null where WebCrypto
+// is unavailable (plain-HTTP origins) — the chunk is then sent unverified.
+async function chunkChecksum(blob) {
+  if (!window.crypto?.subtle) return null;
+  try {
+    const digest = await window.crypto.subtle.digest('SHA-256', await blob.arrayBuffer());
+    let binary = '';
+    new Uint8Array(digest).forEach(b => { binary += String.fromCharCode(b); });
+    return btoa(binary);
+  } catch {
+    return null;
+  }
+}
+
+// Finds an unfinished server-side upload of this same file and returns the
+// chunk indexes it already holds, so only the missing ones are sent.
+async function findResumable(file, chunkSize) {
+  try {
+    const sessions = await videoService.getUploadSessions();
+    const match = sessions.find(s =>
+      s.filename === file.name && s.totalSize === file.size && s.chunkSize === chunkSize);
+    if (!match) return null;
+    const status = await videoService.getChunkStatus(match.videoId);
+    const stored = new Set();
+    (status.storedRanges || []).forEach(([from, to]) => {
+      for (let i = from; i <= to; i++) stored.add(i);
+    });
+    return { videoId: match.videoId, stored, direct: !!match.direct };
+  } catch {
+    return null; // resume is best-effort — fall back to a fresh upload
+  }
+}
+
+// Backoff before the next attempt: the server's Retry-After when it sent one
+// (503 while an ingest stage is saturated or an upload isn't admitted yet),
+// exponential otherwise.
+const retryDelay = (err, attempt) => {
+  const retryAfter = Number(err.response?.headers?.['retry-after']);
+  return Number.isFinite(retryAfter) && retryAfter > 0 ? retryAfter * 1000 : 1000 * 2 ** attempt;
+};
+
 const isAbortError = (err) =>
   err?.name === 'AbortError' ||
   err?.name === 'CanceledError' ||
@@ -85,16 +127,68 @@ export const UploadProvider = ({ children }) => {
     pollsRef.current.clear();
   };
 
-  const uploadChunkWithRetry = async (chunk, idx, total, videoId, signal) => {
+  const uploadChunkWithRetry = async (chunk, start, totalSize, videoId, signal) => {
+    const checksum = await chunkChecksum(chunk);
+    for (let attempt = 0; attempt < MAX_RETRIES; attempt++) {
+      if (signal?.aborted) throw new DOMException('Aborted', 'AbortError');
+      try {
+        await videoService.putChunk(chunk, start, start + chunk.size - 1, totalSize, videoId, signal, checksum);
+        return;
+      } catch (err) {
+        if (isAbortError(err)) throw err;
+        const status = err.response?.status;
+        if (status === 400 || status === 410) throw err; // retrying can't fix these
+        if (attempt === MAX_RETRIES - 1) throw err;
+        await new Promise(r => setTimeout(r, retryDelay(err, attempt)));
+      }
+    }
+  };
+
+  // Direct mode: PUT the chunk to its presigned MinIO part URL. A 403 usually
+  // means the URL expired — fetch a fresh one and try again.
+  const uploadPartWithRetry = async (chunk, idx, partUrl, signal) => {
+    let fresh = false;
     for (let attempt = 0; attempt < MAX_RETRIES; attempt++) {
       if (signal?.aborted) throw new DOMException('Aborted', 'AbortError');
       try {
-        await videoService.uploadChunk(chunk, idx, total, videoId, signal);
+        await videoService.putPart(await partUrl(idx, fresh), chunk, signal);
         return;
       } catch (err) {
         if (isAbortError(err)) throw err;
+        const status = err.response?.status;
+        if (status === 400 || status === 410) throw err;
         if (attempt === MAX_RETRIES - 1) throw err;
-        await new Promise(r => setTimeout(r, 1000 * 2 ** attempt));
+        fresh = status === 403;
+        await new Promise(r => setTimeout(r, retryDelay(err, attempt)));
+      }
+    }
+  };
+
+  // /complete is refused with 503 while too many uploads are being finalised.
+  const completeWithRetry = async (videoId, signal) => {
+    for (let attempt = 0; ; attempt++) {
+      try {
+        return await videoService.completeUpload(videoId);
+      } catch (err) {
+        if (err.response?.status !== 503 || attempt === MAX_RETRIES * 2 || signal?.aborted) throw err;
+        await new Promise(r => setTimeout(r, retryDelay(err, attempt)));
+      }
+    }
+  };
+
+  // /init is deferred with 503 + Retry-After while the server's disk is promised
+  // to other uploads or the transcode queue is full. Show the upload as waiting.
+  const initWithRetry = async (id, file, title, description, chunks, chunkSize, signal) => {
+    for (let attempt = 0; ; attempt++) {
+      try {
+        const init = await videoService.initUpload(file.name, title, description, file.size, chunks, chunkSize);
+        if (attempt > 0) patchUpload(id, { phase: 'uploading' });
+        return init;
+      } catch (err) {
+        if (err.response?.status !== 503 || attempt === MAX_RETRIES * 4 || signal?.aborted) throw err;
+        patchUpload(id, { phase: 'idle' });
+        await new Promise(r => setTimeout(r, retryDelay(err, attempt)));
+        if (signal?.aborted) throw new DOMException('Aborted', 'AbortError');
       }
     }
   };
@@ -149,33 +243,56 @@ export const UploadProvider = ({ children }) => {
     const signal = ctrl.signal;
 
     const cfg       = uploadConfigRef.current;
-    const CHUNK_SIZE = getChunkSize(file.size);
-    const chunks    = Math.ceil(file.size / CHUNK_SIZE);
+    const requestedChunk = getChunkSize(file.size);
     startTimeRef.current.set(id, Date.now());
     bytesRef.current.set(id, 0);
 
     try {
-      const { videoId } = await videoService.initUpload(
-        file.name, title, description, file.size, chunks
+      const resumed = await findResumable(file, requestedChunk);
+      const init = resumed || await initWithRetry(
+        id, file, title, description, Math.ceil(file.size / requestedChunk), requestedChunk, signal
       );
+      const { videoId } = init;
+      // Direct uploads may get a larger chunk size (S3 part limits) from the server.
+      const direct     = resumed ? resumed.direct : init.mode === 'direct';
+      const CHUNK_SIZE = Number(init.chunkSize) || requestedChunk;
+      const chunks     = Math.ceil(file.size / CHUNK_SIZE);
+      const stored = resumed ? resumed.stored : new Set();
       patchUpload(id, { videoId });
 
+      const partUrls = new Map();
+      const partUrl = async (idx, fresh) => {
+        if (fresh || !partUrls.has(idx)) {
+          const { from, urls } = await videoService.getPartUrls(videoId, idx, PART_URL_BATCH);
+          urls.forEach((u, k) => partUrls.set(from + k, u));
+        }
+        return partUrls.get(idx);
+      };
+
       // Store videoId so cancelUpload can delete it from server
       const entry = cancelRef.current.get(id);
       if (entry) entry.videoId = videoId;
 
       if (signal.aborted) return;
 
-      let next = 0, done = 0;
+      const pending = [];
+      for (let i = 0; i < chunks; i++) if (!stored.has(i)) pending.push(i);
+      let next = 0, done = stored.size;
+      const resumedBytes = Math.min(file.size, done * CHUNK_SIZE);
+      if (done > 0) {
+        bytesRef.current.set(id, resumedBytes);
+        patchUpload(id, { uploadProgress: Math.round((done / chunks) * 100) });
+      }
 
       const worker = async () => {
-        while (next < chunks) {
+        while (next < pending.length) {
           if (signal.aborted) return;
-          const idx   = next++;
+          const idx   = pending[next++];
           const start = idx * CHUNK_SIZE;
           const end   = Math.min(start + CHUNK_SIZE, file.size);
 
-          await uploadChunkWithRetry(file.slice(start, end), idx, chunks, videoId, signal);
+          if (direct) await uploadPartWithRetry(file.slice(start, end), idx, partUrl, signal);
+          else await uploadChunkWithRetry(file.slice(start, end), start, file.size, videoId, signal);
 
           if (signal.aborted) return;
           done++;
@@ -185,7 +302,7 @@ export const UploadProvider = ({ children }) => {
 
           const startedAt = startTimeRef.current.get(id) || Date.now();
           const elapsed   = (Date.now() - startedAt) / 1000;
-          const speed     = elapsed > 0 ? newBytes / elapsed : 0;
+          const speed     = elapsed > 0 ? (newBytes - resumedBytes) / elapsed : 0;
           const eta       = speed > 0 ? (file.size - newBytes) / speed : null;
           patchUpload(id, {
             uploadProgress: Math.round((done / chunks) * 100),
@@ -194,11 +311,11 @@ export const UploadProvider = ({ children }) => {
         }
       };
 
-      await Promise.all(Array.from({ length: Math.min(cfg.chunks, chunks) }, worker));
+      await Promise.all(Array.from({ length: Math.max(1, Math.min(cfg.chunks, pending.length)) }, worker));
 
       if (signal.aborted) return;
 
-      await videoService.completeUpload(videoId);
+      await completeWithRetry(videoId, signal);
 
       if (signal.aborted) return;
 
@@ -383,6 +383,50 @@ const IdpSettings = () => {
                 Standart: 4K (2160p). Yuxarıda xüsusi keyfiyyət seçilibsə, bu parametr istifadə olunmur.
               </p>
             </div>
+
+            {/* Encoder per rendition — stored as "1080p=x265,2160p=svt-av1:8" */}
+            <div className="px-6 py-5">
+              <label className="block text-sm font-medium text-gray-700 dark:text-gray-300 mb-3">
+                Hər keyfiyyət üçün kodlayıcı
+              </label>
+              <div className="grid grid-cols-2 sm:grid-cols-5 gap-3">
+                {['480p', '720p', '1080p', '1440p', '2160p'].map(q => {
+                  const entries = (values['transcode.encoders'] || '')
+                    .split(',').map(s => s.trim()).filter(Boolean);
+                  const current = entries.find(e => e.split('=')[0] === q);
+                  const value = current ? current.split('=')[1].split(':')[0] : '';
+                  const change = (encoder) => {
+                    const rest = entries.filter(e => e.split('=')[0] !== q);
+                    // keep a preset typed in through the API when only the encoder is unchanged
+                    const kept = current && current.split('=')[1].split(':')[0] === encoder ? current : `${q}=${encoder}`;
+                    handleChange('transcode.encoders', (encoder ? [...rest, kept] : rest).join(','));
+                  };
+                  return (
+                    <div key={q}>
+                      <span className="block text-xs font-semibold text-gray-500 dark:text-gray-400 mb-1">
+                        {q === '2160p' ? '4K (2160p)' : q}
+                      </span>
+                      <select
+                        value={value}
+                        onChange={e => change(e.target.value)}
+                        className="w-full px-2 py-1.5 rounded-lg border border-gray-300 dark:border-army-600 bg-white dark:bg-army-900 text-sm text-gray-800 dark:text-gray-200"
+                      >
+                        <option value="">Standart ({values['transcode.encoder'] || 'x264'})</option>
+                        <option value="x264">x264 (H.264)</option>
+                        <option value="x265">x265 (HEVC)</option>
+                        <option value="svt-av1">SVT-AV1</option>
+                      </select>
+                    </div>
+                  );
+                })}
+              </div>
+              <p className="text-xs text-gray-400 dark:text-gray-500 mt-2">
+                x264 bütün cihazlarda oynadılır. x265 və SVT-AV1 eyni keyfiyyəti daha az bitlə verir, lakin
+                kodlaşdırma daha çox CPU tələb edir və yalnız fMP4 seqment formatında işləyir (əks halda x264
+                istifadə olunur). Bu kodeki dəstəkləməyən pleyerlər həmin keyfiyyəti ötürür. Yalnız yeni
+                yüklənənlərə təsir edir.
+              </p>
+            </div>
           </div>
 
           {/* Meeting Settings */}
@@ -54,7 +54,7 @@ const videoService = {
   },
 
   // ✅ FIXED: Use correct endpoints with  prefix
-  initUpload: async (filename, title, description, fileSize, totalChunks) => {
+  initUpload: async (filename, title, description, fileSize, totalChunks, chunkSize) => {
     try {
       const response = await api.post('/upload/init', null, {
         params: { 
@@ -62,7 +62,8 @@ const videoService = {
           title, 
           description, 
           totalSize: fileSize,
-          totalChunks 
+          totalChunks,
+          chunkSize
         }
       });
       return response.data;
@@ -92,6 +93,72 @@ const videoService = {
     }
   },
 
+  // Unfinished uploads of the current user (survive reloads and server restarts)
+  getUploadSessions: async () => {
+    try {
+      const response = await api.get('/upload/sessions');
+      return response.data || [];
+    } catch (error) {
+      console.error('[VideoService] Error listing upload sessions:', error);
+      throw error;
+    }
+  },
+
+  // Chunk ranges the server already stores for an unfinished upload
+  getChunkStatus: async (videoId) => {
+    try {
+      const response = await api.get(`/upload/${videoId}/chunks`);
+      return response.data;
+    } catch (error) {
+      console.error('[VideoService] Error getting chunk status:', error);
+      throw error;
+    }
+  },
+
+  // Raw-body chunk: the server streams it straight into the assembled file
+  // (no multipart parsing, no temp file). start/end are inclusive byte offsets.
+  // checksum (base64 SHA-256 of the chunk) is verified server-side when given.
+  putChunk: async (chunk, start, end, totalSize, videoId, signal = null, checksum = null) => {
+    try {
+      const headers = {
+        'Content-Type': 'application/octet-stream',
+        'Content-Range': `bytes ${start}-${end}/${totalSize}`,
+      };
+      if (checksum) headers['Upload-Checksum'] = `sha256 ${checksum}`;
+      const config = { headers, timeout: 300000 };
+      if (signal) config.signal = signal;
+
+      const response = await api.put(`/upload/${videoId}`, chunk, config);
+      return response.data;
+    } catch (error) {
+      console.error(`[VideoService] Error uploading bytes ${start}-${end}:`, error);
+      throw error;
+    }
+  },
+
+  // Direct mode: presigned MinIO part URLs for chunks from..from+count-1
+  getPartUrls: async (videoId, from, count) => {
+    try {
+      const response = await api.get(`/upload/${videoId}/part-urls`, { params: { from, count } });
+      return response.data;
+    } catch (error) {
+      console.error('[VideoService] Error getting part URLs:', error);
+      throw error;
+    }
+  },
+
+  // Direct mode: the chunk goes to MinIO through nginx, not to the app. Plain
+  // fetch — the URL carries its own signature and must not get our auth header.
+  putPart: async (url, chunk, signal = null) => {
+    const response = await fetch(url, { method: 'PUT', body: chunk, signal });
+    if (!response.ok) {
+      const error = new Error(`Part upload failed: HTTP ${response.status}`);
+      error.response = { status: response.status };
+      console.error('[VideoService] Error uploading part:', error);
+      throw error;
+    }
+  },
+
   cancelUpload: async (videoId) => {
     try {
       const response = await api.delete(`/upload/cancel/${videoId}`);